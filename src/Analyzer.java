@@ -0,0 +1,523 @@
+// A Lisp Driver to be embedded in Java Applications
+
+// The contents of this file are subject to the Mozilla Public License
+// Version 1.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at
+// http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS"
+// basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+// License for the specific language governing rights and limitations
+// under the License.
+//
+// The Original Code is JAKLD code, released November 26, 2002.
+//
+// The Initial Developer of the Original Code is Taiichi Yuasa.
+// Portions created by Taiichi Yuasa are Copyright (C) 2002
+// Taiichi Yuasa. All Rights Reserved.
+//
+// Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
+
+import java.util.Hashtable;
+
+final class Analyzer {
+
+	private final static Symbol Squote = Symbol.intern("quote");
+	private final static Symbol Squasiquote = Symbol.intern("quasiquote");
+	private final static Symbol Sunquote = Symbol.intern("unquote");
+	private final static Symbol SunquoteSplicing = Symbol
+			.intern("unquote-splicing");
+	private final static Symbol Sif = Symbol.intern("if");
+	private final static Symbol Scond = Symbol.intern("cond");
+	private final static Symbol Scase = Symbol.intern("case");
+	private final static Symbol Sand = Symbol.intern("and");
+	private final static Symbol Sor = Symbol.intern("or");
+	private final static Symbol Sbegin = Symbol.intern("begin");
+	private final static Symbol Slambda = Symbol.intern("lambda");
+	private final static Symbol Slet = Symbol.intern("let");
+	private final static Symbol SletA = Symbol.intern("let*");
+	private final static Symbol Sletrec = Symbol.intern("letrec");
+	private final static Symbol Sdo = Symbol.intern("do");
+	private final static Symbol Sset = Symbol.intern("set!");
+	private final static Symbol Sdefine = Symbol.intern("define");
+	private final static Symbol Stime = Symbol.intern("time");
+	private final static Symbol Selse = Symbol.intern("else");
+	private final static Symbol SEqLt = Symbol.intern("=>");
+	private final static Symbol Sfladd = Symbol.intern("fl+");
+	private final static Symbol Sflminus = Symbol.intern("fl-");
+	private final static Symbol Sflmult = Symbol.intern("fl*");
+	private final static Symbol Sfldiv = Symbol.intern("fl/");
+	private final static Symbol SflEQ = Symbol.intern("fl=?");
+	private final static Symbol SflLT = Symbol.intern("fl<?");
+	private final static Symbol SflGT = Symbol.intern("fl>?");
+	private final static Symbol SflLE = Symbol.intern("fl<=?");
+	private final static Symbol SflGE = Symbol.intern("fl>=?");
+	private final static Symbol Sflabs = Symbol.intern("flabs");
+	private final static Symbol Sflsqrt = Symbol.intern("flsqrt");
+	private final static Symbol Sfixnum2flonum = Symbol
+			.intern("fixnum->flonum");
+	private final static Symbol Sf64vectorRef = Symbol.intern("f64vector-ref");
+	private final static Symbol Sf64vectorSet = Symbol
+			.intern("f64vector-set!");
+
+	static {
+		Subr.defSpecial("quote", 1, 0, false);
+		Subr.defSpecial("quasiquote", 1, 0, false);
+		Subr.defSpecial("if", 2, 1, false);
+		Subr.defSpecial("cond", 1, 0, true);
+		Subr.defSpecial("case", 2, 0, true);
+		Subr.defSpecial("and", 0, 0, true);
+		Subr.defSpecial("or", 0, 0, true);
+		Subr.defSpecial("begin", 0, 0, true);
+		Subr.defSpecial("lambda", 1, 0, true);
+		Subr.defSpecial("let", 1, 0, true);
+		Subr.defSpecial("let*", 1, 0, true);
+		Subr.defSpecial("letrec", 1, 0, true);
+		Subr.defSpecial("do", 2, 0, true);
+		Subr.defSpecial("set!", 2, 0, false);
+		Subr.defSpecial("define", 0, 0, true);
+		Subr.defSpecial("time", 1, 0, false);
+	}
+
+	static Node analyze(Object x, Scope scope, boolean tailp) {
+		if (x instanceof Symbol) {
+			Symbol sym = (Symbol) x;
+			int addr = Scope.lookup(sym, scope);
+			if (addr >= 0)
+				return Node.localRef(addr >> 16, addr & 0xffff);
+			else
+				return new Node.GlobalRef(sym);
+		} else if (x instanceof Pair) {
+			Pair form = (Pair) x;
+			if (form.car instanceof Symbol) {
+				Symbol sym = (Symbol) form.car;
+				if (!Scope.binds(sym, scope)) {
+					// A special form is recognized only when its name is
+					// not shadowed by a local variable.
+					if (sym.isSpecialForm())
+						try {
+							return special(sym, form, scope, tailp);
+						} catch (RuntimeException e) {
+							return new Node.Fail(e);
+						}
+					Object val = sym.globalValue();
+					if (val instanceof Macro) {
+						form.car = ((Macro) val).expand();
+						return analyze(form, scope, tailp);
+					}
+					if (val != null && val == inlines.get(sym)) {
+						Node node = inline(sym, (Subr) val, form, scope);
+						if (node != null)
+							return node;
+					}
+				}
+			}
+			Node fn = (form.car instanceof Symbol
+					&& !Scope.binds((Symbol) form.car, scope) ? new Node.GlobalFn(
+					(Symbol) form.car) : analyze(form.car, scope, false));
+			int n = 0;
+			for (Object as = form.cdr; as instanceof Pair; as = ((Pair) as).cdr)
+				n++;
+			Node[] args = new Node[n];
+			List as = (List) form.cdr;
+			for (int i = 0; i < n; i++, as = (List) as.cdr)
+				args[i] = analyze(as.car, scope, false);
+			return new Node.Invoke(fn, args, tailp, form, scope);
+		} else
+			return new Node.Const(x);
+	}
+
+	// Primitives whose calls are compiled into Nodes of their own, with
+	// the Subr each name must still be bound to.
+	private final static Hashtable<Symbol, Subr> inlines = new Hashtable<Symbol, Subr>();
+
+	static void defInline(String name) {
+		Symbol sym = Symbol.intern(name);
+		inlines.put(sym, (Subr) sym.globalValue());
+	}
+
+	// Returns the inlined call of subr, or null if the call has a form
+	// that is left to subr. The lambda around the call is analyzed again
+	// if sym is redefined.
+	private static Node inline(Symbol sym, Subr subr, Pair form, Scope scope) {
+		int n = 0;
+		Object x = form.cdr;
+		for (; x instanceof Pair; x = ((Pair) x).cdr)
+			n++;
+		if (x != List.nil)
+			return null;
+		List args = (List) form.cdr;
+		Node node;
+		if (sym == Sfladd || sym == Sflminus || sym == Sflmult
+				|| sym == Sfldiv) {
+			if (n == 0)
+				return null;
+			int op = (sym == Sfladd ? Node.FloOp.ADD
+					: sym == Sflminus ? Node.FloOp.SUB
+							: sym == Sflmult ? Node.FloOp.MUL
+									: Node.FloOp.DIV);
+			Node.Flo val = flonum(args.car, 0, subr, scope);
+			if (n == 1 && sym == Sflminus)
+				val = new Node.FloOp(Node.FloOp.NEG, val, null);
+			else if (n == 1 && sym == Sfldiv)
+				val = new Node.FloOp(op, new Node.FloConst(1.0), val);
+			for (int i = 1; i < n; i++) {
+				args = (List) args.cdr;
+				val = new Node.FloOp(op, val, flonum(args.car, i, subr, scope));
+			}
+			node = val;
+		} else if (sym == SflEQ || sym == SflLT || sym == SflGT
+				|| sym == SflLE || sym == SflGE) {
+			if (n != 2)
+				return null;
+			int op = (sym == SflEQ ? Node.FloCompare.EQ
+					: sym == SflLT ? Node.FloCompare.LT
+							: sym == SflGT ? Node.FloCompare.GT
+									: sym == SflLE ? Node.FloCompare.LE
+											: Node.FloCompare.GE);
+			node = new Node.FloCompare(op, flonum(args.car, 0, subr, scope),
+					flonum(((List) args.cdr).car, 1, subr, scope));
+		} else if (sym == Sflabs || sym == Sflsqrt) {
+			if (n != 1)
+				return null;
+			node = new Node.FloOp(sym == Sflabs ? Node.FloOp.ABS
+					: Node.FloOp.SQRT, flonum(args.car, 0, subr, scope), null);
+		} else if (sym == Sfixnum2flonum) {
+			if (n != 1)
+				return null;
+			node = new Node.FixToFlo(analyze(args.car, scope, false), subr);
+		} else if (sym == Sf64vectorRef) {
+			if (n != 2)
+				return null;
+			node = new Node.F64Ref(analyze(args.car, scope, false), analyze(
+					((List) args.cdr).car, scope, false), subr);
+		} else if (sym == Sf64vectorSet) {
+			if (n != 3)
+				return null;
+			List rest = (List) args.cdr;
+			node = new Node.F64Set(analyze(args.car, scope, false), analyze(
+					rest.car, scope, false), analyze(((List) rest.cdr).car,
+					scope, false), subr);
+		} else
+			return null;
+
+		Node.Closure owner = Scope.owner(scope);
+		if (owner != null)
+			owner.inlined(sym);
+		return node;
+	}
+
+	// Analyzes the i-th argument x of a call of subr that takes flonums.
+	private static Node.Flo flonum(Object x, int i, Subr subr, Scope scope) {
+		if (x instanceof Flonum)
+			return new Node.FloConst(((Flonum) x).value);
+		Node node = analyze(x, scope, false);
+		return node instanceof Node.Flo ? (Node.Flo) node : new Node.Unbox(
+				node, subr, i);
+	}
+
+	private static Node special(Symbol sym, Pair form, Scope scope,
+			boolean tailp) {
+		List args = (List) form.cdr;
+		((Subr) sym.functionOf()).checkArgs(args);
+		if (sym == Squote)
+			return new Node.Const(args.car);
+		else if (sym == Sif) {
+			Node test = analyze(args.car, scope, false);
+			args = (List) args.cdr;
+			Node then = analyze(args.car, scope, tailp);
+			args = (List) args.cdr;
+			Node otherwise = (args == List.nil ? null : analyze(args.car,
+					scope, tailp));
+			return new Node.If(test, then, otherwise);
+		} else if (sym == Scond)
+			return cond(args, scope, tailp);
+		else if (sym == Scase)
+			return lcase(args, scope, tailp);
+		else if (sym == Sand || sym == Sor) {
+			int n = List.length(args).intValue();
+			Node[] nodes = new Node[n];
+			for (int i = 0; i < n; i++, args = (List) args.cdr)
+				nodes[i] = analyze(args.car, scope, tailp && i == n - 1);
+			return (sym == Sand ? new Node.And(nodes) : new Node.Or(nodes));
+		} else if (sym == Sbegin)
+			return sequence(args, scope, tailp);
+		else if (sym == Slambda)
+			return closure(null, args.car, (List) args.cdr, scope);
+		else if (sym == Slet)
+			return let(args.car, (List) args.cdr, scope, tailp);
+		else if (sym == SletA)
+			return letA((List) args.car, (List) args.cdr, scope, tailp);
+		else if (sym == Sletrec)
+			return letrec((List) args.car, (List) args.cdr, scope, tailp);
+		else if (sym == Sdo)
+			return ldo((List) args.car, (List) args.cdr, scope, tailp);
+		else if (sym == Sset) {
+			Symbol var = (Symbol) args.car;
+			Node val = analyze(((Pair) args.cdr).car, scope, false);
+			int addr = Scope.lookup(var, scope);
+			if (addr >= 0)
+				return new Node.SetLocal(addr >> 16, addr & 0xffff, val);
+			else
+				return new Node.SetGlobal(var, val);
+		} else if (sym == Squasiquote)
+			return qq(args.car, 0, scope);
+		else if (sym == Stime)
+			return new Node.Time(analyze(args.car, scope, false));
+		else if (sym == Sdefine)
+			throw Eval.error("special form define in a bad place");
+		else
+			throw Eval.systemError("unknown special form " + sym);
+	}
+
+	static Node sequence(List body, Scope scope, boolean tailp) {
+		if (body == List.nil)
+			return new Node.Const(List.nil);
+		int n = List.length(body).intValue();
+		if (n == 1)
+			return analyze(body.car, scope, tailp);
+		Node[] nodes = new Node[n];
+		for (int i = 0; i < n; i++, body = (List) body.cdr)
+			nodes[i] = analyze(body.car, scope, tailp && i == n - 1);
+		return new Node.Seq(nodes);
+	}
+
+	private static boolean isDefine(Object x) {
+		return x instanceof Pair && ((Pair) x).car == Sdefine;
+	}
+
+	static Node body(List body, Scope scope, boolean tailp) {
+		List es = body;
+		int n = 0;
+		for (; es != List.nil && isDefine(es.car); es = (List) es.cdr)
+			n++;
+		if (n == 0)
+			return sequence(body, scope, tailp);
+
+		// Internal definitions get slots in the frame of the enclosing
+		// lambda or let, following its own variables.
+		Symbol[] names = new Symbol[n];
+		int base = scope.size();
+		List ds = body;
+		for (int i = 0; i < n; i++, ds = (List) ds.cdr) {
+			Object name = ((Pair) ((Pair) ds.car).cdr).car;
+			names[i] = (name instanceof Symbol ? (Symbol) name
+					: (Symbol) ((Pair) name).car);
+			scope.add(names[i]);
+		}
+		Node[] inits = new Node[n];
+		ds = body;
+		for (int i = 0; i < n; i++, ds = (List) ds.cdr) {
+			List rest = (List) ((Pair) ds.car).cdr;
+			Object name = rest.car;
+			rest = (List) rest.cdr;
+			if (name instanceof Symbol) {
+				if (rest.cdr != List.nil)
+					throw Eval.error("too many arguments to define");
+				inits[i] = analyze(rest.car, scope, false);
+			} else
+				inits[i] = closure(names[i], ((Pair) name).cdr, rest, scope);
+		}
+		return new Node.Body(base, inits, sequence(es, scope, tailp));
+	}
+
+	static Node.Closure closure(Symbol name, Object params, List body,
+			Scope scope) {
+		return new Node.Closure(name, params, body, Scope.capture(scope));
+	}
+
+	static Node lambdaBody(List body, Scope scope) {
+		try {
+			return body(body, scope, true);
+		} catch (RuntimeException e) {
+			return new Node.Fail(e);
+		}
+	}
+
+	private static Node let(Object first, List body, Scope scope,
+			boolean tailp) {
+		Symbol name = null;
+		if (first instanceof Symbol) {
+			name = (Symbol) first;
+			first = body.car;
+			body = (List) body.cdr;
+			scope = new Scope(scope);
+			scope.add(name);
+		}
+		List bindings = (List) first;
+		int n = List.length(bindings).intValue();
+		Symbol[] vars = new Symbol[n];
+		Node[] inits = new Node[n];
+		Scope newscope = new Scope(scope);
+		for (int i = 0; i < n; i++, bindings = (List) bindings.cdr) {
+			Pair bd = (Pair) bindings.car;
+			vars[i] = (Symbol) bd.car;
+			inits[i] = analyze(((Pair) bd.cdr).car, scope, false);
+			newscope.add(vars[i]);
+		}
+		Node letBody = body(body, newscope, tailp);
+		Node let = new Node.Let(newscope.size(), inits, letBody);
+		if (name == null)
+			return let;
+
+		List params = List.nil;
+		for (int i = n - 1; i >= 0; i--)
+			params = new Pair(vars[i], params);
+		return new Node.NamedLet(closure(name, params, body, scope), let);
+	}
+
+	private static Node letA(List bindings, List body, Scope scope,
+			boolean tailp) {
+		// All the variables share one frame; each init is analyzed
+		// before its variable enters the scope.
+		int n = List.length(bindings).intValue();
+		Node[] inits = new Node[n];
+		Scope newscope = new Scope(scope);
+		for (int i = 0; i < n; i++, bindings = (List) bindings.cdr) {
+			Pair bd = (Pair) bindings.car;
+			inits[i] = analyze(((Pair) bd.cdr).car, newscope, false);
+			newscope.add((Symbol) bd.car);
+		}
+		Node letBody = body(body, newscope, tailp);
+		return new Node.Letrec(newscope.size(), inits, letBody);
+	}
+
+	private static Node letrec(List bindings, List body, Scope scope,
+			boolean tailp) {
+		int n = List.length(bindings).intValue();
+		Node[] inits = new Node[n];
+		Scope newscope = new Scope(scope);
+		for (List bs = bindings; bs != List.nil; bs = (List) bs.cdr)
+			newscope.add((Symbol) ((Pair) bs.car).car);
+		for (int i = 0; i < n; i++, bindings = (List) bindings.cdr)
+			inits[i] = analyze(((Pair) ((Pair) bindings.car).cdr).car,
+					newscope, false);
+		Node letBody = body(body, newscope, tailp);
+		return new Node.Letrec(newscope.size(), inits, letBody);
+	}
+
+	private static Node ldo(List bindings, List rest, Scope scope,
+			boolean tailp) {
+		List post = (List) rest.car;
+		List body = (List) rest.cdr;
+		int n = List.length(bindings).intValue();
+		Node[] inits = new Node[n];
+		Node[] steps = new Node[n];
+		Scope newscope = new Scope(scope);
+		List bs = bindings;
+		for (int i = 0; i < n; i++, bs = (List) bs.cdr) {
+			Pair x = (Pair) bs.car;
+			inits[i] = analyze(((Pair) x.cdr).car, scope, false);
+			newscope.add((Symbol) x.car);
+		}
+		bs = bindings;
+		for (int i = 0; i < n; i++, bs = (List) bs.cdr) {
+			List y = (List) ((Pair) ((Pair) bs.car).cdr).cdr;
+			steps[i] = (y == List.nil ? null : analyze(y.car, newscope, false));
+		}
+		Node test = analyze(post.car, newscope, false);
+		Node result = sequence((List) post.cdr, newscope, tailp);
+		int m = List.length(body).intValue();
+		Node[] nodes = new Node[m];
+		for (int i = 0; i < m; i++, body = (List) body.cdr)
+			nodes[i] = analyze(body.car, newscope, false);
+		return new Node.Do(inits, steps, test, nodes, result, newscope
+				.isCaptured(), Scope.owner(scope));
+	}
+
+	private static Node cond(List clauses, Scope scope, boolean tailp) {
+		int n = List.length(clauses).intValue();
+		Node[] tests = new Node[n];
+		Node[] bodies = new Node[n];
+		int[] kinds = new int[n];
+		for (int i = 0; i < n; i++, clauses = (List) clauses.cdr) {
+			List clause = (List) clauses.car;
+			if (clause.car == Selse) {
+				tests[i] = null;
+				bodies[i] = sequence((List) clause.cdr, scope, tailp);
+				kinds[i] = Node.Cond.BODY;
+				n = i + 1;
+				break;
+			}
+			tests[i] = analyze(clause.car, scope, false);
+			clause = (List) clause.cdr;
+			if (clause == List.nil)
+				kinds[i] = Node.Cond.TEST;
+			else if (clause.car == SEqLt) {
+				bodies[i] = analyze(((Pair) clause.cdr).car, scope, false);
+				kinds[i] = (tailp ? Node.Cond.TAIL_ARROW : Node.Cond.ARROW);
+			} else {
+				bodies[i] = sequence(clause, scope, tailp);
+				kinds[i] = Node.Cond.BODY;
+			}
+		}
+		return new Node.Cond(n, tests, bodies, kinds);
+	}
+
+	private static Node lcase(List args, Scope scope, boolean tailp) {
+		Node key = analyze(args.car, scope, false);
+		List clauses = (List) args.cdr;
+		int n = List.length(clauses).intValue();
+		Object[][] data = new Object[n][];
+		Node[] bodies = new Node[n];
+		for (int i = 0; i < n; i++, clauses = (List) clauses.cdr) {
+			List clause = (List) clauses.car;
+			bodies[i] = sequence((List) clause.cdr, scope, tailp);
+			if (clause.car == Selse) {
+				data[i] = null;
+				n = i + 1;
+				break;
+			}
+			data[i] = List.list2vector((List) clause.car);
+		}
+		return new Node.Case(key, n, data, bodies);
+	}
+
+	// I keep here the examples in IEEE Scheme. I never type them in again.
+	//
+	// `(list ,(+ 1 2) 4)
+	// (let ((name 'a)) `(list ,name ',name))
+	// `(a ,(+ 1 2) ,@(map abs '(4 -5 6)) b)
+	// `((foo ,(- 10 3)) ,@(cdr '(c)) . ,(car '(cons)))
+	// `#(10 5 ,(sqrt 4) ,@(map sqrt '(16 9)) 8)
+	// `,(+ 2 3)
+	// `(a `(b ,(+ 1 2) ,(foo ,(+ 1 3) d) e) f)
+	// (let ((name1 'x) (name2 'y)) `(a `(b ,,name1 ,',name2 d) e))
+	// (quasiquote (list (unquote (+ 1 2)) 4))
+	// '(quasiquote (list (unquote (+ 1 2)) 4))
+
+	private static Node qq(Object x, int level, Scope scope) {
+		if (x instanceof Pair) {
+			Object xcar = ((Pair) x).car;
+			Object xcdr = ((Pair) x).cdr;
+			if (xcar == Squasiquote)
+				return new Node.Cons(new Node.Const(Squasiquote), qq(xcdr,
+						level + 1, scope));
+			else if (xcar == Sunquote)
+				if (level > 0)
+					return new Node.Cons(new Node.Const(Sunquote), qq(xcdr,
+							level - 1, scope));
+				else
+					return analyze(((Pair) xcdr).car, scope, false);
+			else if (xcar instanceof Pair
+					&& ((Pair) xcar).car == SunquoteSplicing)
+				if (level > 0)
+					return new Node.Cons(new Node.Cons(new Node.Const(
+							SunquoteSplicing), qq(((Pair) xcar).cdr, level - 1,
+							scope)), qq(xcdr, level, scope));
+				else
+					return new Node.Append(analyze(((Pair) ((Pair) xcar).cdr).car,
+							scope, false), qq(xcdr, level, scope));
+			else
+				return new Node.Cons(qq(xcar, level, scope), qq(xcdr, level,
+						scope));
+		} else if (x instanceof Object[])
+			return new Node.Vector(qq(List.vector2list((Object[]) x), level,
+					scope));
+		else
+			return new Node.Const(x);
+	}
+
+	static void init() {
+	}
+}
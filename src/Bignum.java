@@ -0,0 +1,59 @@
+// A Lisp Driver to be embedded in Java Applications
+
+// The contents of this file are subject to the Mozilla Public License
+// Version 1.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at
+// http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS"
+// basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+// License for the specific language governing rights and limitations
+// under the License.
+//
+// The Original Code is JAKLD code, released November 26, 2002.
+//
+// The Initial Developer of the Original Code is Taiichi Yuasa.
+// Portions created by Taiichi Yuasa are Copyright (C) 2002
+// Taiichi Yuasa. All Rights Reserved.
+//
+// Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
+
+import java.math.BigInteger;
+
+// Exact integers that do not fit in a long.
+
+final class Bignum extends LNumber {
+
+	final BigInteger value;
+
+	private Bignum(BigInteger value) {
+		this.value = value;
+	}
+
+	static LNumber normalize(BigInteger n) {
+		if (n.bitLength() < 64)
+			return Fixnum.make(n.longValue());
+		else
+			return new Bignum(n);
+	}
+
+	public String toString() {
+		return value.toString();
+	}
+
+	public int intValue() {
+		return value.intValue();
+	}
+
+	public long longValue() {
+		return value.longValue();
+	}
+
+	public double doubleValue() {
+		return value.doubleValue();
+	}
+
+	public BigInteger bigValue() {
+		return value;
+	}
+}
@@ -0,0 +1,580 @@
+// A Lisp Driver to be embedded in Java Applications
+
+// The contents of this file are subject to the Mozilla Public License
+// Version 1.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at
+// http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS"
+// basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+// License for the specific language governing rights and limitations
+// under the License.
+//
+// The Original Code is JAKLD code, released November 26, 2002.
+//
+// The Initial Developer of the Original Code is Taiichi Yuasa.
+// Portions created by Taiichi Yuasa are Copyright (C) 2002
+// Taiichi Yuasa. All Rights Reserved.
+//
+// Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Vector;
+
+// Binary input ports, which read the data and images written by
+// BinaryOutputPort.
+
+final class BinaryInputPort implements Closeable {
+
+	private final InputStream source;
+	private final byte[] buf = new byte[65536];
+	private int pos = 0;
+	private int limit = 0;
+	private Symbol[] symbols = new Symbol[256];
+	private int nsymbols = 0;
+	private Object[] labels = new Object[16];
+	private char[] chars = new char[256];
+
+	// The objects of an image by number, with a null while one is being
+	// read, and the tables to be filled at the end.
+	private Object[] objects = null;
+	private int nobjects = 0;
+	private Vector<Object[]> tables = null;
+
+	// The lists, vectors and image objects being read, each with the
+	// pair or the index that the next object read goes in, are kept on a
+	// stack instead of recursion, so that deeply nested data can be read.
+	// Below each list is its first pair, which is returned when the list
+	// is complete.
+	private final static int HEAD = -1;
+	private final static Object NEXT = new Object();
+	private int[] ops = new int[64];
+	private Object[] objs = new Object[64];
+	private int[] indices = new int[64];
+	private int sp = 0;
+
+	BinaryInputPort(InputStream source) throws IOException {
+		this(source, BinaryOutputPort.MAGIC, "not fasl data");
+	}
+
+	private BinaryInputPort(InputStream source, byte[] magic, String error)
+			throws IOException {
+		this.source = source;
+		for (int i = 0; i < magic.length; i++)
+			if (pos == limit && !fill() || buf[pos++] != magic[i])
+				throw Eval.error(error);
+	}
+
+	static BinaryInputPort image(InputStream source) throws IOException {
+		BinaryInputPort in = new BinaryInputPort(source,
+				BinaryOutputPort.IMAGE, "not an image");
+		in.objects = new Object[256];
+		in.tables = new Vector<Object[]>();
+		return in;
+	}
+
+	// Returns the next datum, or the eof-object at the end.
+	Object readDatum() throws IOException {
+		if (pos == limit && !fill())
+			return IO.eofObject;
+		try {
+			return readObject();
+		} finally {
+			Arrays.fill(labels, null);
+			while (sp > 0)
+				objs[--sp] = null;
+		}
+	}
+
+	private Object readObject() throws IOException {
+		int base = sp;
+		Object x = start(getByte());
+		for (;;) {
+			if (x == NEXT)
+				x = start(getByte());
+			else if (sp > base)
+				x = take(x);
+			else
+				return x;
+		}
+	}
+
+	// Reads an object of the tag, or pushes it onto the stack and returns
+	// NEXT if the objects it contains are to be read next.
+	private Object start(int tag) throws IOException {
+		switch (tag) {
+		case BinaryOutputPort.NIL:
+			return List.nil;
+		case BinaryOutputPort.TRUE:
+			return Boolean.TRUE;
+		case BinaryOutputPort.FALSE:
+			return Boolean.FALSE;
+		case BinaryOutputPort.FIXNUM: {
+			long n = getVarint();
+			return Fixnum.make((n >>> 1) ^ -(n & 1));
+		}
+		case BinaryOutputPort.BIGNUM: {
+			byte[] b = new byte[(int) getVarint()];
+			for (int i = 0; i < b.length; i++)
+				b[i] = (byte) getByte();
+			return Bignum.normalize(new BigInteger(b));
+		}
+		case BinaryOutputPort.FLONUM:
+			return Flonum.make(Double.longBitsToDouble(getLong()));
+		case BinaryOutputPort.CHAR:
+			return Char.makeChar((char) getVarint());
+		case BinaryOutputPort.STRING: {
+			LString s = new LString(new String(chars, 0, getChars()));
+			if (objects != null)
+				register(s);
+			return s;
+		}
+		case BinaryOutputPort.SYMBOL: {
+			Symbol sym = Symbol.intern(chars, 0, getChars());
+			if (nsymbols == symbols.length)
+				symbols = Arrays.copyOf(symbols, nsymbols * 2);
+			return symbols[nsymbols++] = sym;
+		}
+		case BinaryOutputPort.SYMREF: {
+			int i = (int) getVarint();
+			if (i >= nsymbols)
+				throw Eval.error("bad fasl symbol reference " + i);
+			return symbols[i];
+		}
+		case BinaryOutputPort.LIST:
+			return objects != null ? readPairs() : readList(-1);
+		case BinaryOutputPort.VECTOR:
+			return readVector(-1);
+		case BinaryOutputPort.NUMVECTOR: {
+			int k = objects != null ? reserve() : -1;
+			Object v = readNumVector();
+			if (k >= 0)
+				objects[k] = v;
+			return v;
+		}
+		case BinaryOutputPort.LABEL: {
+			int k = (int) getVarint();
+			tag = getByte();
+			if (tag == BinaryOutputPort.LIST)
+				return readList(k);
+			else if (tag == BinaryOutputPort.VECTOR)
+				return readVector(k);
+			else
+				throw Eval.error("bad fasl label");
+		}
+		case BinaryOutputPort.LABELREF: {
+			int k = (int) getVarint();
+			if (objects != null) {
+				if (k >= nobjects || objects[k] == null)
+					throw Eval.error("bad image reference " + k);
+				return objects[k];
+			}
+			if (k >= labels.length || labels[k] == null)
+				throw Eval.error("bad fasl label reference " + k);
+			return labels[k];
+		}
+		case BinaryOutputPort.EOF:
+			return IO.eofObject;
+		default:
+			if (objects != null)
+				return readImageObject(tag);
+			throw Eval.error("bad fasl tag " + tag);
+		}
+	}
+
+	// The first pair of a list is made before its elements are read, so
+	// that they can refer to it by label.
+	private Object readList(int k) throws IOException {
+		int n = (int) getVarint();
+		Pair head = new Pair(null, null);
+		if (k >= 0)
+			label(k, head);
+		push(HEAD, head, 0);
+		push(BinaryOutputPort.LIST, head, n);
+		return NEXT;
+	}
+
+	private Object readVector(int k) throws IOException {
+		Object[] v = new Object[(int) getVarint()];
+		if (k >= 0)
+			label(k, v);
+		if (objects != null)
+			register(v);
+		if (v.length == 0)
+			return v;
+		push(BinaryOutputPort.VECTOR, v, 0);
+		return NEXT;
+	}
+
+	// Puts x into the object on the top of the stack, and returns the
+	// object if it is complete, or NEXT.
+	private Object take(Object x) throws IOException {
+		int top = sp - 1;
+		int i = indices[top];
+		switch (ops[top]) {
+		case BinaryOutputPort.LIST: {
+			// i is the number of cars still to be read, and then the rest
+			Pair p = (Pair) objs[top];
+			if (i == 0) {
+				p.cdr = x;
+				pop();
+				return pop();
+			}
+			p.car = x;
+			if (--i > 0) {
+				Pair q = new Pair(null, null);
+				p.cdr = q;
+				objs[top] = q;
+			}
+			indices[top] = i;
+			return NEXT;
+		}
+		case BinaryOutputPort.MORE: {
+			// a list in an image, with i 1 once the rest is to be read
+			Pair p = (Pair) objs[top];
+			if (i > 0) {
+				p.cdr = x;
+				pop();
+				return pop();
+			}
+			p.car = x;
+			if (pos == limit && !fill())
+				throw Eval.error("unexpected end of fasl data");
+			if ((buf[pos] & 0xff) == BinaryOutputPort.MORE) {
+				pos++;
+				Pair q = new Pair(null, null);
+				register(q);
+				p.cdr = q;
+				objs[top] = q;
+			} else
+				indices[top] = 1;
+			return NEXT;
+		}
+		case BinaryOutputPort.LAMBDA: {
+			Lambda f = (Lambda) objs[top];
+			if (i > 0) {
+				f.env = (Env) x;
+				return pop();
+			}
+			f.code = (Node.Closure) x;
+			indices[top] = 1;
+			return NEXT;
+		}
+		case BinaryOutputPort.ENV: {
+			// i is -1 for the next environment, and then each value
+			Env env = (Env) objs[top];
+			if (i < 0)
+				env.next = (Env) x;
+			else
+				env.values[i] = x;
+			if (++i < env.values.length) {
+				indices[top] = i;
+				return NEXT;
+			}
+			return pop();
+		}
+		case BinaryOutputPort.VECTOR: {
+			Object[] v = (Object[]) objs[top];
+			v[i++] = x;
+			if (i < v.length) {
+				indices[top] = i;
+				return NEXT;
+			}
+			return pop();
+		}
+		}
+		// the parts of an object made after them, with its number below
+		Object[] parts = (Object[]) objs[top];
+		parts[i++] = x;
+		if (ops[top] == BinaryOutputPort.HASHTABLE && i == 2) {
+			// the entries follow, and may refer to the table
+			parts[0] = objects[indices[top - 1]] = HashTable.makeHashTable(
+					(Function) parts[0], (Function) parts[1]);
+		}
+		if (i < parts.length) {
+			indices[top] = i;
+			return NEXT;
+		}
+		int tag = ops[top];
+		pop();
+		int k = indices[sp - 1];
+		pop();
+		switch (tag) {
+		case BinaryOutputPort.CLOSURE:
+			x = new Node.Closure((Symbol) parts[0], parts[1], (List) parts[2],
+					(Scope) parts[3]);
+			break;
+		case BinaryOutputPort.SCOPE: {
+			Scope scope = new Scope((Scope) parts[0]);
+			for (int j = 2; j < parts.length; j++)
+				scope.add((Symbol) parts[j]);
+			if (parts[1] != null)
+				scope.setOwner((Node.Closure) parts[1]);
+			x = scope;
+			break;
+		}
+		case BinaryOutputPort.MACRO:
+			x = new Macro((Symbol) parts[0], parts[1]);
+			break;
+		default:
+			tables.addElement(parts);
+			return parts[0];
+		}
+		objects[k] = x;
+		return x;
+	}
+
+	private void push(int op, Object x, int i) {
+		if (sp == objs.length) {
+			int n = sp * 2;
+			ops = Arrays.copyOf(ops, n);
+			objs = Arrays.copyOf(objs, n);
+			indices = Arrays.copyOf(indices, n);
+		}
+		ops[sp] = op;
+		objs[sp] = x;
+		indices[sp] = i;
+		sp++;
+	}
+
+	private Object pop() {
+		Object x = objs[--sp];
+		objs[sp] = null;
+		return x;
+	}
+
+	// Each pair of a list in an image is numbered as it is made, before
+	// its car is read.
+	private Object readPairs() {
+		Pair head = new Pair(null, null);
+		register(head);
+		push(HEAD, head, 0);
+		push(BinaryOutputPort.MORE, head, 0);
+		return NEXT;
+	}
+
+	// Reads an object of the tags only in images. Lambdas and
+	// environments are made before their contents are read, since those
+	// may refer back to them; the others are made after, and have their
+	// number on the stack below their parts until then.
+	private Object readImageObject(int tag) throws IOException {
+		switch (tag) {
+		case BinaryOutputPort.NULL:
+			return null;
+		case BinaryOutputPort.SUBR: {
+			Object name = readObject();
+			Subr f = name instanceof Symbol ? Subr.primitive((Symbol) name)
+					: null;
+			if (f == null)
+				throw Eval.error("undefined primitive " + name);
+			return f;
+		}
+		}
+		int k = reserve();
+		switch (tag) {
+		case BinaryOutputPort.GENSYM:
+			return objects[k] = Symbol.uninterned(new String(chars, 0,
+					getChars()));
+		case BinaryOutputPort.LAMBDA: {
+			Lambda f = new Lambda((Symbol) readObject(), (Env) null,
+					(Node.Closure) null);
+			objects[k] = f;
+			push(BinaryOutputPort.LAMBDA, f, 0);
+			return NEXT;
+		}
+		case BinaryOutputPort.ENV: {
+			Env env = new Env(new Object[(int) getVarint()], null);
+			objects[k] = env;
+			push(BinaryOutputPort.ENV, env, -1);
+			return NEXT;
+		}
+		case BinaryOutputPort.CLOSURE:
+			push(HEAD, null, k);
+			push(tag, new Object[4], 0);
+			return NEXT;
+		case BinaryOutputPort.SCOPE:
+			push(HEAD, null, k);
+			push(tag, new Object[2 + (int) getVarint()], 0);
+			return NEXT;
+		case BinaryOutputPort.MACRO:
+			push(HEAD, null, k);
+			push(tag, new Object[2], 0);
+			return NEXT;
+		case BinaryOutputPort.HASHTABLE:
+			push(HEAD, null, k);
+			push(tag, new Object[2 + 2 * (int) getVarint()], 0);
+			return NEXT;
+		default:
+			throw Eval.error("bad fasl tag " + tag);
+		}
+	}
+
+	// Puts the entries read into the tables of an image, which is done
+	// after the globals are defined, since the hash procedures may use
+	// them. Each table is kept with its procedures and then its entries.
+	void fillTables() {
+		for (int i = 0; i < tables.size(); i++) {
+			Object[] t = tables.elementAt(i);
+			for (int j = 2; j < t.length; j += 2)
+				HashTable.set((HashTable) t[0], t[j], t[j + 1]);
+		}
+		tables.removeAllElements();
+	}
+
+	private int reserve() {
+		if (nobjects == objects.length)
+			objects = Arrays.copyOf(objects, nobjects * 2);
+		return nobjects++;
+	}
+
+	private void register(Object x) {
+		int k = reserve();
+		objects[k] = x;
+	}
+
+	private void label(int k, Object x) {
+		if (k >= labels.length)
+			labels = Arrays.copyOf(labels, Math.max(k + 1, labels.length * 2));
+		labels[k] = x;
+	}
+
+	private Object readNumVector() throws IOException {
+		int kind = getByte();
+		int n = (int) getVarint();
+		switch (kind) {
+		case 0: {
+			double[] v = new double[n];
+			for (int i = 0; i < n; i++)
+				v[i] = Double.longBitsToDouble(getLong());
+			return v;
+		}
+		case 1: {
+			float[] v = new float[n];
+			for (int i = 0; i < n; i++)
+				v[i] = Float.intBitsToFloat(getInt());
+			return v;
+		}
+		case 2: {
+			long[] v = new long[n];
+			for (int i = 0; i < n; i++)
+				v[i] = getLong();
+			return v;
+		}
+		case 3: {
+			int[] v = new int[n];
+			for (int i = 0; i < n; i++)
+				v[i] = getInt();
+			return v;
+		}
+		case 4: {
+			short[] v = new short[n];
+			for (int i = 0; i < n; i++)
+				v[i] = (short) (getByte() << 8 | getByte());
+			return v;
+		}
+		case 5: {
+			byte[] v = new byte[n];
+			for (int i = 0; i < n; i++)
+				v[i] = (byte) getByte();
+			return v;
+		}
+		default:
+			throw Eval.error("bad fasl vector kind " + kind);
+		}
+	}
+
+	// Reads a count and that many chars into chars.
+	private int getChars() throws IOException {
+		int n = (int) getVarint();
+		if (n > chars.length)
+			chars = new char[Math.max(n, chars.length * 2)];
+		for (int i = 0; i < n; i++) {
+			int c = pos < limit ? buf[pos] : -1;
+			if (c >= 0) {
+				chars[i] = (char) c;
+				pos++;
+			} else
+				chars[i] = (char) getVarint();
+		}
+		return n;
+	}
+
+	private boolean fill() throws IOException {
+		int n = source.read(buf, 0, buf.length);
+		if (n <= 0)
+			return false;
+		pos = 0;
+		limit = n;
+		return true;
+	}
+
+	private int getByte() throws IOException {
+		if (pos == limit && !fill())
+			throw Eval.error("unexpected end of fasl data");
+		return buf[pos++] & 0xff;
+	}
+
+	private long getVarint() throws IOException {
+		long n = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = getByte();
+			n |= (long) (b & 0x7f) << shift;
+			if (b < 0x80)
+				return n;
+		}
+	}
+
+	private int getInt() throws IOException {
+		if (limit - pos >= 4) {
+			int n = (buf[pos] & 0xff) << 24 | (buf[pos + 1] & 0xff) << 16
+					| (buf[pos + 2] & 0xff) << 8 | buf[pos + 3] & 0xff;
+			pos += 4;
+			return n;
+		}
+		return getByte() << 24 | getByte() << 16 | getByte() << 8 | getByte();
+	}
+
+	private long getLong() throws IOException {
+		return (long) getInt() << 32 | getInt() & 0xffffffffL;
+	}
+
+	public void close() throws IOException {
+		source.close();
+	}
+
+	public String toString() {
+		return "#<binary input port>";
+	}
+
+	static {
+		Subr.def("BinaryInputPort", "openBinaryInputFile",
+				"open-binary-input-file", 1);
+	}
+
+	public static BinaryInputPort openBinaryInputFile(LString name)
+			throws IOException {
+		FileInputStream fis = new FileInputStream(name.toString());
+		try {
+			return new BinaryInputPort(fis);
+		} catch (RuntimeException e) {
+			fis.close();
+			throw e;
+		}
+	}
+
+	static {
+		Subr.def("BinaryInputPort", "readFasl", "read-fasl", 1);
+	}
+
+	public static Object readFasl(BinaryInputPort in) throws IOException {
+		return in.readDatum();
+	}
+
+	static void init() {
+	}
+}
@@ -0,0 +1,525 @@
+// A Lisp Driver to be embedded in Java Applications
+
+// The contents of this file are subject to the Mozilla Public License
+// Version 1.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at
+// http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS"
+// basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+// License for the specific language governing rights and limitations
+// under the License.
+//
+// The Original Code is JAKLD code, released November 26, 2002.
+//
+// The Initial Developer of the Original Code is Taiichi Yuasa.
+// Portions created by Taiichi Yuasa are Copyright (C) 2002
+// Taiichi Yuasa. All Rights Reserved.
+//
+// Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+// Binary output ports, which write data in the fasl format read by
+// BinaryInputPort: a header, then each datum as a tag byte and its
+// contents. Integers are written as variable-length quantities, flonums
+// and numeric vectors by their bits, and symbols by name the first time
+// in a stream and by number after that. A port opened as shared writes
+// the pairs and vectors reached more than once within a datum once,
+// with a label that later occurrences refer to, so that it can also
+// write cyclic data.
+//
+// An image, written for save-image, has a header of its own and keeps
+// the identity of every object across the whole stream: each pair,
+// vector, string, gensym and procedure is numbered in the order in
+// which it is first written and referred to by number after that.
+// Lambdas are written as their environment and the source and scope of
+// their code, and primitives by name.
+
+final class BinaryOutputPort implements Closeable {
+
+	final static byte[] MAGIC = { 'J', 'F', 'S', 'L', 1 };
+	final static byte[] IMAGE = { 'J', 'I', 'M', 'G', 1 };
+
+	final static int NIL = 0;
+	final static int TRUE = 1;
+	final static int FALSE = 2;
+	final static int FIXNUM = 3;
+	final static int BIGNUM = 4;
+	final static int FLONUM = 5;
+	final static int CHAR = 6;
+	final static int STRING = 7;
+	final static int SYMBOL = 8;
+	final static int SYMREF = 9;
+	final static int LIST = 10;
+	final static int VECTOR = 11;
+	final static int NUMVECTOR = 12;
+	final static int LABEL = 13;
+	final static int LABELREF = 14;
+	final static int EOF = 15;
+
+	// tags only in images
+	final static int MORE = 16;
+	final static int NULL = 17;
+	final static int GENSYM = 18;
+	final static int SUBR = 19;
+	final static int LAMBDA = 20;
+	final static int CLOSURE = 21;
+	final static int ENV = 22;
+	final static int SCOPE = 23;
+	final static int MACRO = 24;
+	final static int HASHTABLE = 25;
+
+	private final OutputStream sink;
+	private final boolean shared;
+	private byte[] buf = new byte[65536];
+	private int count = 0;
+	private final IdentityHashMap<Symbol, Integer> symbols = new IdentityHashMap<Symbol, Integer>();
+	private IdentityHashMap<Object, Integer> labels = null;
+	private int nextLabel;
+
+	// The numbers of the objects written in an image, and those among
+	// them that are read back only after their contents, and so cannot
+	// be referred to from within them.
+	private IdentityHashMap<Object, Integer> objects = null;
+	private IdentityHashMap<Object, Object> pending = null;
+
+	// The rests of the lists, vectors and image objects being written,
+	// kept on a stack instead of recursion as in Printer.
+	private final static int WRITE = 0;
+	private final static int CARS = 1;
+	private final static int ELEMENTS = 2;
+	private final static int PAIRS = 3;
+	private final static int WRITTEN = 4;
+	private Object[] objs = new Object[64];
+	private int[] ops = new int[64];
+	private int[] indices = new int[64];
+	private int sp = 0;
+
+	BinaryOutputPort(OutputStream sink, boolean shared) throws IOException {
+		this(sink, shared, MAGIC);
+	}
+
+	private BinaryOutputPort(OutputStream sink, boolean shared, byte[] magic)
+			throws IOException {
+		this.sink = sink;
+		this.shared = shared;
+		for (int i = 0; i < magic.length; i++)
+			putByte(magic[i]);
+	}
+
+	static BinaryOutputPort image(OutputStream sink) throws IOException {
+		BinaryOutputPort out = new BinaryOutputPort(sink, false, IMAGE);
+		out.objects = new IdentityHashMap<Object, Integer>();
+		out.pending = new IdentityHashMap<Object, Object>();
+		return out;
+	}
+
+	void writeDatum(Object x) throws IOException {
+		if (shared) {
+			labels = Printer.findShared(x);
+			nextLabel = 0;
+		}
+		try {
+			run(x);
+		} finally {
+			labels = null;
+			while (sp > 0)
+				objs[--sp] = null;
+		}
+	}
+
+	private void push(int op, Object x, int i) {
+		if (sp == objs.length) {
+			int n = sp * 2;
+			objs = Arrays.copyOf(objs, n);
+			ops = Arrays.copyOf(ops, n);
+			indices = Arrays.copyOf(indices, n);
+		}
+		ops[sp] = op;
+		objs[sp] = x;
+		indices[sp] = i;
+		sp++;
+	}
+
+	private void run(Object x) throws IOException {
+		push(WRITE, x, 0);
+		while (sp > 0) {
+			sp--;
+			Object y = objs[sp];
+			objs[sp] = null;
+			switch (ops[sp]) {
+			case WRITE:
+				writeObject(y);
+				break;
+			case CARS:
+				cars(y, indices[sp]);
+				break;
+			case ELEMENTS:
+				element((Object[]) y, indices[sp]);
+				break;
+			case PAIRS:
+				pairs((Pair) y);
+				break;
+			default:
+				pending.remove(y);
+			}
+		}
+	}
+
+	private void writeObject(Object x) throws IOException {
+		if (objects != null && imageObject(x))
+			return;
+		if (x instanceof Pair) {
+			if (labels != null && labeled(x))
+				return;
+			// a list is written as a run of cars up to a shared pair or
+			// the end, followed by the rest
+			int n = 1;
+			Object y = ((Pair) x).cdr;
+			for (; y instanceof Pair && !shared(y); y = ((Pair) y).cdr)
+				n++;
+			putByte(LIST);
+			putVarint(n);
+			cars(x, n);
+		} else if (x instanceof Fixnum) {
+			long n = ((Fixnum) x).value;
+			putByte(FIXNUM);
+			putVarint((n << 1) ^ (n >> 63));
+		} else if (x instanceof Symbol) {
+			Integer i = symbols.get(x);
+			if (i == null) {
+				symbols.put((Symbol) x, symbols.size());
+				putByte(SYMBOL);
+				putChars(((Symbol) x).name());
+			} else {
+				putByte(SYMREF);
+				putVarint(i.intValue());
+			}
+		} else if (x == List.nil)
+			putByte(NIL);
+		else if (x instanceof Boolean)
+			putByte(((Boolean) x).booleanValue() ? TRUE : FALSE);
+		else if (x instanceof LString) {
+			putByte(STRING);
+			putChars(x.toString());
+		} else if (x instanceof Flonum) {
+			putByte(FLONUM);
+			putLong(Double.doubleToRawLongBits(((Flonum) x).value));
+		} else if (x instanceof Character) {
+			putByte(CHAR);
+			putVarint(((Character) x).charValue());
+		} else if (x instanceof Object[]) {
+			if (labels != null && labeled(x))
+				return;
+			Object[] v = (Object[]) x;
+			putByte(VECTOR);
+			putVarint(v.length);
+			element(v, 0);
+		} else if (x instanceof Bignum) {
+			byte[] b = ((Bignum) x).value.toByteArray();
+			putByte(BIGNUM);
+			putVarint(b.length);
+			for (int i = 0; i < b.length; i++)
+				putByte(b[i]);
+		} else if (NumVector.tag(x) != null)
+			writeNumVector(x);
+		else if (x == IO.eofObject)
+			putByte(EOF);
+		else
+			throw Eval.error("cannot write " + IO.printString(x) + " in fasl");
+	}
+
+	// Continues a list with the n cars from the pair x, and then the rest.
+	private void cars(Object x, int n) throws IOException {
+		if (n > 0) {
+			push(CARS, ((Pair) x).cdr, n - 1);
+			push(WRITE, ((Pair) x).car, 0);
+		} else
+			writeObject(x);
+	}
+
+	// Continues a vector from its i-th element.
+	private void element(Object[] v, int i) {
+		if (i < v.length) {
+			push(ELEMENTS, v, i + 1);
+			push(WRITE, v[i], 0);
+		}
+	}
+
+	// Writes x as it is written only in an image and returns true, or
+	// returns false, after numbering x if it has identity, to leave x to
+	// writeObject.
+	private boolean imageObject(Object x) throws IOException {
+		if (x == null) {
+			putByte(NULL);
+			return true;
+		} else if (x instanceof Subr) {
+			Symbol name = ((Subr) x).name();
+			if (name == null || Subr.primitive(name) != x)
+				throw Eval.error("cannot save " + IO.printString(x));
+			putByte(SUBR);
+			writeObject(name);
+			return true;
+		} else if (!(x instanceof Pair || x instanceof Object[]
+				|| x instanceof LString || x instanceof Lambda
+				|| x instanceof Env || x instanceof Node.Closure
+				|| x instanceof Scope || x instanceof Macro
+				|| x instanceof HashTable || NumVector.tag(x) != null
+				|| x instanceof Symbol && !symbols.containsKey(x)
+				&& !((Symbol) x).isInterned()))
+			return false;
+		Integer n = objects.get(x);
+		if (n != null) {
+			if (pending.containsKey(x))
+				throw Eval.error("cannot save " + IO.printString(x)
+						+ " within itself");
+			putByte(LABELREF);
+			putVarint(n.intValue());
+			return true;
+		}
+		objects.put(x, objects.size());
+		// the parts are pushed in reverse order, and the objects that are
+		// read back only after their parts are pending until WRITTEN
+		if (x instanceof Pair) {
+			putByte(LIST);
+			push(PAIRS, x, 0);
+			push(WRITE, ((Pair) x).car, 0);
+		} else if (x instanceof Symbol) {
+			putByte(GENSYM);
+			putChars(((Symbol) x).name());
+		} else if (x instanceof Lambda) {
+			Lambda f = (Lambda) x;
+			putByte(LAMBDA);
+			writeObject(f.name());
+			push(WRITE, f.env, 0);
+			push(WRITE, f.code, 0);
+		} else if (x instanceof Env) {
+			Env env = (Env) x;
+			putByte(ENV);
+			putVarint(env.values.length);
+			push(ELEMENTS, env.values, 0);
+			push(WRITE, env.next, 0);
+		} else if (x instanceof Node.Closure) {
+			Node.Closure c = (Node.Closure) x;
+			pending.put(x, x);
+			putByte(CLOSURE);
+			push(WRITTEN, x, 0);
+			push(WRITE, c.scope(), 0);
+			push(WRITE, c.source(), 0);
+			push(WRITE, c.params(), 0);
+			push(WRITE, c.name(), 0);
+		} else if (x instanceof Scope) {
+			Scope scope = (Scope) x;
+			pending.put(x, x);
+			putByte(SCOPE);
+			putVarint(scope.size());
+			push(WRITTEN, x, 0);
+			push(ELEMENTS, scope.names(), 0);
+			push(WRITE, scope.directOwner(), 0);
+			push(WRITE, scope.next, 0);
+		} else if (x instanceof Macro) {
+			pending.put(x, x);
+			putByte(MACRO);
+			push(WRITTEN, x, 0);
+			push(WRITE, ((Macro) x).expand(), 0);
+			push(WRITE, ((Macro) x).name(), 0);
+		} else if (x instanceof HashTable) {
+			HashTable table = (HashTable) x;
+			// the entries are read back after the procedures, and put
+			// into the table after the whole image, so that they are
+			// hashed anew
+			Object[] entries = new Object[2 * (int) ((Fixnum) HashTable
+					.size(table)).value];
+			List ks = HashTable.keys(table);
+			List vs = HashTable.values(table);
+			for (int i = 0; ks != List.nil; ks = (List) ks.cdr, vs = (List) vs.cdr) {
+				entries[i++] = ks.car;
+				entries[i++] = vs.car;
+			}
+			pending.put(x, x);
+			putByte(HASHTABLE);
+			putVarint(entries.length / 2);
+			push(ELEMENTS, entries, 0);
+			push(WRITTEN, x, 0);
+			push(WRITE, HashTable.hashFunction(table), 0);
+			push(WRITE, HashTable.equivalenceFunction(table), 0);
+		} else
+			return false;
+		return true;
+	}
+
+	// Continues a list in an image after the car of p: its next pair is
+	// written after MORE if it has not been written yet, or else the
+	// rest as any object.
+	private void pairs(Pair p) throws IOException {
+		Object y = p.cdr;
+		if (!(y instanceof Pair) || objects.containsKey(y))
+			push(WRITE, y, 0);
+		else {
+			objects.put(y, objects.size());
+			putByte(MORE);
+			push(PAIRS, y, 0);
+			push(WRITE, ((Pair) y).car, 0);
+		}
+	}
+
+	private void writeNumVector(Object x) throws IOException {
+		putByte(NUMVECTOR);
+		if (x instanceof double[]) {
+			double[] v = (double[]) x;
+			putByte(0);
+			putVarint(v.length);
+			for (int i = 0; i < v.length; i++)
+				putLong(Double.doubleToRawLongBits(v[i]));
+		} else if (x instanceof float[]) {
+			float[] v = (float[]) x;
+			putByte(1);
+			putVarint(v.length);
+			for (int i = 0; i < v.length; i++)
+				putInt(Float.floatToRawIntBits(v[i]));
+		} else if (x instanceof long[]) {
+			long[] v = (long[]) x;
+			putByte(2);
+			putVarint(v.length);
+			for (int i = 0; i < v.length; i++)
+				putLong(v[i]);
+		} else if (x instanceof int[]) {
+			int[] v = (int[]) x;
+			putByte(3);
+			putVarint(v.length);
+			for (int i = 0; i < v.length; i++)
+				putInt(v[i]);
+		} else if (x instanceof short[]) {
+			short[] v = (short[]) x;
+			putByte(4);
+			putVarint(v.length);
+			for (int i = 0; i < v.length; i++) {
+				putByte(v[i] >> 8);
+				putByte(v[i]);
+			}
+		} else {
+			byte[] v = (byte[]) x;
+			putByte(5);
+			putVarint(v.length);
+			for (int i = 0; i < v.length; i++)
+				putByte(v[i]);
+		}
+	}
+
+	private boolean shared(Object x) {
+		if (labels == null)
+			return false;
+		Integer n = labels.get(x);
+		return n != null && n.intValue() != Printer.SEEN;
+	}
+
+	// Writes a reference and returns true if x has been written, or
+	// writes a label if x is shared and written for the first time.
+	private boolean labeled(Object x) throws IOException {
+		Integer n = labels.get(x);
+		if (n == null || n.intValue() == Printer.SEEN)
+			return false;
+		if (n.intValue() >= 0) {
+			putByte(LABELREF);
+			putVarint(n.intValue());
+			return true;
+		}
+		labels.put(x, nextLabel);
+		putByte(LABEL);
+		putVarint(nextLabel++);
+		return false;
+	}
+
+	private void putByte(int b) throws IOException {
+		if (count == buf.length)
+			drain();
+		buf[count++] = (byte) b;
+	}
+
+	private void putVarint(long n) throws IOException {
+		if (count + 10 > buf.length)
+			drain();
+		while ((n & ~0x7fL) != 0) {
+			buf[count++] = (byte) (n | 0x80);
+			n >>>= 7;
+		}
+		buf[count++] = (byte) n;
+	}
+
+	private void putInt(int n) throws IOException {
+		if (count + 4 > buf.length)
+			drain();
+		buf[count++] = (byte) (n >> 24);
+		buf[count++] = (byte) (n >> 16);
+		buf[count++] = (byte) (n >> 8);
+		buf[count++] = (byte) n;
+	}
+
+	private void putLong(long n) throws IOException {
+		putInt((int) (n >> 32));
+		putInt((int) n);
+	}
+
+	private void putChars(String s) throws IOException {
+		int len = s.length();
+		putVarint(len);
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80 && count < buf.length)
+				buf[count++] = (byte) c;
+			else
+				putVarint(c);
+		}
+	}
+
+	private void drain() throws IOException {
+		sink.write(buf, 0, count);
+		count = 0;
+	}
+
+	void flush() throws IOException {
+		drain();
+		sink.flush();
+	}
+
+	public void close() throws IOException {
+		flush();
+		sink.close();
+	}
+
+	public String toString() {
+		return "#<binary output port>";
+	}
+
+	private final static Boolean F = Boolean.FALSE;
+
+	static {
+		Subr.def("BinaryOutputPort", "openBinaryOutputFile",
+				"open-binary-output-file", 1, 1);
+	}
+
+	public static BinaryOutputPort openBinaryOutputFile(LString name,
+			Object shared) throws IOException {
+		return new BinaryOutputPort(new FileOutputStream(name.toString()),
+				shared != null && shared != F);
+	}
+
+	static {
+		Subr.def("BinaryOutputPort", "writeFasl", "write-fasl", 2);
+	}
+
+	public static Object writeFasl(Object x, BinaryOutputPort out)
+			throws IOException {
+		out.writeDatum(x);
+		return x;
+	}
+
+	static void init() {
+	}
+}
@@ -18,14 +18,93 @@
 //
 // Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
 
+// A tail call returns the single Call instance after storing the
+// function and its arguments in the static registers below; the caller's
+// trampoline then makes the call. No object is allocated per tail call
+// unless the arguments come as a list. Like the rest of the evaluator,
+// this assumes a single evaluating thread.
 final class Call {
 
-	Function fun;
-	List args;
+	private static Function fun;
+	private static int argc;
+	private static Object a, b, c, d;
+	private static List args;
 
-	Call(Function fun, List args) {
-		this.fun = fun;
-		this.args = args;
+	private final static Call token = new Call();
+
+	private Call() {
+	}
+
+	static Call list(Function f, List l) {
+		fun = f;
+		argc = -1;
+		args = l;
+		return token;
+	}
+
+	static Call with0(Function f) {
+		fun = f;
+		argc = 0;
+		return token;
+	}
+
+	static Call with1(Function f, Object x) {
+		fun = f;
+		argc = 1;
+		a = x;
+		return token;
+	}
+
+	static Call with2(Function f, Object x, Object y) {
+		fun = f;
+		argc = 2;
+		a = x;
+		b = y;
+		return token;
+	}
+
+	static Call with3(Function f, Object x, Object y, Object z) {
+		fun = f;
+		argc = 3;
+		a = x;
+		b = y;
+		c = z;
+		return token;
+	}
+
+	static Call with4(Function f, Object x, Object y, Object z, Object w) {
+		fun = f;
+		argc = 4;
+		a = x;
+		b = y;
+		c = z;
+		d = w;
+		return token;
+	}
+
+	// Performs the pending call. The registers are cleared first since
+	// the callee may overwrite them.
+	Object run() {
+		Function f = fun;
+		Object x = a, y = b, z = c, w = d;
+		List l = args;
+		fun = null;
+		a = b = c = d = null;
+		args = null;
+		switch (argc) {
+		case 0:
+			return f.call0();
+		case 1:
+			return f.call1(x);
+		case 2:
+			return f.call2(x, y);
+		case 3:
+			return f.call3(x, y, z);
+		case 4:
+			return f.call4(x, y, z, w);
+		default:
+			return f.invoke0(l);
+		}
 	}
 
 	static void init() {
@@ -169,16 +169,16 @@ final class Char {
 		Subr.def("Char", "char2integer", "char->integer", 1);
 	}
 
-	public static Integer char2integer(char c) {
-		return Num.makeInt((int) c);
+	public static LNumber char2integer(char c) {
+		return Fixnum.make(c);
 	}
 
 	static {
 		Subr.def("Char", "integer2char", "integer->char", 1);
 	}
 
-	public static Character integer2char(int n) {
-		return makeChar((char) n);
+	public static Character integer2char(LNumber n) {
+		return makeChar((char) n.intValue());
 	}
 
 	static {
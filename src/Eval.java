@@ -18,27 +18,54 @@
 //
 // Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
 
-import java.lang.reflect.Array;
-
 final class Eval {
 
 	private static boolean systemInitialized = false;
 
 	static void initializeSystem() {
 		if (!systemInitialized) {
+			Analyzer.init();
+			BinaryInputPort.init();
+			BinaryOutputPort.init();
 			Call.init();
 			Char.init();
 			Env.init();
+			Flonum.init();
+			HashTable.init();
+			Image.init();
 			IO.init();
+			JIT.init();
+			Kernels.init();
 			Lambda.init();
+			LoadReader.init();
 			Macro.init();
 			List.init();
 			LString.init();
+			Node.init();
 			Num.init();
+			NumVector.init();
+			OutputPort.init();
 			LNumber.init();
+			Scope.init();
 			Symbol.init();
+			VM.init();
 			Subr.init(); // This should come last.
 
+			// The engine for lambda bodies: "tree" (the default) runs the
+			// analyzed Node trees, "vm" compiles them for the VM, "jit"
+			// further into JVM classes, and "tiered" compiles only those
+			// run more than jakld.threshold times.
+			String engine = System.getProperty("jakld.engine", "tree");
+			if (engine.equals("vm"))
+				VM.enabled = true;
+			else if (engine.equals("jit"))
+				VM.enabled = JIT.enabled = true;
+			else if (engine.equals("tiered"))
+				JIT.threshold = Math.max(1, Integer.getInteger(
+						"jakld.threshold", 1000).intValue());
+			else if (!engine.equals("tree"))
+				IO.println("unknown engine " + engine + ", using tree");
+
 			systemInitialized = true;
 		}
 	}
@@ -50,9 +77,14 @@ final class Eval {
 
 		initializeSystem();
 
+		String image = System.getProperty("jakld.image");
+		if (image != null)
+			loadImage(image);
+
 		readEvalPrintLoop();
 
 		IO.println("\nSayonara");
+		IO.flushConsole();
 	}
 
 	public static void readEvalPrintLoop() {
@@ -82,18 +114,33 @@ final class Eval {
 				IO.println("at top-level");
 			} else
 				IO.println(" < top-level");
+		} finally {
+			IO.flushConsole();
+		}
+	}
+
+	public static void loadImage(String filename) {
+		try {
+			Image.loadImage(new LString(filename));
+		} catch (Throwable e) {
+			IO.println(errorMessage(e));
+			IO.println("at top-level");
+		} finally {
+			IO.flushConsole();
 		}
 	}
 
 	public static Object runProgram(String command) {
 		try {
-			return topLevelEval(IO.read(IO.openInputString(command)));
+			return topLevelEval(IO.read(new InputPort(command)));
 		} catch (Throwable e) {
 			if (e != backtraceToken) {
 				IO.println(errorMessage(e));
 				IO.println("at top-level");
 			} else
 				IO.println(" < top-level");
+		} finally {
+			IO.flushConsole();
 		}
 		return null;
 	}
@@ -124,115 +171,29 @@ final class Eval {
 				} else if (pair.car == Suntrace) {
 					return Symbol.untrace((List) pair.cdr);
 				} else
-					return eval(expr, null);
+					return Analyzer.analyze(expr, null, false).exec(null);
 			} else
-				return eval(expr, null);
+				return Analyzer.analyze(expr, null, false).exec(null);
 		} else if (expr instanceof Symbol)
 			return ((Symbol) expr).valueOf();
 		else
 			return expr;
 	}
 
-	static Object eval(Object expr, Env env) {
-		return eval(expr, env, false);
-	}
-
-	static Object eval(Object expr, Env env, boolean tailp) {
-		if (expr instanceof Pair) {
-			Pair pair = (Pair) expr;
-			Function f;
-			if (pair.car instanceof Symbol) {
-				f = Env.fref((Symbol) pair.car, env);
-				if (f.isSpecialForm()) {
-					Subr.argEnv = env;
-					Subr.argTailp = tailp;
-					return f.invoke0((List) pair.cdr);
-				}
-			} else {
-				Object fval = eval(pair.car, env);
-				try {
-					f = (Function) fval;
-				} catch (ClassCastException e) {
-					if (fval instanceof Function)
-						throw e;
-					else
-						throw error(IO.printString(fval) + " is not a function");
-				}
-			}
-
-			if (f instanceof Macro) {
-				pair.car = ((Macro) f).expand();
-				return eval(pair, env, tailp);
-			}
-
-			List list = (List) pair.cdr;
-			List args = List.nil;
-			for (; list != List.nil; list = (List) list.cdr) {
-				args = new Pair(eval(list.car, env), args);
-			}
-			args = List.nreverse(args);
-			return (tailp ? new Call(f, args) : f.invoke(args));
-		} else if (expr instanceof Symbol)
-			return Env.vref((Symbol) expr, env);
-		else
-			return expr;
-	}
-
 	private final static Boolean T = Boolean.TRUE;
 	private final static Boolean F = Boolean.FALSE;
 
-	static {
-		Subr.defSpecial("Eval", "begin", "begin", 0, 0, true);
-	}
-
-	public static Object begin(List body, Env env, boolean tailp) {
-		Object val = List.nil;
-		for (; body != List.nil; body = (List) body.cdr)
-			val = eval(body.car, env, tailp && (body.cdr == List.nil));
-		return val;
-	}
-
-	static Object evalBody(List body, Env env, boolean tailp) {
-		Env newenv = env;
-		List es = body;
-		for (; es != List.nil; es = (List) es.cdr) {
-			Object elem = es.car;
-			if (!(elem instanceof Pair && ((Pair) elem).car == Sdefine))
-				break;
-			Object name = ((Pair) ((Pair) elem).cdr).car;
-			newenv = new Env(name instanceof Symbol ? (Symbol) name
-					: (Symbol) ((Pair) name).car, null, newenv);
-		}
-		Env ep = env;
-		for (List ds = body; ds != es; ds = (List) ds.cdr) {
-			List rest = (List) ((Pair) ds.car).cdr;
-			Object name = rest.car;
-			rest = (List) rest.cdr;
-			if (name instanceof Symbol) {
-				if (rest.cdr != List.nil)
-					throw new Error("too many arguments to define");
-				ep = Env.recBind(eval(rest.car, newenv), newenv, ep);
-			} else
-				ep = Env.recBind(new Lambda((Symbol) ((Pair) name).car, newenv,
-						((Pair) name).cdr, rest), newenv, ep);
-		}
-		Object val = List.nil;
-		for (; es != List.nil; es = (List) es.cdr)
-			val = eval(es.car, newenv, tailp && (es.cdr == List.nil));
-		return val;
-	}
-
 	private static Symbol topLevelDefine(Object name, List rest) {
 		if (name instanceof Symbol) {
 			if (rest.cdr != List.nil)
 				throw new Error("too many arguments to define");
-			Object x = eval(rest.car, null);
+			Object x = Analyzer.analyze(rest.car, null, false).exec(null);
 			if (x instanceof Lambda)
 				((Lambda) x).nameIt((Symbol) name);
 			return ((Symbol) name).define(x);
 		} else {
 			Symbol s = (Symbol) ((Pair) name).car;
-			return s.define(new Lambda(s, null, ((Pair) name).cdr, rest));
+			return s.define(new Lambda(s, ((Pair) name).cdr, rest));
 		}
 	}
 
@@ -244,253 +205,12 @@ final class Eval {
 			return ((Symbol) name).define(m);
 		} else {
 			Symbol s = (Symbol) ((Pair) name).car;
-			Lambda l = new Lambda(s, null, ((Pair) name).cdr, rest);
+			Lambda l = new Lambda(s, ((Pair) name).cdr, rest);
 			Macro m = new Macro((Symbol) s, (Object) l);
 			return s.define(m);
 		}
 	}
 
-	static {
-		Subr.defSpecial("Eval", "define", 0, 0, true);
-	}
-
-	public static void define(List args, Env env, boolean tailp) {
-		throw new Error("special form define in a bad place");
-	}
-
-	static {
-		Subr.defSpecial("Eval", "quote", 1, 0, false);
-	}
-
-	public static Object quote(Object obj, Env env, boolean tailp) {
-		return obj;
-	}
-
-	static {
-		Subr.defSpecial("Eval", "quasiquote", 1, 0, false);
-	}
-
-	public static Object quasiquote(Object x, Env env, boolean tailp) {
-		return qq(x, 0, env);
-	}
-
-	private final static Symbol Squasiquote = Symbol.intern("quasiquote");
-	private final static Symbol Sunquote = Symbol.intern("unquote");
-	private final static Symbol SunquoteSplicing = Symbol
-			.intern("unquote-splicing");
-
-	// I keep here the examples in IEEE Scheme. I never type them in again.
-	//
-	// `(list ,(+ 1 2) 4)
-	// (let ((name 'a)) `(list ,name ',name))
-	// `(a ,(+ 1 2) ,@(map abs '(4 -5 6)) b)
-	// `((foo ,(- 10 3)) ,@(cdr '(c)) . ,(car '(cons)))
-	// `#(10 5 ,(sqrt 4) ,@(map sqrt '(16 9)) 8)
-	// `,(+ 2 3)
-	// `(a `(b ,(+ 1 2) ,(foo ,(+ 1 3) d) e) f)
-	// (let ((name1 'x) (name2 'y)) `(a `(b ,,name1 ,',name2 d) e))
-	// (quasiquote (list (unquote (+ 1 2)) 4))
-	// '(quasiquote (list (unquote (+ 1 2)) 4))
-
-	private static Object qq(Object x, int level, Env env) {
-		if (x instanceof Pair) {
-			Object xcar = ((Pair) x).car;
-			Object xcdr = ((Pair) x).cdr;
-			if (xcar == Squasiquote)
-				return new Pair(Squasiquote, qq(xcdr, level + 1, env));
-			else if (xcar == Sunquote)
-				if (level > 0)
-					return new Pair(Sunquote, qq(xcdr, level - 1, env));
-				else
-					return eval(((Pair) xcdr).car, env);
-			else if (xcar instanceof Pair
-					&& ((Pair) xcar).car == SunquoteSplicing)
-				if (level > 0)
-					return new Pair(new Pair(SunquoteSplicing, qq(
-							((Pair) xcar).cdr, level - 1, env)), qq(xcdr,
-							level, env));
-				else
-					return append2(
-							(List) eval(((Pair) ((Pair) xcar).cdr).car, env),
-							qq(xcdr, level, env));
-			else
-				return new Pair(qq(xcar, level, env), qq(xcdr, level, env));
-		} else if (x instanceof Object[]) {
-			Object[] v = (Object[]) x;
-			List list = List.nil;
-			for (int i = Array.getLength(v) - 1; i >= 0; i--)
-				list = new Pair(v[i], list);
-			return List.list2vector((List) qq(list, level, env));
-		} else
-			return x;
-	}
-
-	private static Object append2(List x, Object y) {
-		if (x == List.nil)
-			return y;
-		else {
-			Pair val = new Pair(x.car, null);
-			Pair last = val;
-			while ((x = (List) x.cdr) != List.nil) {
-				Pair z = new Pair(x.car, null);
-				last.cdr = z;
-				last = z;
-			}
-			last.cdr = y;
-			return val;
-		}
-	}
-
-	static {
-		Subr.defSpecial("Eval", "Lif", "if", 2, 1, false);
-	}
-
-	public static Object Lif(Object cond, Object e1, Object e2, Env env,
-			boolean tailp) {
-		if (eval(cond, env) != F)
-			return eval(e1, env, tailp);
-		else if (e2 == null)
-			return List.nil;
-		else
-			return eval(e2, env, tailp);
-	}
-
-	private final static Symbol Selse = Symbol.intern("else");
-	private final static Symbol SEqLt = Symbol.intern("=>");
-
-	static {
-		Subr.defSpecial("Eval", "cond", 1, 0, true);
-	}
-
-	public static Object cond(List clause, List clauses, Env env, boolean tailp) {
-		for (;;) {
-			if (clause.car == Selse)
-				return begin((List) clause.cdr, env, tailp);
-			else {
-				Object c = eval(clause.car, env);
-				if (c != F) {
-					clause = (List) clause.cdr;
-					if (clause == List.nil)
-						return c;
-					else if (clause.car == SEqLt) {
-						Function f = (Function) eval(((Pair) clause.cdr).car,
-								env);
-						return (tailp ? new Call(f, List.list(c)) : f
-								.invoke1(c));
-					} else
-						return begin(clause, env, tailp);
-				}
-			}
-			if (clauses == List.nil)
-				return List.nil;
-			clause = (List) clauses.car;
-			clauses = (List) clauses.cdr;
-		}
-	}
-
-	static {
-		Subr.defSpecial("Eval", "Lcase", "case", 2, 0, true);
-	}
-
-	public static Object Lcase(Object expr, List clause, List clauses, Env env,
-			boolean tailp) {
-		Object key = eval(expr, env);
-		for (;;) {
-			if (clause.car == Selse)
-				return begin((List) clause.cdr, env, tailp);
-			else
-				for (List dl = (List) clause.car; dl != List.nil; dl = (List) dl.cdr)
-					if (eqv(dl.car, key) == T)
-						return begin((List) clause.cdr, env, tailp);
-			if (clauses == List.nil)
-				return List.nil;
-			clause = (List) clauses.car;
-			clauses = (List) clauses.cdr;
-		}
-	}
-
-	static {
-		Subr.defSpecial("Eval", "let", 1, 0, true);
-	}
-
-	public static Object let(Object first, List body, Env env, boolean tailp) {
-		List bindings;
-		if (first instanceof Symbol) {
-			Symbol name = (Symbol) first;
-			bindings = (List) body.car;
-			body = (List) body.cdr;
-			List params = List.nil;
-			for (List bs = bindings; bs != List.nil; bs = (List) bs.cdr)
-				params = new Pair(((Pair) bs.car).car, params);
-			params = List.nreverse(params);
-			env = new Env(name, null, env);
-			Env.recBind1(new Lambda(name, env, params, body), env);
-		} else
-			bindings = (List) first;
-
-		Env newenv = env;
-		for (; bindings != List.nil; bindings = (List) bindings.cdr) {
-			Pair bd = (Pair) bindings.car;
-			newenv = new Env((Symbol) bd.car, eval(((Pair) bd.cdr).car, env),
-					newenv);
-		}
-		return evalBody(body, newenv, tailp);
-	}
-
-	static {
-		Subr.defSpecial("Eval", "letA", "let*", 1, 0, true);
-	}
-
-	public static Object letA(List bindings, List body, Env env, boolean tailp) {
-		for (; bindings != List.nil; bindings = (List) bindings.cdr) {
-			Pair x = (Pair) bindings.car;
-			env = new Env((Symbol) x.car, eval(((Pair) x.cdr).car, env), env);
-		}
-		return evalBody(body, env, tailp);
-	}
-
-	static {
-		Subr.defSpecial("Eval", "letrec", 1, 0, true);
-	}
-
-	public static Object letrec(List bindings, List body, Env env, boolean tailp) {
-		Env newenv = env;
-		for (List bs = bindings; bs != List.nil; bs = (List) bs.cdr)
-			newenv = new Env((Symbol) ((Pair) bs.car).car, null, newenv);
-		Env ep = env;
-		for (List bs = bindings; bs != List.nil; bs = (List) bs.cdr)
-			ep = Env.recBind(eval(((Pair) ((Pair) bs.car).cdr).car, newenv),
-					newenv, ep);
-		return evalBody(body, newenv, tailp);
-	}
-
-	static {
-		Subr.defSpecial("Eval", "Ldo", "do", 2, 0, true);
-	}
-
-	public static Object Ldo(List bindings, List post, List body, Env env,
-			boolean tailp) {
-		Env newenv = env;
-		for (List bs = bindings; bs != List.nil; bs = (List) bs.cdr) {
-			Pair x = (Pair) bs.car;
-			newenv = new Env((Symbol) x.car, eval(((Pair) x.cdr).car, env),
-					newenv);
-		}
-		while (eval(post.car, newenv) == F) {
-			for (List es = body; es != List.nil; es = (List) es.cdr)
-				eval(es.car, newenv);
-			Env prevenv = newenv;
-			newenv = env;
-			for (List bs = bindings; bs != List.nil; bs = (List) bs.cdr) {
-				Pair x = (Pair) bs.car;
-				List y = (List) ((Pair) x.cdr).cdr;
-				newenv = new Env((Symbol) x.car, y == List.nil ? Env.vref(
-						(Symbol) x.car, prevenv) : eval(y.car, prevenv), newenv);
-			}
-		}
-		return begin((List) post.cdr, newenv, tailp);
-	}
-
 	static {
 		Subr.def("Eval", "functionp", "procedure?", 1);
 	}
@@ -505,14 +225,14 @@ final class Eval {
 
 	public static Object apply(Function f, Object arg, List args) {
 		if (args == List.nil)
-			return new Call(f, copyList((List) arg));
+			return Call.list(f, copyList((List) arg));
 		else {
 			Pair newargs = new Pair(arg, args);
 			Pair last = newargs;
 			for (; args.cdr != List.nil; args = (List) args.cdr)
 				last = (Pair) args;
 			last.cdr = copyList((List) args.car);
-			return new Call(f, newargs);
+			return Call.list(f, newargs);
 		}
 	}
 
@@ -537,6 +257,11 @@ final class Eval {
 
 	public static List map(Function f, List list, List rest) {
 		List val = List.nil;
+		if (rest == List.nil) {
+			for (; list != List.nil; list = (List) list.cdr)
+				val = new Pair(f.invoke1(list.car), val);
+			return List.nreverse(val);
+		}
 		for (; list != List.nil; list = (List) list.cdr) {
 			Pair args = List.list(list.car);
 			Pair last = args;
@@ -557,6 +282,11 @@ final class Eval {
 	}
 
 	public static List forEach(Function f, List list, List rest) {
+		if (rest == List.nil) {
+			for (; list != List.nil; list = (List) list.cdr)
+				f.invoke1(list.car);
+			return List.nil;
+		}
 		for (; list != List.nil; list = (List) list.cdr) {
 			Pair args = List.list(list.car);
 			Pair last = args;
@@ -572,33 +302,6 @@ final class Eval {
 		return List.nil;
 	}
 
-	static {
-		Subr.defSpecial("Eval", "and", 0, 0, true);
-	}
-
-	public static Object and(List args, Env env, boolean tailp) {
-		Object val = T;
-		for (; args != List.nil; args = (List) args.cdr) {
-			val = eval(args.car, env, tailp && (args.cdr == List.nil));
-			if (val == F)
-				return F;
-		}
-		return val;
-	}
-
-	static {
-		Subr.defSpecial("Eval", "or", 0, 0, true);
-	}
-
-	public static Object or(List args, Env env, boolean tailp) {
-		for (; args != List.nil; args = (List) args.cdr) {
-			Object val = eval(args.car, env, tailp && (args.cdr == List.nil));
-			if (val != F)
-				return val;
-		}
-		return F;
-	}
-
 	static {
 		Subr.def("Eval", "not", 1);
 	}
@@ -620,15 +323,18 @@ final class Eval {
 	}
 
 	public static Boolean eqv(Object obj1, Object obj2) {
-		if (obj1 == obj2) {
-			return T;
-		} else if (obj1 instanceof LNumber && obj2 instanceof LNumber) {
-			return LNumber.compare((LNumber) obj1, (LNumber) obj2) == 0 ? T : F;
-		} else if (obj1 instanceof Character) {
-			return ((Character) obj1).equals(obj2) ? T : F;
-		} else {
-			return F;
-		}
+		return isEqv(obj1, obj2) ? T : F;
+	}
+
+	static boolean isEqv(Object obj1, Object obj2) {
+		if (obj1 == obj2)
+			return true;
+		else if (obj1 instanceof LNumber && obj2 instanceof LNumber)
+			return LNumber.compare((LNumber) obj1, (LNumber) obj2) == 0;
+		else if (obj1 instanceof Character)
+			return ((Character) obj1).equals(obj2);
+		else
+			return false;
 	}
 
 	static {
@@ -636,38 +342,42 @@ final class Eval {
 	}
 
 	public static Boolean equal(Object obj1, Object obj2) {
+		return isEqual(obj1, obj2) ? T : F;
+	}
+
+	static boolean isEqual(Object obj1, Object obj2) {
 		for (;;) {
-			if (eqv(obj1, obj2) == T)
-				return T;
+			if (isEqv(obj1, obj2))
+				return true;
 			else if (obj1 instanceof Pair)
 				if (obj2 instanceof Pair) {
 					Pair x = (Pair) obj1;
 					Pair y = (Pair) obj2;
-					if (equal(x.car, y.car) == F)
-						return F;
+					if (!isEqual(x.car, y.car))
+						return false;
 					obj1 = x.cdr;
 					obj2 = y.cdr;
 				} else
-					return F;
+					return false;
 			else if (obj1 instanceof Object[])
 				if (obj2 instanceof Object[]) {
 					Object[] v1 = (Object[]) obj1;
 					Object[] v2 = (Object[]) obj2;
 					if (v1.length != v2.length)
-						return F;
+						return false;
 					for (int i = 0; i < v1.length; i++) {
-						if (equal(v1[i], v2[i]) == F)
-							return F;
+						if (!isEqual(v1[i], v2[i]))
+							return false;
 					}
-					return T;
+					return true;
 				} else
-					return F;
+					return false;
+			else if (NumVector.tag(obj1) != null)
+				return NumVector.equal(obj1, obj2);
 			else if (obj1 instanceof LString)
-				return obj2 instanceof LString
-						&& ((LString) obj1).toString().equals(
-								((LString) obj2).toString()) ? T : F;
+				return obj1.equals(obj2);
 			else
-				return F;
+				return false;
 		}
 	}
 
@@ -679,25 +389,12 @@ final class Eval {
 		return obj instanceof Boolean ? T : F;
 	}
 
-	static {
-		Subr.defSpecial("Eval", "time", 1, 0, false);
-	}
-
-	public static Object time(Object expr, Env env, boolean tailp) {
-		long time = System.currentTimeMillis();
-		Object val = eval(expr, env);
-		time = System.currentTimeMillis() - time;
-		IO.println("time: " + time / 1000.0 + " secs");
-		return val;
-	}
-
 	static {
 		Subr.def("Eval", "gbc", 0);
 	}
 
 	public static Boolean gbc() {
 		List.clean();
-		Subr.clean();
 		System.gc();
 		return T;
 	}
@@ -713,8 +410,6 @@ final class Eval {
 				m = "Vector";
 			else if (m.equals("Contin"))
 				m = "Continuation";
-			else if (m.equals("PushbackReader"))
-				m = "InputPort";
 			else if (m.equals("StringWriter") || m.equals("OutputStreamWriter"))
 				m = "OutputPort";
 			else if (m.equals("Misc"))
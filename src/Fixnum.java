@@ -0,0 +1,70 @@
+// A Lisp Driver to be embedded in Java Applications
+
+// The contents of this file are subject to the Mozilla Public License
+// Version 1.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at
+// http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS"
+// basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+// License for the specific language governing rights and limitations
+// under the License.
+//
+// The Original Code is JAKLD code, released November 26, 2002.
+//
+// The Initial Developer of the Original Code is Taiichi Yuasa.
+// Portions created by Taiichi Yuasa are Copyright (C) 2002
+// Taiichi Yuasa. All Rights Reserved.
+//
+// Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
+
+import java.math.BigInteger;
+
+// Exact integers that fit in a long.  Small values are shared.
+
+final class Fixnum extends LNumber {
+
+	final long value;
+
+	private Fixnum(long value) {
+		this.value = value;
+	}
+
+	private final static int CacheMin = -1024;
+	private final static int CacheMax = 32767;
+	private final static Fixnum[] Cache = new Fixnum[CacheMax - CacheMin + 1];
+
+	// The cache is filled in advance, so that a value made by the reader
+	// of load in another thread is still eq? to the same value made here.
+	static {
+		for (int i = 0; i < Cache.length; i++)
+			Cache[i] = new Fixnum(i + CacheMin);
+	}
+
+	static Fixnum make(long n) {
+		if (n >= CacheMin && n <= CacheMax)
+			return Cache[(int) n - CacheMin];
+		else
+			return new Fixnum(n);
+	}
+
+	public String toString() {
+		return Long.toString(value);
+	}
+
+	public int intValue() {
+		return (int) value;
+	}
+
+	public long longValue() {
+		return value;
+	}
+
+	public double doubleValue() {
+		return (double) value;
+	}
+
+	public BigInteger bigValue() {
+		return BigInteger.valueOf(value);
+	}
+}
@@ -0,0 +1,243 @@
+// A Lisp Driver to be embedded in Java Applications
+
+// The contents of this file are subject to the Mozilla Public License
+// Version 1.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at
+// http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS"
+// basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+// License for the specific language governing rights and limitations
+// under the License.
+//
+// The Original Code is JAKLD code, released November 26, 2002.
+//
+// The Initial Developer of the Original Code is Taiichi Yuasa.
+// Portions created by Taiichi Yuasa are Copyright (C) 2002
+// Taiichi Yuasa. All Rights Reserved.
+//
+// Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+// Inexact numbers.
+
+final class Flonum extends LNumber {
+
+	final double value;
+
+	private Flonum(double value) {
+		this.value = value;
+	}
+
+	static Flonum make(double x) {
+		return new Flonum(x);
+	}
+
+	public String toString() {
+		return Double.toString(value);
+	}
+
+	public int intValue() {
+		return (int) value;
+	}
+
+	public long longValue() {
+		return (long) value;
+	}
+
+	public double doubleValue() {
+		return value;
+	}
+
+	public BigInteger bigValue() {
+		return new BigDecimal(value).toBigInteger();
+	}
+
+	private final static Boolean T = Boolean.TRUE;
+	private final static Boolean F = Boolean.FALSE;
+
+	// Operations on flonums only.  The Analyzer inlines their calls, so
+	// that nested operations pass unboxed doubles to each other.
+	static {
+		Subr.def("Flonum", "flonump", "flonum?", 1);
+		Subr.def("Flonum", "fladd", "fl+", 0, true);
+		Subr.def("Flonum", "flmult", "fl*", 0, true);
+		Subr.def("Flonum", "flminus", "fl-", 1, true);
+		Subr.def("Flonum", "fldiv", "fl/", 1, true);
+		Subr.def("Flonum", "flEQ", "fl=?", 1, true);
+		Subr.def("Flonum", "flLT", "fl<?", 1, true);
+		Subr.def("Flonum", "flGT", "fl>?", 1, true);
+		Subr.def("Flonum", "flLE", "fl<=?", 1, true);
+		Subr.def("Flonum", "flGE", "fl>=?", 1, true);
+		Subr.def("Flonum", "flabs", 1);
+		Subr.def("Flonum", "flsqrt", 1);
+		Subr.def("Flonum", "fixnum2flonum", "fixnum->flonum", 1);
+
+		Subr.defBinary("Flonum", "fladd2", "fl+");
+		Subr.defBinary("Flonum", "flmult2", "fl*");
+		Subr.defBinary("Flonum", "flminus2", "fl-");
+		Subr.defBinary("Flonum", "fldiv2", "fl/");
+		Subr.defBinary("Flonum", "flEQ2", "fl=?");
+		Subr.defBinary("Flonum", "flLT2", "fl<?");
+		Subr.defBinary("Flonum", "flGT2", "fl>?");
+		Subr.defBinary("Flonum", "flLE2", "fl<=?");
+		Subr.defBinary("Flonum", "flGE2", "fl>=?");
+
+		Analyzer.defInline("fl+");
+		Analyzer.defInline("fl*");
+		Analyzer.defInline("fl-");
+		Analyzer.defInline("fl/");
+		Analyzer.defInline("fl=?");
+		Analyzer.defInline("fl<?");
+		Analyzer.defInline("fl>?");
+		Analyzer.defInline("fl<=?");
+		Analyzer.defInline("fl>=?");
+		Analyzer.defInline("flabs");
+		Analyzer.defInline("flsqrt");
+		Analyzer.defInline("fixnum->flonum");
+	}
+
+	public static Boolean flonump(Object obj) {
+		return obj instanceof Flonum ? T : F;
+	}
+
+	public static Flonum fladd(List args) {
+		double x = 0.0;
+		for (; args != List.nil; args = (List) args.cdr)
+			x += ((Flonum) args.car).value;
+		return new Flonum(x);
+	}
+
+	public static Flonum fladd2(Flonum x, Flonum y) {
+		return new Flonum(x.value + y.value);
+	}
+
+	public static Flonum flmult(List args) {
+		double x = 1.0;
+		for (; args != List.nil; args = (List) args.cdr)
+			x *= ((Flonum) args.car).value;
+		return new Flonum(x);
+	}
+
+	public static Flonum flmult2(Flonum x, Flonum y) {
+		return new Flonum(x.value * y.value);
+	}
+
+	public static Flonum flminus(Flonum x, List args) {
+		if (args == List.nil)
+			return new Flonum(-x.value);
+		double val = x.value;
+		for (; args != List.nil; args = (List) args.cdr)
+			val -= ((Flonum) args.car).value;
+		return new Flonum(val);
+	}
+
+	public static Flonum flminus2(Flonum x, Flonum y) {
+		return new Flonum(x.value - y.value);
+	}
+
+	public static Flonum fldiv(Flonum x, List args) {
+		if (args == List.nil)
+			return new Flonum(1.0 / x.value);
+		double val = x.value;
+		for (; args != List.nil; args = (List) args.cdr)
+			val /= ((Flonum) args.car).value;
+		return new Flonum(val);
+	}
+
+	public static Flonum fldiv2(Flonum x, Flonum y) {
+		return new Flonum(x.value / y.value);
+	}
+
+	public static Boolean flEQ(Flonum x, List args) {
+		double val = x.value;
+		for (; args != List.nil; args = (List) args.cdr) {
+			double next = ((Flonum) args.car).value;
+			if (!(val == next))
+				return F;
+			val = next;
+		}
+		return T;
+	}
+
+	public static Boolean flEQ2(Flonum x, Flonum y) {
+		return x.value == y.value ? T : F;
+	}
+
+	public static Boolean flLT(Flonum x, List args) {
+		double val = x.value;
+		for (; args != List.nil; args = (List) args.cdr) {
+			double next = ((Flonum) args.car).value;
+			if (!(val < next))
+				return F;
+			val = next;
+		}
+		return T;
+	}
+
+	public static Boolean flLT2(Flonum x, Flonum y) {
+		return x.value < y.value ? T : F;
+	}
+
+	public static Boolean flGT(Flonum x, List args) {
+		double val = x.value;
+		for (; args != List.nil; args = (List) args.cdr) {
+			double next = ((Flonum) args.car).value;
+			if (!(val > next))
+				return F;
+			val = next;
+		}
+		return T;
+	}
+
+	public static Boolean flGT2(Flonum x, Flonum y) {
+		return x.value > y.value ? T : F;
+	}
+
+	public static Boolean flLE(Flonum x, List args) {
+		double val = x.value;
+		for (; args != List.nil; args = (List) args.cdr) {
+			double next = ((Flonum) args.car).value;
+			if (!(val <= next))
+				return F;
+			val = next;
+		}
+		return T;
+	}
+
+	public static Boolean flLE2(Flonum x, Flonum y) {
+		return x.value <= y.value ? T : F;
+	}
+
+	public static Boolean flGE(Flonum x, List args) {
+		double val = x.value;
+		for (; args != List.nil; args = (List) args.cdr) {
+			double next = ((Flonum) args.car).value;
+			if (!(val >= next))
+				return F;
+			val = next;
+		}
+		return T;
+	}
+
+	public static Boolean flGE2(Flonum x, Flonum y) {
+		return x.value >= y.value ? T : F;
+	}
+
+	public static Flonum flabs(Flonum x) {
+		return new Flonum(Math.abs(x.value));
+	}
+
+	public static Flonum flsqrt(Flonum x) {
+		return new Flonum(Math.sqrt(x.value));
+	}
+
+	public static Flonum fixnum2flonum(Fixnum n) {
+		return new Flonum((double) n.value);
+	}
+
+	static void init() {
+	}
+}
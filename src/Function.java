@@ -22,15 +22,42 @@ abstract class Function {
 
 	abstract Object invoke0(List args);
 
-	public Object invoke(List args) {
-		Object val = invoke0(args);
+	// Entry points for calls with a fixed number of arguments. Like
+	// invoke0, they may return a Call for a tail call. Subclasses override
+	// them to take the arguments without consing a list.
+
+	Object call0() {
+		return invoke0(List.nil);
+	}
+
+	Object call1(Object a) {
+		return invoke0(List.list(a));
+	}
+
+	Object call2(Object a, Object b) {
+		return invoke0(List.list(a, b));
+	}
+
+	Object call3(Object a, Object b, Object c) {
+		return invoke0(List.list(a, b, c));
+	}
+
+	Object call4(Object a, Object b, Object c, Object d) {
+		return invoke0(List.list(a, b, c, d));
+	}
+
+	static Object trampoline(Object val) {
 		while (val instanceof Call)
-			val = ((Call) val).fun.invoke0(((Call) val).args);
+			val = ((Call) val).run();
 		return val;
 	}
 
+	public Object invoke(List args) {
+		return trampoline(invoke0(args));
+	}
+
 	public Object invoke1(Object arg) {
-		return invoke(List.list(arg));
+		return trampoline(call1(arg));
 	}
 
 	public boolean isSpecialForm() {
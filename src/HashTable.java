@@ -0,0 +1,471 @@
+// A Lisp Driver to be embedded in Java Applications
+
+// The contents of this file are subject to the Mozilla Public License
+// Version 1.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at
+// http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS"
+// basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+// License for the specific language governing rights and limitations
+// under the License.
+//
+// The Original Code is JAKLD code, released November 26, 2002.
+//
+// The Initial Developer of the Original Code is Taiichi Yuasa.
+// Portions created by Taiichi Yuasa are Copyright (C) 2002
+// Taiichi Yuasa. All Rights Reserved.
+//
+// Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
+
+import java.util.Arrays;
+
+// Hash tables of SRFI 69. Keys are hashed consistently with the
+// equivalence of the table: eq?, eqv?, equal?, string=? and string-ci=?
+// are handled here, and any other equivalence procedure is called with
+// a hash procedure, hash by default.
+
+final class HashTable {
+
+	private final static int EQ = 0, EQV = 1, EQUAL = 2, STRING = 3,
+			STRING_CI = 4, GENERAL = 5;
+
+	private final static class Entry {
+		final Object key;
+		final int hash;
+		Object value;
+		Entry next;
+
+		Entry(Object key, int hash, Object value, Entry next) {
+			this.key = key;
+			this.hash = hash;
+			this.value = value;
+			this.next = next;
+		}
+	}
+
+	private final int kind;
+	private final Function equiv;
+	private final Function hasher;
+	private Entry[] buckets = new Entry[16];
+	private int size = 0;
+
+	private HashTable(int kind, Function equiv, Function hasher) {
+		this.kind = kind;
+		this.equiv = equiv;
+		this.hasher = hasher;
+	}
+
+	private final static Boolean T = Boolean.TRUE;
+	private final static Boolean F = Boolean.FALSE;
+
+	private final static Symbol Seq = Symbol.intern("eq?");
+	private final static Symbol Seqv = Symbol.intern("eqv?");
+	private final static Symbol Sequal = Symbol.intern("equal?");
+	private final static Symbol SstringEQ = Symbol.intern("string=?");
+	private final static Symbol SstringEQci = Symbol.intern("string-ci=?");
+	private final static Symbol Shash = Symbol.intern("hash");
+	private final static Symbol ShashByIdentity = Symbol
+			.intern("hash-by-identity");
+	private final static Symbol SstringHash = Symbol.intern("string-hash");
+	private final static Symbol SstringCiHash = Symbol
+			.intern("string-ci-hash");
+
+	// Makes a table for the equivalence procedure equiv and the hash
+	// procedure hasher, either of which may be null.
+	private static HashTable make(Function equiv, Function hasher) {
+		if (equiv == null)
+			equiv = Sequal.functionOf();
+		int kind = (equiv == Seq.globalValue() ? EQ
+				: equiv == Seqv.globalValue() ? EQV
+						: equiv == Sequal.globalValue() ? EQUAL
+								: equiv == SstringEQ.globalValue() ? STRING
+										: equiv == SstringEQci.globalValue() ? STRING_CI
+												: GENERAL);
+		if (hasher == null)
+			hasher = (kind == EQ ? ShashByIdentity
+					: kind == STRING ? SstringHash
+							: kind == STRING_CI ? SstringCiHash : Shash)
+					.functionOf();
+		else if (hasher != Shash.globalValue()
+				&& hasher != ShashByIdentity.globalValue()
+				&& hasher != SstringHash.globalValue()
+				&& hasher != SstringCiHash.globalValue())
+			kind = GENERAL;
+		return new HashTable(kind, equiv, hasher);
+	}
+
+	public String toString() {
+		return "#<hash-table>";
+	}
+
+	// Hash functions
+
+	static int eqvHash(Object x) {
+		if (x instanceof LNumber) {
+			// Numbers are eqv? if they compare equal, even a fixnum and
+			// a flonum, so all of them are hashed by their double value.
+			double d = ((LNumber) x).doubleValue();
+			return d == 0 ? 0 : Double.hashCode(d);
+		} else if (x instanceof Character)
+			return x.hashCode();
+		else
+			return System.identityHashCode(x);
+	}
+
+	// Hashes at most the first 16 elements of a list or vector, and
+	// structures nested up to depth levels.
+	static int equalHash(Object x, int depth) {
+		if (x instanceof Pair) {
+			int h = 17;
+			int n = 0;
+			for (; x instanceof Pair && n < 16; x = ((Pair) x).cdr, n++)
+				h = h * 31
+						+ (depth > 0 ? equalHash(((Pair) x).car, depth - 1)
+								: 0);
+			return n < 16 ? h * 31 + equalHash(x, 0) : h;
+		} else if (x instanceof Object[]) {
+			Object[] v = (Object[]) x;
+			int h = v.length;
+			for (int i = 0; i < v.length && i < 16; i++)
+				h = h * 31 + (depth > 0 ? equalHash(v[i], depth - 1) : 0);
+			return h;
+		} else if (x instanceof LString)
+			return x.hashCode();
+		else if (x instanceof double[])
+			return Arrays.hashCode((double[]) x);
+		else if (x instanceof float[])
+			return Arrays.hashCode((float[]) x);
+		else if (x instanceof long[])
+			return Arrays.hashCode((long[]) x);
+		else if (x instanceof int[])
+			return Arrays.hashCode((int[]) x);
+		else if (x instanceof short[])
+			return Arrays.hashCode((short[]) x);
+		else if (x instanceof byte[])
+			return Arrays.hashCode((byte[]) x);
+		else
+			return eqvHash(x);
+	}
+
+	private static String string(Object x) {
+		if (x instanceof LString)
+			return x.toString();
+		else
+			throw Eval.error(IO.printString(x) + " is not a string");
+	}
+
+	// Consistent with String.equalsIgnoreCase, which string-ci=? uses.
+	static int stringCiHash(String s) {
+		int h = 0;
+		for (int i = 0; i < s.length(); i++)
+			h = h * 31
+					+ Character.toLowerCase(Character.toUpperCase(s
+							.charAt(i)));
+		return h;
+	}
+
+	private int hash(Object key) {
+		int h;
+		switch (kind) {
+		case EQ:
+			h = System.identityHashCode(key);
+			break;
+		case EQV:
+			h = eqvHash(key);
+			break;
+		case EQUAL:
+			h = equalHash(key, 4);
+			break;
+		case STRING:
+			h = string(key).hashCode();
+			break;
+		case STRING_CI:
+			h = stringCiHash(string(key));
+			break;
+		default:
+			h = ((LNumber) Function.trampoline(hasher.call1(key)))
+					.intValue();
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private boolean same(Object x, Object y) {
+		switch (kind) {
+		case EQ:
+			return x == y;
+		case EQV:
+			return Eval.isEqv(x, y);
+		case EQUAL:
+			return Eval.isEqual(x, y);
+		case STRING:
+			return x.equals(y);
+		case STRING_CI:
+			return x.toString().equalsIgnoreCase(y.toString());
+		default:
+			return Function.trampoline(equiv.call2(x, y)) != F;
+		}
+	}
+
+	// Table operations
+
+	private Entry find(Object key) {
+		int h = hash(key);
+		for (Entry e = buckets[h & (buckets.length - 1)]; e != null; e = e.next)
+			if (e.hash == h && same(e.key, key))
+				return e;
+		return null;
+	}
+
+	private void put(Object key, Object value) {
+		int h = hash(key);
+		int i = h & (buckets.length - 1);
+		for (Entry e = buckets[i]; e != null; e = e.next)
+			if (e.hash == h && same(e.key, key)) {
+				e.value = value;
+				return;
+			}
+		buckets[i] = new Entry(key, h, value, buckets[i]);
+		if (++size > buckets.length - (buckets.length >> 2))
+			grow();
+	}
+
+	private void grow() {
+		Entry[] old = buckets;
+		buckets = new Entry[old.length * 2];
+		for (int i = 0; i < old.length; i++)
+			for (Entry e = old[i]; e != null;) {
+				Entry next = e.next;
+				int j = e.hash & (buckets.length - 1);
+				e.next = buckets[j];
+				buckets[j] = e;
+				e = next;
+			}
+	}
+
+	private boolean remove(Object key) {
+		int h = hash(key);
+		int i = h & (buckets.length - 1);
+		for (Entry e = buckets[i], prev = null; e != null; prev = e, e = e.next)
+			if (e.hash == h && same(e.key, key)) {
+				if (prev == null)
+					buckets[i] = e.next;
+				else
+					prev.next = e.next;
+				size--;
+				return true;
+			}
+		return false;
+	}
+
+	// The entries as an array, so that procedures called while walking
+	// the table may change it.
+	private Entry[] entries() {
+		Entry[] v = new Entry[size];
+		int n = 0;
+		for (int i = 0; i < buckets.length; i++)
+			for (Entry e = buckets[i]; e != null; e = e.next)
+				v[n++] = e;
+		return v;
+	}
+
+	private static int bounded(int h, LNumber bound) {
+		h &= 0x7fffffff;
+		if (bound == null)
+			return h;
+		if (!(bound instanceof Fixnum) || ((Fixnum) bound).value <= 0)
+			throw Eval.error(IO.printString(bound)
+					+ " is not a positive fixnum");
+		return (int) (h % ((Fixnum) bound).value);
+	}
+
+	static {
+		Subr.def("HashTable", "makeHashTable", "make-hash-table", 0, 2);
+		Subr.def("HashTable", "hashTablep", "hash-table?", 1);
+		Subr.def("HashTable", "alist2hashTable", "alist->hash-table", 1, 2);
+		Subr.def("HashTable", "equivalenceFunction",
+				"hash-table-equivalence-function", 1);
+		Subr.def("HashTable", "hashFunction", "hash-table-hash-function", 1);
+		Subr.def("HashTable", "ref", "hash-table-ref", 2, 2);
+		Subr.def("HashTable", "refDefault", "hash-table-ref/default", 3);
+		Subr.def("HashTable", "set", "hash-table-set!", 3);
+		Subr.def("HashTable", "delete", "hash-table-delete!", 2);
+		Subr.def("HashTable", "exists", "hash-table-exists?", 2);
+		Subr.def("HashTable", "exists", "hash-table-contains?", 2);
+		Subr.def("HashTable", "update", "hash-table-update!", 3, 1);
+		Subr.def("HashTable", "updateDefault", "hash-table-update!/default",
+				4);
+		Subr.def("HashTable", "size", "hash-table-size", 1);
+		Subr.def("HashTable", "keys", "hash-table-keys", 1);
+		Subr.def("HashTable", "values", "hash-table-values", 1);
+		Subr.def("HashTable", "walk", "hash-table-walk", 2);
+		Subr.def("HashTable", "fold", "hash-table-fold", 3);
+		Subr.def("HashTable", "hashTable2alist", "hash-table->alist", 1);
+		Subr.def("HashTable", "copy", "hash-table-copy", 1, 1);
+		Subr.def("HashTable", "merge", "hash-table-merge!", 2);
+		Subr.def("HashTable", "clear", "hash-table-clear!", 1);
+		Subr.def("HashTable", "hash", 1, 1);
+		Subr.def("HashTable", "stringHash", "string-hash", 1, 1);
+		Subr.def("HashTable", "stringCiHash", "string-ci-hash", 1, 1);
+		Subr.def("HashTable", "hashByIdentity", "hash-by-identity", 1, 1);
+	}
+
+	public static HashTable makeHashTable(Function equiv, Function hasher) {
+		return make(equiv, hasher);
+	}
+
+	public static Boolean hashTablep(Object obj) {
+		return obj instanceof HashTable ? T : F;
+	}
+
+	public static HashTable alist2hashTable(List alist, Function equiv,
+			Function hasher) {
+		HashTable table = make(equiv, hasher);
+		for (; alist != List.nil; alist = (List) alist.cdr) {
+			Pair x = (Pair) alist.car;
+			if (table.find(x.car) == null)
+				table.put(x.car, x.cdr);
+		}
+		return table;
+	}
+
+	public static Function equivalenceFunction(HashTable table) {
+		return table.equiv;
+	}
+
+	public static Function hashFunction(HashTable table) {
+		return table.hasher;
+	}
+
+	public static Object ref(HashTable table, Object key, Function thunk,
+			Function proc) {
+		Entry e = table.find(key);
+		if (e == null)
+			if (thunk == null)
+				throw Eval.error("no value for key " + IO.printString(key));
+			else
+				return Function.trampoline(thunk.call0());
+		else if (proc == null)
+			return e.value;
+		else
+			return Function.trampoline(proc.call1(e.value));
+	}
+
+	public static Object refDefault(HashTable table, Object key, Object val) {
+		Entry e = table.find(key);
+		return e == null ? val : e.value;
+	}
+
+	public static Object set(HashTable table, Object key, Object val) {
+		table.put(key, val);
+		return val;
+	}
+
+	public static Boolean delete(HashTable table, Object key) {
+		return table.remove(key) ? T : F;
+	}
+
+	public static Boolean exists(HashTable table, Object key) {
+		return table.find(key) != null ? T : F;
+	}
+
+	public static Object update(HashTable table, Object key, Function proc,
+			Function thunk) {
+		Object val = ref(table, key, thunk, null);
+		val = Function.trampoline(proc.call1(val));
+		table.put(key, val);
+		return val;
+	}
+
+	public static Object updateDefault(HashTable table, Object key,
+			Function proc, Object val) {
+		Entry e = table.find(key);
+		val = Function.trampoline(proc.call1(e == null ? val : e.value));
+		table.put(key, val);
+		return val;
+	}
+
+	public static LNumber size(HashTable table) {
+		return Fixnum.make(table.size);
+	}
+
+	public static List keys(HashTable table) {
+		List list = List.nil;
+		for (int i = 0; i < table.buckets.length; i++)
+			for (Entry e = table.buckets[i]; e != null; e = e.next)
+				list = new Pair(e.key, list);
+		return list;
+	}
+
+	public static List values(HashTable table) {
+		List list = List.nil;
+		for (int i = 0; i < table.buckets.length; i++)
+			for (Entry e = table.buckets[i]; e != null; e = e.next)
+				list = new Pair(e.value, list);
+		return list;
+	}
+
+	public static Boolean walk(HashTable table, Function proc) {
+		Entry[] v = table.entries();
+		for (int i = 0; i < v.length; i++)
+			Function.trampoline(proc.call2(v[i].key, v[i].value));
+		return T;
+	}
+
+	public static Object fold(HashTable table, Function kons, Object knil) {
+		Entry[] v = table.entries();
+		for (int i = 0; i < v.length; i++)
+			knil = Function.trampoline(kons.call3(v[i].key, v[i].value, knil));
+		return knil;
+	}
+
+	public static List hashTable2alist(HashTable table) {
+		List list = List.nil;
+		for (int i = 0; i < table.buckets.length; i++)
+			for (Entry e = table.buckets[i]; e != null; e = e.next)
+				list = new Pair(new Pair(e.key, e.value), list);
+		return list;
+	}
+
+	public static HashTable copy(HashTable table, Object mutablep) {
+		HashTable t = new HashTable(table.kind, table.equiv, table.hasher);
+		t.buckets = new Entry[table.buckets.length];
+		for (int i = 0; i < table.buckets.length; i++)
+			for (Entry e = table.buckets[i]; e != null; e = e.next)
+				t.buckets[i] = new Entry(e.key, e.hash, e.value, t.buckets[i]);
+		t.size = table.size;
+		return t;
+	}
+
+	public static HashTable merge(HashTable table1, HashTable table2) {
+		Entry[] v = table2.entries();
+		for (int i = 0; i < v.length; i++)
+			table1.put(v[i].key, v[i].value);
+		return table1;
+	}
+
+	public static Boolean clear(HashTable table) {
+		table.buckets = new Entry[16];
+		table.size = 0;
+		return T;
+	}
+
+	public static LNumber hash(Object obj, LNumber bound) {
+		return Fixnum.make(bounded(equalHash(obj, 4), bound));
+	}
+
+	public static LNumber stringHash(LString s, LNumber bound) {
+		return Fixnum.make(bounded(s.hashCode(), bound));
+	}
+
+	public static LNumber stringCiHash(LString s, LNumber bound) {
+		return Fixnum.make(bounded(stringCiHash(s.toString()), bound));
+	}
+
+	public static LNumber hashByIdentity(Object obj, LNumber bound) {
+		return Fixnum.make(bounded(System.identityHashCode(obj), bound));
+	}
+
+	static void init() {
+	}
+}
@@ -18,30 +18,52 @@
 //
 // Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.io.PushbackReader;
-import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
-import java.lang.reflect.Array;
 import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.Vector;
 
 final class IO {
 
-	private final static PushbackReader consoleInput = new PushbackReader(
+	private final static InputPort consoleInput = new InputPort(
 			new InputStreamReader(System.in));
 
-	private static PushbackReader currentInputPort = consoleInput;
+	private static InputPort currentInputPort = consoleInput;
 
-	private final static Writer consoleOutput = new OutputStreamWriter(
-			System.out);
+	private final static OutputPort consoleOutput = new OutputPort(
+			new OutputStreamWriter(System.out), consoleBuffering(), 8192);
+
+	// The console output is line buffered on a terminal and block
+	// buffered otherwise, unless jakld.buffering names the mode.
+	private static int consoleBuffering() {
+		int mode = OutputPort.mode(System.getProperty("jakld.buffering", ""));
+		if (mode >= 0)
+			return mode;
+		else
+			return System.console() != null ? OutputPort.LINE
+					: OutputPort.BLOCK;
+	}
+
+	static {
+		consoleInput.tie = consoleOutput;
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				flushConsole();
+			}
+		});
+	}
 
 	private static Writer currentOutputPort = consoleOutput;
 
@@ -104,16 +126,14 @@ final class IO {
 	private final static Object dotToken = new Misc("#<dot>");
 	final static Object eofObject = new Misc("#<end-of-file>");
 
-	private static char inRead(PushbackReader in) throws IOException {
+	private static char inRead(InputPort in) throws IOException {
 		char c = (char) in.read();
 		if (c == EOF)
 			throw Eval.error("unexpected EOF while reading a character");
 		return c;
 	}
 
-	private final static StringBuffer tokenBuffer = new StringBuffer();
-
-	private static Object readObject(PushbackReader in, int tokenAllowed)
+	private static Object readObject(InputPort in, int tokenAllowed)
 			throws IOException {
 		char c;
 		int a;
@@ -134,14 +154,14 @@ final class IO {
 				else
 					return x;
 			}
-			tokenBuffer.setLength(0);
+			in.tokenLength = 0;
 			boolean escape = false;
 			for (;;) {
 				if (a == CAconstituent || a == CAnonTerminating) {
-					tokenBuffer.append(c);
+					in.tokenAppend(c);
 				} else if (a == CAsingleEscape) {
 					escape = true;
-					tokenBuffer.append(inRead(in));
+					in.tokenAppend(inRead(in));
 				} else if (a == CAmultipleEscape) {
 					escape = true;
 					for (;;) {
@@ -151,7 +171,7 @@ final class IO {
 							break;
 						else if (a == CAsingleEscape)
 							c = inRead(in);
-						tokenBuffer.append(c);
+						in.tokenAppend(c);
 					}
 				} else if (a == CAterminating) {
 					in.unread(c);
@@ -163,27 +183,24 @@ final class IO {
 					break;
 				a = cat(c);
 			}
-			String s = tokenBuffer.toString();
-			if (escape)
-				return Symbol.intern(s);
-			else if (s.equals("."))
-				if ((tokenAllowed & TAdot) != 0)
-					return dotToken;
-				else
-					throw Eval.error("dot '.' in a wrong place");
-			else
-				try {
-					return readNumber(s, 10);
-				} catch (NumberFormatException e) {
-					return Symbol.intern(s);
-				}
+			if (!escape) {
+				if (in.tokenLength == 1 && in.token[0] == '.')
+					if ((tokenAllowed & TAdot) != 0)
+						return dotToken;
+					else
+						throw Eval.error("dot '.' in a wrong place");
+				LNumber x = parseNumber(in.token, 0, in.tokenLength, 10);
+				if (x != null)
+					return x;
+			}
+			return Symbol.intern(in.token, 0, in.tokenLength);
 		}
 	}
 
-	private static String readToken(PushbackReader in) throws IOException {
+	private static String readToken(InputPort in) throws IOException {
 		char c;
 		int a;
-		tokenBuffer.setLength(0);
+		in.tokenLength = 0;
 		for (;;) {
 			if ((c = (char) in.read()) == EOF)
 				break;
@@ -195,26 +212,91 @@ final class IO {
 			else if (a == CAsingleEscape || a == CAmultipleEscape)
 				throw Eval.error("escape '" + c + "' not allowed");
 			else
-				tokenBuffer.append(c);
+				in.tokenAppend(c);
 		}
-		return tokenBuffer.length() == 0 ? "" : tokenBuffer.toString();
-	}
+		return in.tokenLength == 0 ? "" : in.tokenString();
+	}
+
+	static LNumber parseNumber(String s, int radix) {
+		return parseNumber(s.toCharArray(), 0, s.length(), radix);
+	}
+
+	// Parses len chars of buf from off as a number in radix, or returns
+	// null if they do not form one. The chars are classified in a single
+	// pass: integers are accumulated in a long and make a BigInteger only
+	// when they overflow, and decimals, NaN and Infinity (in radix 10)
+	// are checked here before Double.parseDouble converts them.
+	static LNumber parseNumber(char[] buf, int off, int len, int radix) {
+		int end = off + len;
+		int i = off;
+		boolean negative = false;
+		if (i < end && (buf[i] == '+' || buf[i] == '-'))
+			negative = buf[i++] == '-';
+		int start = i;
+
+		// the integer part, accumulated as a negative number so that
+		// Long.MIN_VALUE fits
+		long n = 0;
+		boolean overflow = false;
+		int d;
+		for (; i < end && (d = digit(buf[i], radix)) >= 0; i++)
+			if (overflow || n < (Long.MIN_VALUE + d) / radix)
+				overflow = true;
+			else
+				n = n * radix - d;
+		int digits = i - start;
+		if (i == end) {
+			if (digits == 0)
+				return null;
+			else if (!overflow && (negative || n != Long.MIN_VALUE))
+				return Fixnum.make(negative ? n : -n);
+			else {
+				BigInteger b = new BigInteger(new String(buf, start, end
+						- start), radix);
+				return Bignum.normalize(negative ? b.negate() : b);
+			}
+		}
+		if (radix != 10)
+			return null;
 
-	static LNumber readNumber(String s, int radix) throws NumberFormatException {
-		if (s.length() > 0 && s.charAt(0) == '+')
-			s = s.substring(1);
-		try {
-			return new LNumber(Num.makeInt(Integer.parseInt(s, radix)));
-		} catch (NumberFormatException e) {
+		if (buf[i] == '.') {
+			int f = ++i;
+			while (i < end && digit(buf[i], 10) >= 0)
+				i++;
+			digits += i - f;
 		}
-		try {
-			return new LNumber(new BigInteger(s, radix));
-		} catch (NumberFormatException e) {
-			if (radix == 10)
-				return new LNumber(new Double(s));
-			else
-				throw e;
+		if (digits > 0 && i < end && (buf[i] == 'e' || buf[i] == 'E')) {
+			if (++i < end && (buf[i] == '+' || buf[i] == '-'))
+				i++;
+			int e = i;
+			while (i < end && digit(buf[i], 10) >= 0)
+				i++;
+			if (i == e)
+				return null;
 		}
+		if (digits > 0)
+			return i == end ? Flonum.make(Double.parseDouble(new String(buf,
+					off, len))) : null;
+		else if (matches(buf, start, end, "NaN"))
+			return Flonum.make(Double.NaN);
+		else if (matches(buf, start, end, "Infinity"))
+			return Flonum.make(negative ? Double.NEGATIVE_INFINITY
+					: Double.POSITIVE_INFINITY);
+		else
+			return null;
+	}
+
+	private static int digit(char c, int radix) {
+		return c < 128 ? Character.digit(c, radix) : -1;
+	}
+
+	private static boolean matches(char[] buf, int start, int end, String s) {
+		if (end - start != s.length())
+			return false;
+		for (int i = 0; i < end - start; i++)
+			if (buf[start + i] != s.charAt(i))
+				return false;
+		return true;
 	}
 
 	private final static Symbol Squote = Symbol.intern("quote");
@@ -223,7 +305,7 @@ final class IO {
 	private final static Symbol SunquoteSplicing = Symbol
 			.intern("unquote-splicing");
 
-	private static Object charMacroReader(char c, PushbackReader in,
+	private static Object charMacroReader(char c, InputPort in,
 			int tokenAllowed) throws IOException {
 		switch (c) {
 		case '(': {
@@ -267,13 +349,13 @@ final class IO {
 				return List.list(Sunquote, readObject(in, 0));
 			}
 		case '"':
-			tokenBuffer.setLength(0);
+			in.tokenLength = 0;
 			while ((c = inRead(in)) != '"') {
 				if (cat(c) == CAsingleEscape)
 					c = inRead(in);
-				tokenBuffer.append(c);
+				in.tokenAppend(c);
 			}
-			return new LString(tokenBuffer.toString());
+			return new LString(in.tokenString());
 		case ';':
 			while ((c = (char) in.read()) != '\n')
 				if (c == EOF)
@@ -296,7 +378,7 @@ final class IO {
 		}
 	}
 
-	private static Object skipNestedComment(PushbackReader in)
+	private static Object skipNestedComment(InputPort in)
 			throws IOException {
 		char c1, c2;
 		while ((c1 = (char) in.read()) != EOF) {
@@ -314,9 +396,10 @@ final class IO {
 		throw Eval.error("unexpected EOF in nested comment");
 	}
 
-	private static Object sharpSignMacroReader(PushbackReader in)
+	private static Object sharpSignMacroReader(InputPort in)
 			throws IOException {
 		String s;
+		LNumber num;
 		char c = inRead(in);
 		switch (c) {
 		case 't':
@@ -324,9 +407,14 @@ final class IO {
 				throw Eval.error("#t followed by garbage \"" + s + "\"");
 			return T;
 		case 'f':
-			if ((s = readToken(in)).length() != 0)
+			if ((s = readToken(in)).equals("64") || s.equals("32"))
+				return readNumVector(c + s, in);
+			else if (s.length() != 0)
 				throw Eval.error("#f followed by garbage \"" + s + "\"");
 			return F;
+		case 's':
+		case 'u':
+			return readNumVector(c + readToken(in), in);
 		case '\\': {
 			c = inRead(in);
 			s = readToken(in);
@@ -358,192 +446,132 @@ final class IO {
 			return List.list2vector(List.nreverse(list));
 		}
 		case 'b':
-			s = readToken(in);
-			try {
-				return readNumber(s, 2);
-			} catch (NumberFormatException e) {
+			if ((num = parseNumber(s = readToken(in), 2)) == null)
 				throw Eval.error("bad number format #b" + s);
-			}
+			return num;
 		case 'o':
-			s = readToken(in);
-			try {
-				return readNumber(s, 8);
-			} catch (NumberFormatException e) {
+			if ((num = parseNumber(s = readToken(in), 8)) == null)
 				throw Eval.error("bad number format #o" + s);
-			}
+			return num;
 		case 'd':
-			s = readToken(in);
-			try {
-				return readNumber(s, 10);
-			} catch (NumberFormatException e) {
+			if ((num = parseNumber(s = readToken(in), 10)) == null)
 				throw Eval.error("bad number format #d" + s);
-			}
+			return num;
 		case 'x':
-			s = readToken(in);
-			try {
-				return readNumber(s, 16);
-			} catch (NumberFormatException e) {
+			if ((num = parseNumber(s = readToken(in), 16)) == null)
 				throw Eval.error("bad number format #x" + s);
-			}
+			return num;
+		case '0':
+		case '1':
+		case '2':
+		case '3':
+		case '4':
+		case '5':
+		case '6':
+		case '7':
+		case '8':
+		case '9': {
+			// datum labels #n= and references #n#
+			int n = c - '0';
+			while ((c = inRead(in)) >= '0' && c <= '9')
+				n = n * 10 + c - '0';
+			if (in.labels == null)
+				in.labels = new Hashtable<Integer, Object>();
+			if (c == '#') {
+				Object x = in.labels.get(n);
+				if (x == null)
+					throw Eval.error("undefined label #" + n + "#");
+				if (x instanceof Label)
+					((Label) x).used = true;
+				return x;
+			} else if (c == '=') {
+				Label label = new Label();
+				in.labels.put(n, label);
+				Object x = readObject(in, 0);
+				if (x == label)
+					throw Eval.error("label #" + n + "= refers to itself");
+				in.labels.put(n, x);
+				if (label.used)
+					patch(x, label);
+				return x;
+			} else
+				throw Eval.error("unknown syntax #" + n + c);
+		}
 		default:
 			throw Eval.error("unknown syntax #" + c);
 		}
 	}
 
-	private static void writeObject(Object x, Writer out) throws IOException {
-		if (x == null)
-			out.write("#<null>");
-		else if (x instanceof Boolean)
-			out.write(x == T ? "#t" : "#f");
-		else if (x instanceof Number) {
-			if (x instanceof Double
-					&& (((Double) x).isInfinite() || ((Double) x).isNaN())) {
-				out.write("#<");
-				out.write(x.toString());
-				out.write(">");
-			} else
-				out.write(x.toString());
-		} else if (x instanceof Character) {
-			char c = ((Character) x).charValue();
-			out.write("#\\");
-			if (c == ' ')
-				out.write("space");
-			else if (c == '\n')
-				out.write("newline");
-			else if (c == '\t')
-				out.write("tab");
-			else if (c == '\f')
-				out.write("formfeed");
-			else if (c == '\r')
-				out.write("return");
-			else
-				out.write(c);
-		} else if (x instanceof LString) {
-			String s = ((LString) x).toString();
-			int len = s.length();
-			out.write('\"');
-			for (int i = 0; i < len; i++) {
-				char c = s.charAt(i);
-				if (c == singleEscapeChar || c == '"')
-					out.write(singleEscapeChar);
-				out.write(c);
+	// A datum label being read, until the labeled datum is known.
+	private final static class Label {
+		boolean used = false;
+	}
+
+	// Replaces the label in the pairs and vectors reachable from x by x.
+	private static void patch(Object x, Label label) {
+		IdentityHashMap<Object, Object> visited = new IdentityHashMap<Object, Object>();
+		Vector<Object> stack = new Vector<Object>();
+		stack.addElement(x);
+		while (!stack.isEmpty()) {
+			Object y = stack.remove(stack.size() - 1);
+			if (visited.put(y, y) != null)
+				continue;
+			if (y instanceof Pair) {
+				Pair pair = (Pair) y;
+				if (pair.car == label)
+					pair.car = x;
+				else if (pair.car instanceof Pair || pair.car instanceof Object[])
+					stack.addElement(pair.car);
+				if (pair.cdr == label)
+					pair.cdr = x;
+				else if (pair.cdr instanceof Pair || pair.cdr instanceof Object[])
+					stack.addElement(pair.cdr);
+			} else if (y instanceof Object[]) {
+				Object[] v = (Object[]) y;
+				for (int i = 0; i < v.length; i++)
+					if (v[i] == label)
+						v[i] = x;
+					else if (v[i] instanceof Pair || v[i] instanceof Object[])
+						stack.addElement(v[i]);
 			}
-			out.write('\"');
-		} else if (x instanceof List) {
-			if (x == List.nil)
-				out.write("()");
-			else {
-				Pair pair = (Pair) x;
-				if (pair.car == Squote && pair.cdr instanceof Pair
-						&& ((Pair) pair.cdr).cdr == List.nil) {
-					out.write('\'');
-					writeObject(((Pair) pair.cdr).car, out);
-				} else if (pair.car == Squasiquote && pair.cdr instanceof Pair
-						&& ((Pair) pair.cdr).cdr == List.nil) {
-					out.write('`');
-					writeObject(((Pair) pair.cdr).car, out);
-				} else if (pair.car == Sunquote && pair.cdr instanceof Pair
-						&& ((Pair) pair.cdr).cdr == List.nil) {
-					out.write(',');
-					writeObject(((Pair) pair.cdr).car, out);
-				} else if (pair.car == SunquoteSplicing
-						&& pair.cdr instanceof Pair
-						&& ((Pair) pair.cdr).cdr == List.nil) {
-					out.write(",@");
-					writeObject(((Pair) pair.cdr).car, out);
-				} else {
-					out.write('(');
-					writeObject(pair.car, out);
-					while ((x = pair.cdr) instanceof Pair) {
-						pair = (Pair) x;
-						out.write(' ');
-						writeObject(pair.car, out);
-					}
-					if (x != List.nil) {
-						out.write(" . ");
-						writeObject(x, out);
-					}
-					out.write(')');
-				}
-			}
-		} else if (x instanceof Object[]) {
-			out.write("#(");
-			int len = Array.getLength(x);
-			if (len > 0) {
-				Object[] v = (Object[]) x;
-				for (int i = 0;;) {
-					writeObject(v[i], out);
-					if (++i >= len)
-						break;
-					out.write(' ');
-				}
-			}
-			out.write(')');
-		} else if (x instanceof Writer)
-			out.write("#<output port>");
-		else if (x instanceof PushbackReader)
-			out.write("#<input port>");
-		else
-			out.write(x.toString());
+		}
+	}
+
+	private static Object readNumVector(String tag, InputPort in)
+			throws IOException {
+		if (inRead(in) != '(')
+			throw Eval.error("unknown syntax #" + tag);
+		List list = List.nil;
+		Object x;
+		while ((x = readObject(in, TAkokka)) != kokkaToken)
+			list = new Pair(x, list);
+		return NumVector.list2vector(tag, List.nreverse(list));
+	}
+
+	private static void writeObject(Object x, Writer out) throws IOException {
+		Printer.print(x, out, true, false);
 	}
 
 	private static void displayObject(Object x, Writer out) throws IOException {
-		if (x == null)
-			out.write("#<null>");
-		else if (x instanceof Boolean)
-			out.write(((Boolean) x).booleanValue() ? "#t" : "#f");
-		else if (x instanceof Symbol)
-			out.write(Symbol.symbol2string((Symbol) x).toString());
-		else if (x instanceof List) {
-			out.write('(');
-			if (x != List.nil) {
-				for (;;) {
-					displayObject(((Pair) x).car, out);
-					x = ((Pair) x).cdr;
-					if (!(x instanceof Pair))
-						break;
-					out.write(' ');
-				}
-				if (x != List.nil) {
-					out.write(" . ");
-					displayObject(x, out);
-				}
-			}
-			out.write(')');
-		} else if (x instanceof Object[]) {
-			out.write("#(");
-			int len = Array.getLength(x);
-			if (len > 0) {
-				Object[] v = (Object[]) x;
-				for (int i = 0;;) {
-					displayObject(v[i], out);
-					if (++i >= len)
-						break;
-					out.write(' ');
-				}
-			}
-			out.write(')');
-		} else if (x instanceof Writer)
-			out.write("#<output port>");
-		else if (x instanceof PushbackReader)
-			out.write("#<input port>");
-		else
-			out.write(x.toString());
+		Printer.print(x, out, false, false);
 	}
 
 	static {
 		Subr.def("IO", "read", 0, 1);
 	}
 
-	public static Object read(PushbackReader in) throws IOException {
-		return readObject(in == null ? currentInputPort : in, TAeof);
+	public static Object read(InputPort in) throws IOException {
+		if (in == null)
+			in = currentInputPort;
+		in.labels = null;
+		return readObject(in, TAeof);
 	}
 
 	static {
 		Subr.def("IO", "readChar", "read-char", 0, 1);
 	}
 
-	public static Object readChar(PushbackReader in) throws IOException {
+	public static Object readChar(InputPort in) throws IOException {
 		if (in == null)
 			in = currentInputPort;
 		char c = (char) in.read();
@@ -556,13 +584,12 @@ final class IO {
 		Subr.def("IO", "peekChar", "peek-char", 0, 1);
 	}
 
-	public static Object peekChar(PushbackReader in) throws IOException {
+	public static Object peekChar(InputPort in) throws IOException {
 		if (in == null)
 			in = currentInputPort;
-		char c = (char) in.read();
+		char c = (char) in.peek();
 		if (c == EOF)
 			return eofObject;
-		in.unread(c);
 		return Char.makeChar(c);
 	}
 
@@ -570,7 +597,7 @@ final class IO {
 		Subr.def("IO", "charReady", "char-ready?", 0, 1);
 	}
 
-	public static Boolean charReady(PushbackReader in) throws IOException {
+	public static Boolean charReady(InputPort in) throws IOException {
 		return (in == null ? currentInputPort : in).ready() ? T : F;
 	}
 
@@ -583,7 +610,18 @@ final class IO {
 			out = currentOutputPort;
 
 		writeObject(x, out);
-		out.flush();
+		return x;
+	}
+
+	static {
+		Subr.def("IO", "writeShared", "write-shared", 1, 1);
+	}
+
+	public static Object writeShared(Object x, Writer out) throws IOException {
+		if (out == null)
+			out = currentOutputPort;
+
+		Printer.print(x, out, true, true);
 		return x;
 	}
 
@@ -596,7 +634,6 @@ final class IO {
 			out = currentOutputPort;
 
 		displayObject(x, out);
-		out.flush();
 		return x;
 	}
 
@@ -632,7 +669,7 @@ final class IO {
 	}
 
 	public static Boolean inputp(Object obj) {
-		return obj instanceof PushbackReader ? T : F;
+		return obj instanceof InputPort ? T : F;
 	}
 
 	static {
@@ -647,7 +684,7 @@ final class IO {
 		Subr.def("IO", "currentInputPort", "current-input-port", 0);
 	}
 
-	public static PushbackReader currentInputPort() {
+	public static InputPort currentInputPort() {
 		return currentInputPort;
 	}
 
@@ -663,12 +700,12 @@ final class IO {
 	// Subr.def("IO", "consoleInputPort", "console-input-port", 0, 1);
 	// }
 	//
-	// public static PushbackReader consoleInputPort(String encoding)
+	// public static InputPort consoleInputPort(String encoding)
 	// throws UnsupportedEncodingException {
 	// if (encoding == null)
 	// return consoleInput;
 	// else
-	// return new PushbackReader(
+	// return new InputPort(
 	// new InputStreamReader(System.in, encoding));
 	// }
 
@@ -688,7 +725,7 @@ final class IO {
 		Subr.def("IO", "closeInputPort", "close-input-port", 1);
 	}
 
-	public static Boolean closeInputPort(PushbackReader in) throws IOException {
+	public static Boolean closeInputPort(InputPort in) throws IOException {
 		in.close();
 		return T;
 	}
@@ -702,6 +739,18 @@ final class IO {
 		return T;
 	}
 
+	static {
+		Subr.def("IO", "closePort", "close-port", 1);
+	}
+
+	public static Boolean closePort(Object port) throws IOException {
+		if (port instanceof Closeable)
+			((Closeable) port).close();
+		else
+			throw Eval.error(printString(port) + " is not a port");
+		return T;
+	}
+
 	static {
 		Subr.def("IO", "flushPort", "flush-output-port", 0, 1);
 	}
@@ -715,8 +764,8 @@ final class IO {
 		Subr.def("IO", "openInputString", "open-input-string", 1);
 	}
 
-	public static PushbackReader openInputString(String s) {
-		return new PushbackReader(new StringReader(s));
+	public static InputPort openInputString(LString s) {
+		return new InputPort(s.toString());
 	}
 
 	static {
@@ -731,8 +780,8 @@ final class IO {
 		Subr.def("IO", "getOutputString", "get-output-string", 1);
 	}
 
-	public static String getOutputString(StringWriter sw) {
-		return sw.toString();
+	public static LString getOutputString(StringWriter sw) {
+		return new LString(sw.toString());
 	}
 
 	static {
@@ -753,13 +802,36 @@ final class IO {
 	}
 
 	static {
-		Subr.def("IO", "openInputFile", "open-input-file", 1, 1);
+		Subr.def("IO", "openInputFile", "open-input-file", 1, 2);
 	}
 
-	public static PushbackReader openInputFile(LString name, LString encoding)
-			throws FileNotFoundException, UnsupportedEncodingException {
+	// Files this large are mapped into memory unless told otherwise.
+	private final static long mapThreshold = 1L << 26;
+
+	public static InputPort openInputFile(LString name, Object opt1,
+			Object opt2) throws IOException, UnsupportedEncodingException {
+		// (openInputFile filename [encoding] [mapped])
+		LString encoding = null;
+		Object mapped = null;
+		if (opt1 instanceof LString) {
+			encoding = (LString) opt1;
+			mapped = opt2;
+		} else if (opt1 != null) {
+			mapped = opt1;
+			encoding = (LString) opt2;
+		}
+		if (mapped == null ? new File(name.toString()).length() >= mapThreshold
+				: mapped != F) {
+			// only UTF-8 and its subset ASCII are decoded from a mapping
+			Charset cs = encoding == null ? Charset.defaultCharset()
+					: Charset.forName(encoding.toString());
+			boolean ascii = cs.equals(StandardCharsets.US_ASCII);
+			if (ascii || cs.equals(StandardCharsets.UTF_8))
+				return new InputPort(new FileInputStream(name.toString())
+						.getChannel(), ascii);
+		}
 		FileInputStream fis = new FileInputStream(name.toString());
-		return new PushbackReader(encoding == null ? new InputStreamReader(fis)
+		return new InputPort(encoding == null ? new InputStreamReader(fis)
 				: new InputStreamReader(fis, encoding.toString()));
 	}
 
@@ -770,8 +842,9 @@ final class IO {
 	public static Writer openOutputFile(LString name, LString encoding)
 			throws IOException, UnsupportedEncodingException {
 		FileOutputStream fos = new FileOutputStream(name.toString());
-		return encoding == null ? new OutputStreamWriter(fos)
-				: new OutputStreamWriter(fos, encoding.toString());
+		return new OutputPort(encoding == null ? new OutputStreamWriter(fos)
+				: new OutputStreamWriter(fos, encoding.toString()),
+				OutputPort.BLOCK, 8192);
 	}
 
 	static {
@@ -781,8 +854,8 @@ final class IO {
 	public static Object callWithInputFile(LString s, Object arg, Object opt)
 			throws IOException {
 		// (callWithInputFile filename [encoding] function)
-		PushbackReader in = openInputFile(s, (opt == null ? null
-				: (LString) arg));
+		InputPort in = openInputFile(s, (opt == null ? null
+				: (LString) arg), null);
 		try {
 			return ((Function) (opt == null ? arg : opt)).invoke1(in);
 		} finally {
@@ -809,11 +882,11 @@ final class IO {
 		Subr.def("IO", "withInputFromPort", "with-input-from-port", 2);
 	}
 
-	public static Object withInputFromPort(PushbackReader in, Function f) {
-		PushbackReader prev = currentInputPort;
+	public static Object withInputFromPort(InputPort in, Function f) {
+		InputPort prev = currentInputPort;
 		currentInputPort = in;
 		try {
-			return f.invoke(List.nil);
+			return Function.trampoline(f.call0());
 		} finally {
 			currentInputPort = prev;
 		}
@@ -827,7 +900,7 @@ final class IO {
 		Writer prev = currentOutputPort;
 		currentOutputPort = out;
 		try {
-			return f.invoke(List.nil);
+			return Function.trampoline(f.call0());
 		} finally {
 			currentOutputPort = prev;
 		}
@@ -851,15 +924,17 @@ final class IO {
 				if (opt2 != null)
 					encoding = (LString) opt2;
 			}
-		PushbackReader in = openInputFile(s, encoding);
+		InputPort in = openInputFile(s, encoding, null);
+		LoadReader reader = new LoadReader(in);
 		try {
 			Object expr;
-			while ((expr = read(in)) != eofObject) {
+			while ((expr = reader.next()) != eofObject) {
 				Object val = Eval.topLevelEval(expr);
 				if (verbose)
 					println(val);
 			}
 		} finally {
+			reader.stop();
 			in.close();
 		}
 		return s;
@@ -878,18 +953,12 @@ final class IO {
 		}
 		if (s.equals("."))
 			return true;
-		try {
-			readNumber(s, 10);
-			return true;
-		} catch (NumberFormatException e) {
-			return false;
-		}
+		return parseNumber(s, 10) != null;
 	}
 
 	static void print(String s) {
 		try {
 			currentOutputPort.write(s);
-			currentOutputPort.flush();
 		} catch (IOException e) {
 		}
 	}
@@ -898,7 +967,6 @@ final class IO {
 		try {
 			currentOutputPort.write(s);
 			newline(null);
-			currentOutputPort.flush();
 		} catch (IOException e) {
 		}
 	}
@@ -907,7 +975,13 @@ final class IO {
 		try {
 			writeObject(x, currentOutputPort);
 			newline(null);
-			currentOutputPort.flush();
+		} catch (IOException e) {
+		}
+	}
+
+	static void flushConsole() {
+		try {
+			consoleOutput.flush();
 		} catch (IOException e) {
 		}
 	}
@@ -0,0 +1,101 @@
+// A Lisp Driver to be embedded in Java Applications
+
+// The contents of this file are subject to the Mozilla Public License
+// Version 1.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at
+// http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS"
+// basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+// License for the specific language governing rights and limitations
+// under the License.
+//
+// The Original Code is JAKLD code, released November 26, 2002.
+//
+// The Initial Developer of the Original Code is Taiichi Yuasa.
+// Portions created by Taiichi Yuasa are Copyright (C) 2002
+// Taiichi Yuasa. All Rights Reserved.
+//
+// Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Vector;
+
+// Images of the global environment. save-image writes the value of
+// every global variable other than a primitive under its own name, and
+// load-image defines them all again in a fresh system, which restores
+// the state left by loading programs without reading or evaluating
+// them again. Lambdas keep their environments and are analyzed anew
+// when first called; ports and continuations cannot be saved.
+final class Image {
+
+	static {
+		Subr.def("Image", "saveImage", "save-image", 1);
+	}
+
+	public static LString saveImage(LString name) throws IOException {
+		File file = new File(name.toString());
+		BinaryOutputPort out = BinaryOutputPort.image(new FileOutputStream(
+				file));
+		boolean complete = false;
+		try {
+			Vector<Symbol> globals = Symbol.globals();
+			for (int i = 0; i < globals.size(); i++) {
+				Symbol sym = globals.elementAt(i);
+				Object val = sym.boundValue();
+				if (val instanceof Subr && ((Subr) val).name() == sym)
+					continue;
+				try {
+					out.writeDatum(sym);
+					out.writeDatum(val);
+				} catch (RuntimeException e) {
+					throw Eval.error(e.getMessage() + " in the value of "
+							+ sym);
+				}
+			}
+			complete = true;
+		} finally {
+			out.close();
+			if (!complete)
+				file.delete();
+		}
+		return name;
+	}
+
+	static {
+		Subr.def("Image", "loadImage", "load-image", 1);
+	}
+
+	public static LString loadImage(LString name) throws IOException {
+		FileInputStream fis = new FileInputStream(name.toString());
+		BinaryInputPort in;
+		try {
+			in = BinaryInputPort.image(fis);
+		} catch (RuntimeException e) {
+			fis.close();
+			throw e;
+		}
+		// every value is read before any is defined, so that an image
+		// that cannot be read leaves the globals as they were
+		Vector<Object> defs = new Vector<Object>();
+		try {
+			Object x;
+			while ((x = in.readDatum()) != IO.eofObject) {
+				defs.addElement(x);
+				defs.addElement(in.readDatum());
+			}
+			for (int i = 0; i < defs.size(); i += 2)
+				((Symbol) defs.elementAt(i)).define(defs.elementAt(i + 1));
+			in.fillTables();
+		} finally {
+			in.close();
+		}
+		return name;
+	}
+
+	static void init() {
+	}
+}
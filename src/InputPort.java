@@ -0,0 +1,224 @@
+// A Lisp Driver to be embedded in Java Applications
+
+// The contents of this file are subject to the Mozilla Public License
+// Version 1.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at
+// http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS"
+// basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+// License for the specific language governing rights and limitations
+// under the License.
+//
+// The Original Code is JAKLD code, released November 26, 2002.
+//
+// The Initial Developer of the Original Code is Taiichi Yuasa.
+// Portions created by Taiichi Yuasa are Copyright (C) 2002
+// Taiichi Yuasa. All Rights Reserved.
+//
+// Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Hashtable;
+
+// Input ports. Characters are read from a large buffer without locking,
+// and one character can be pushed back, which is all the reader and
+// peek-char need. Each port has its own token buffer for the reader.
+// The buffer is filled from a Reader, from a string, or by decoding
+// UTF-8 from a file mapped into memory in windows.
+
+final class InputPort extends Reader {
+
+	private final static int EOF = -1;
+
+	private final Reader source;
+	private char[] buf;
+	private int pos = 0;
+	private int limit;
+
+	char[] token = new char[256];
+	int tokenLength;
+
+	// The datum labels of the datum being read.
+	Hashtable<Integer, Object> labels = null;
+
+	// An output port flushed before this port waits for more input, as
+	// the console output is before reading the console.
+	Writer tie = null;
+
+	private final static int WINDOW = 1 << 26;
+
+	private FileChannel channel = null;
+	private long size;
+	private long offset;
+	private MappedByteBuffer window;
+	private boolean ascii;
+
+	InputPort(Reader source) {
+		this.source = source;
+		buf = new char[65536];
+		limit = 0;
+	}
+
+	// A port reading the characters of a string, which need no source.
+	InputPort(String s) {
+		source = null;
+		buf = s.toCharArray();
+		limit = buf.length;
+	}
+
+	// A port decoding UTF-8, or ASCII if ascii is true, from a mapped
+	// file, which may be larger than a single mapping.
+	InputPort(FileChannel channel, boolean ascii) throws IOException {
+		source = null;
+		buf = new char[65536];
+		limit = 0;
+		this.channel = channel;
+		this.ascii = ascii;
+		size = channel.size();
+		offset = 0;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(
+				WINDOW, size));
+	}
+
+	public int read() throws IOException {
+		return pos < limit ? buf[pos++] : fill() ? buf[pos++] : EOF;
+	}
+
+	// Pushes back the character just read. Pushing back the end of file
+	// does nothing, so that it is read again.
+	void unread(int c) {
+		if ((char) c != (char) EOF)
+			pos--;
+	}
+
+	int peek() throws IOException {
+		return pos < limit ? buf[pos] : fill() ? buf[pos] : EOF;
+	}
+
+	private boolean fill() throws IOException {
+		if (channel != null)
+			return fillMapped();
+		if (source == null)
+			return false;
+		if (tie != null)
+			tie.flush();
+		int n;
+		while ((n = source.read(buf, 0, buf.length)) == 0)
+			;
+		if (n < 0)
+			return false;
+		pos = 0;
+		limit = n;
+		return true;
+	}
+
+	private boolean fillMapped() throws IOException {
+		if (window == null)
+			return false;
+		for (;;) {
+			// map the next window when fewer bytes than a whole UTF-8
+			// sequence are left in this one
+			if (window.remaining() < 4 && offset + window.limit() < size) {
+				offset += window.position();
+				window = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+						Math.min(WINDOW, size - offset));
+			}
+			boolean last = offset + window.limit() == size;
+			int n = decode(last);
+			if (n > 0) {
+				pos = 0;
+				limit = n;
+				return true;
+			} else if (last && !window.hasRemaining())
+				return false;
+		}
+	}
+
+	// Decodes the window into buf, stopping before a sequence that
+	// continues into the next window. Malformed bytes become U+FFFD.
+	private int decode(boolean last) {
+		MappedByteBuffer w = window;
+		int p = w.position();
+		int end = w.limit();
+		char[] b = buf;
+		int max = b.length - 1;
+		int n = 0;
+		while (n < max && p < end) {
+			int c = w.get(p);
+			if (c >= 0) {
+				b[n++] = (char) c;
+				p++;
+				continue;
+			}
+			c &= 0xff;
+			int len = ascii || c < 0xc0 ? 1 : c < 0xe0 ? 2 : c < 0xf0 ? 3
+					: c < 0xf8 ? 4 : 1;
+			if (p + len > end && !last)
+				break;
+			int cp = len == 1 || p + len > end ? -1 : c & (0x7f >> len);
+			for (int i = 1; cp >= 0 && i < len; i++) {
+				int d = w.get(p + i);
+				cp = (d & 0xc0) == 0x80 ? (cp << 6) | (d & 0x3f) : -1;
+			}
+			if (cp < (len == 2 ? 0x80 : len == 3 ? 0x800 : 0x10000)
+					|| cp > 0x10ffff || cp >= 0xd800 && cp < 0xe000) {
+				b[n++] = '\ufffd';
+				p++;
+			} else {
+				if (cp >= 0x10000) {
+					b[n++] = Character.highSurrogate(cp);
+					b[n++] = Character.lowSurrogate(cp);
+				} else
+					b[n++] = (char) cp;
+				p += len;
+			}
+		}
+		w.position(p);
+		return n;
+	}
+
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (pos >= limit && !fill())
+			return EOF;
+		int n = Math.min(len, limit - pos);
+		System.arraycopy(buf, pos, cbuf, off, n);
+		pos += n;
+		return n;
+	}
+
+	public boolean ready() throws IOException {
+		return pos < limit || source != null && source.ready()
+				|| window != null && offset + window.position() < size;
+	}
+
+	public void close() throws IOException {
+		if (source != null)
+			source.close();
+		else if (channel != null) {
+			window = null;
+			channel.close();
+		}
+	}
+
+	void tokenAppend(char c) {
+		if (tokenLength == token.length)
+			token = Arrays.copyOf(token, tokenLength * 2);
+		token[tokenLength++] = c;
+	}
+
+	String tokenString() {
+		return new String(token, 0, tokenLength);
+	}
+
+	public String toString() {
+		return "#<input port>";
+	}
+}
@@ -0,0 +1,1001 @@
+// A Lisp Driver to be embedded in Java Applications
+
+// The contents of this file are subject to the Mozilla Public License
+// Version 1.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at
+// http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS"
+// basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+// License for the specific language governing rights and limitations
+// under the License.
+//
+// The Original Code is JAKLD code, released November 26, 2002.
+//
+// The Initial Developer of the Original Code is Taiichi Yuasa.
+// Portions created by Taiichi Yuasa are Copyright (C) 2002
+// Taiichi Yuasa. All Rights Reserved.
+//
+// Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.Hashtable;
+
+// The JVM code engine. A lambda body compiled for the VM is translated
+// once more, instruction by instruction, into the exec method of a new
+// subclass of Node, which is loaded as a hidden class so that it can be
+// unloaded with the closure. The VM stack becomes the JVM operand stack.
+// Variables of the lambda's own frame that nothing else can change are
+// kept in JVM locals, calls to primitives are made directly to their
+// Java methods while the global binding is unchanged, and tail calls of
+// the lambda to itself become jumps. Frames are still the Env objects
+// of the other engines, so the calling convention and backtraces stay
+// the same.
+
+final class JIT {
+
+	static boolean enabled = false;
+
+	// With the tiered policy, a lambda body runs as a Node tree until
+	// its invocations and loop iterations reach the threshold, and is
+	// then compiled. Zero means no tiering.
+	static int threshold = 0;
+
+	static Node compile(Node.Closure self, VM.Program p, int size,
+			int nrequireds, boolean restp, boolean captured) {
+		try {
+			return new JIT(self, p, size, nrequireds, restp, captured)
+					.translate();
+		} catch (RuntimeException e) {
+			// Too large or otherwise not translatable; stay in the VM.
+			return p;
+		} catch (LinkageError e) {
+			return p;
+		}
+	}
+
+	private final Node.Closure self;
+	private final int[] vm;
+	private final Object[] consts;
+	private final int size, nrequireds;
+	private final boolean restp, captured;
+
+	private JIT(Node.Closure self, VM.Program p, int size, int nrequireds,
+			boolean restp, boolean captured) {
+		this.self = self;
+		this.vm = p.code;
+		this.consts = p.consts;
+		this.maxStack = p.maxStack + 16;
+		this.size = size;
+		this.nrequireds = nrequireds;
+		this.restp = restp;
+		this.captured = captured;
+	}
+
+	// JVM locals of exec.
+	private final static int ENV = 1; // the current frame
+	private final static int E0 = 2; // the lambda's own frame
+	private final static int V0 = 3; // its values
+	private final static int TMP = 4; // a scratch array
+	private final static int T = 5; // temporaries for call arguments
+	private int ntemps;
+	private boolean[] cached;
+
+	private int local(int i) {
+		return T + ntemps + i;
+	}
+
+	private Node translate() {
+		ntemps = Math.max(4, nrequireds);
+		int[] depths = frameDepths();
+		cached = new boolean[size];
+		if (!captured) {
+			for (int i = 0; i < size; i++)
+				cached[i] = true;
+			for (int pc = 0; pc < vm.length; pc += length(vm[pc]))
+				if (vm[pc] == VM.SETLOCAL && depths[pc] == vm[pc + 1])
+					cached[vm[pc + 2]] = false;
+		}
+		Hashtable<Integer, Subr> direct = directCalls();
+
+		int[] labels = new int[vm.length + 1];
+		for (int pc = 0; pc <= vm.length; pc++)
+			labels[pc] = newLabel();
+
+		aload(1);
+		astore(E0);
+		int start = newLabel();
+		int rebind = newLabel();
+		mark(start);
+		aload(E0);
+		astore(ENV);
+		aload(E0);
+		getfield("Env", "values", "[Ljava/lang/Object;");
+		astore(V0);
+		reload();
+
+		for (int pc = 0; pc < vm.length; pc += length(vm[pc])) {
+			mark(labels[pc]);
+			int depth = depths[pc];
+			if (depth == UNREACHED)
+				continue;
+			if (depth == CONFLICT && vm[pc] != VM.RETURN)
+				throw Eval.error("frame depth conflict");
+			int op = vm[pc], x = (pc + 1 < vm.length ? vm[pc + 1] : 0);
+			switch (op) {
+			case VM.CONST:
+				constant(x);
+				break;
+			case VM.LOCAL0:
+				loadLocal(depth, 0, x);
+				break;
+			case VM.LOCAL1:
+				loadLocal(depth, 1, x);
+				break;
+			case VM.LOCAL:
+				loadLocal(depth, x, vm[pc + 2]);
+				break;
+			case VM.GLOBAL:
+				constant(x, "Symbol");
+				invokevirtual("Symbol", "valueOf", "()Ljava/lang/Object;");
+				break;
+			case VM.GLOBALFN:
+				constant(x, "Node$GlobalFn");
+				invokevirtual("Node$GlobalFn", "function", "()LFunction;");
+				break;
+			case VM.SETLOCAL:
+				code(DUP);
+				frameValues(depth, x);
+				code(SWAP);
+				push(vm[pc + 2]);
+				code(SWAP);
+				code(AASTORE);
+				break;
+			case VM.SETGLOBAL:
+				constant(x, "Symbol");
+				code(SWAP);
+				invokevirtual("Symbol", "setValue",
+						"(Ljava/lang/Object;)Ljava/lang/Object;");
+				break;
+			case VM.POP:
+				code(POP);
+				break;
+			case VM.JUMP:
+				jump(GOTO, labels[x]);
+				break;
+			case VM.JUMPF:
+			case VM.JUMPT:
+				getstatic("java/lang/Boolean", "FALSE", "Ljava/lang/Boolean;");
+				jump(op == VM.JUMPF ? IF_ACMPEQ : IF_ACMPNE, labels[x]);
+				break;
+			case VM.ANDJUMP:
+			case VM.ORJUMP:
+				code(DUP);
+				getstatic("java/lang/Boolean", "FALSE", "Ljava/lang/Boolean;");
+				jump(op == VM.ANDJUMP ? IF_ACMPEQ : IF_ACMPNE, labels[x]);
+				code(POP);
+				break;
+			case VM.CHECKFN: {
+				int notfn = newLabel(), ok = newLabel();
+				code(DUP);
+				classOp(INSTANCEOF, "Function");
+				jump(IFEQ, notfn);
+				code(DUP);
+				classOp(INSTANCEOF, "Macro");
+				jump(IFEQ, ok);
+				classOp(CHECKCAST, "Macro");
+				constant(x, "Node$Invoke");
+				code(SWAP);
+				aload(ENV);
+				invokevirtual("Node$Invoke", "macroCall",
+						"(LMacro;LEnv;)Ljava/lang/Object;");
+				reload();
+				jump(GOTO, labels[vm[pc + 2]]);
+				mark(notfn);
+				invokestatic("JIT", "notFunction",
+						"(Ljava/lang/Object;)Ljava/lang/RuntimeException;");
+				code(ATHROW);
+				mark(ok);
+				classOp(CHECKCAST, "Function");
+				break;
+			}
+			case VM.CALL:
+			case VM.TAILCALL:
+				call(op == VM.TAILCALL, x, direct.get(Integer.valueOf(pc)),
+						rebind);
+				break;
+			case VM.CLOSURE:
+				constant(x, "Node");
+				aload(ENV);
+				invokevirtual("Node", "exec", "(LEnv;)Ljava/lang/Object;");
+				break;
+			case VM.FRAME:
+			case VM.REFRAME:
+				push(x);
+				classOp(ANEWARRAY, "java/lang/Object");
+				astore(TMP);
+				for (int i = vm[pc + 2] - 1; i >= 0; i--) {
+					aload(TMP);
+					code(SWAP);
+					push(i);
+					code(SWAP);
+					code(AASTORE);
+				}
+				classOp(NEW, "Env");
+				code(DUP);
+				aload(TMP);
+				aload(ENV);
+				if (op == VM.REFRAME)
+					getfield("Env", "next", "LEnv;");
+				invokespecial("Env", "<init>", "([Ljava/lang/Object;LEnv;)V");
+				astore(ENV);
+				break;
+			case VM.NEWFRAME:
+				classOp(NEW, "Env");
+				code(DUP);
+				push(x);
+				classOp(ANEWARRAY, "java/lang/Object");
+				aload(ENV);
+				invokespecial("Env", "<init>", "([Ljava/lang/Object;LEnv;)V");
+				astore(ENV);
+				break;
+			case VM.POPFRAME:
+				aload(ENV);
+				getfield("Env", "next", "LEnv;");
+				astore(ENV);
+				break;
+			case VM.STORE:
+				if (depth == 0 && cached[x]) {
+					code(DUP);
+					astore(local(x));
+				}
+				frameValues(depth, 0);
+				code(SWAP);
+				push(x);
+				code(SWAP);
+				code(AASTORE);
+				break;
+			case VM.STOREN:
+				for (int i = x - 1; i >= 0; i--) {
+					frameValues(depth, 0);
+					code(SWAP);
+					push(i);
+					code(SWAP);
+					code(AASTORE);
+				}
+				break;
+			case VM.NODE:
+				constant(x, "Node");
+				aload(ENV);
+				invokevirtual("Node", "exec", "(LEnv;)Ljava/lang/Object;");
+				reload();
+				break;
+			case VM.RETURN:
+				code(ARETURN);
+				break;
+			default:
+				throw Eval.systemError("bad instruction " + op);
+			}
+		}
+		mark(labels[vm.length]);
+
+		// The arguments of a tail call to itself are in the temporaries.
+		mark(rebind);
+		aload(E0);
+		getfield("Env", "values", "[Ljava/lang/Object;");
+		astore(V0);
+		for (int i = 0; i < size; i++) {
+			aload(V0);
+			push(i);
+			if (i < nrequireds)
+				aload(T + i);
+			else
+				code(ACONST_NULL);
+			code(AASTORE);
+		}
+		jump(GOTO, start);
+
+		for (int i = 0; i < nhandlers; i++) {
+			mark(handlers[i][2]);
+			constant(handlers[i][3], "Subr");
+			code(SWAP);
+			invokevirtual("Subr", "backtrace",
+					"(Ljava/lang/Throwable;)Ljava/lang/RuntimeException;");
+			code(ATHROW);
+		}
+		return define();
+	}
+
+	// Reloads the cached variables after code that could have changed the
+	// lambda's frame.
+	private void reload() {
+		for (int i = 0; i < size; i++)
+			if (cached[i]) {
+				aload(V0);
+				push(i);
+				code(AALOAD);
+				astore(local(i));
+			}
+	}
+
+	// Pushes the values array of the frame d levels up.
+	private void frameValues(int depth, int d) {
+		if (depth == d)
+			aload(V0);
+		else {
+			aload(ENV);
+			for (; d > 0; d--)
+				getfield("Env", "next", "LEnv;");
+			getfield("Env", "values", "[Ljava/lang/Object;");
+		}
+	}
+
+	private void loadLocal(int depth, int d, int i) {
+		if (depth == d && cached[i])
+			aload(local(i));
+		else {
+			frameValues(depth, d);
+			push(i);
+			code(AALOAD);
+		}
+	}
+
+	private final static String[] callDescs = { "()", "(Ljava/lang/Object;)",
+			"(Ljava/lang/Object;Ljava/lang/Object;)",
+			"(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)",
+			"(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;"
+					+ "Ljava/lang/Object;)" };
+
+	private void call(boolean tailp, int n, Subr subr, int rebind) {
+		if (n > 4 && !(tailp && n == nrequireds && !restp)) {
+			argList(n, false);
+			if (tailp) {
+				invokestatic("Call", "list", "(LFunction;LList;)LCall;");
+				code(ARETURN);
+			} else {
+				invokevirtual("Function", "invoke0",
+						"(LList;)Ljava/lang/Object;");
+				invokestatic("Function", "trampoline",
+						"(Ljava/lang/Object;)Ljava/lang/Object;");
+			}
+			return;
+		}
+		for (int i = n - 1; i >= 0; i--)
+			astore(T + i);
+		int done = newLabel();
+		// A primitive in tail position is left to the caller, as in the
+		// other engines, so that backtraces do not change.
+		if (subr != null && !tailp)
+			directCall(n, subr, done);
+		if (tailp && n == nrequireds && !restp) {
+			int other = newLabel(), fresh = newLabel();
+			code(DUP);
+			invokestatic("JIT", "codeOf", "(LFunction;)LNode$Closure;");
+			constant(constant(self), "Node$Closure");
+			jump(IF_ACMPNE, other);
+			classOp(CHECKCAST, "Lambda");
+			if (!captured) {
+				// Nothing can see the frame any more, so it is reused if
+				// the parent frame is the same.
+				code(DUP);
+				getfield("Lambda", "env", "LEnv;");
+				aload(E0);
+				getfield("Env", "next", "LEnv;");
+				jump(IF_ACMPNE, fresh);
+				code(POP);
+				jump(GOTO, rebind);
+			}
+			mark(fresh);
+			push(size);
+			invokestatic("JIT", "frame", "(LLambda;I)LEnv;");
+			astore(E0);
+			jump(GOTO, rebind);
+			mark(other);
+		}
+		if (n > 4) {
+			argList(n, true);
+			invokestatic("Call", "list", "(LFunction;LList;)LCall;");
+			code(ARETURN);
+			mark(done);
+			return;
+		}
+		for (int i = 0; i < n; i++)
+			aload(T + i);
+		if (tailp) {
+			String d = callDescs[n];
+			invokestatic("Call", "with" + n, "(LFunction;" + d.substring(1)
+					+ "LCall;");
+			code(ARETURN);
+		} else {
+			invokevirtual("Function", "call" + n, callDescs[n]
+					+ "Ljava/lang/Object;");
+			invokestatic("Function", "trampoline",
+					"(Ljava/lang/Object;)Ljava/lang/Object;");
+		}
+		mark(done);
+	}
+
+	// Builds a list of n arguments, which are on the stack, or in the
+	// temporaries if fromTemps.
+	private void argList(int n, boolean fromTemps) {
+		getstatic("List", "nil", "LList;");
+		for (int i = n - 1; i >= 0; i--) {
+			if (fromTemps) {
+				aload(T + i);
+				code(SWAP);
+			}
+			invokestatic("List", "cons",
+					"(Ljava/lang/Object;Ljava/lang/Object;)LPair;");
+		}
+	}
+
+	// Calls the method of subr directly if the function on the stack is
+	// still subr and the arguments have the parameter types. Otherwise
+	// control falls through to the generic call.
+	private void directCall(int n, Subr subr, int done) {
+		Method m = subr.directMethod(n);
+		Class<?>[] types = m.getParameterTypes();
+		int k = constant(subr);
+		int generic = newLabel();
+		code(DUP);
+		constant(k, "Subr");
+		jump(IF_ACMPNE, generic);
+		for (int i = 0; i < n; i++)
+			if (types[i] != Object.class) {
+				aload(T + i);
+				classOp(INSTANCEOF, internalName(box(types[i])));
+				jump(IFEQ, generic);
+			}
+		code(POP);
+		StringBuffer desc = new StringBuffer("(");
+		for (int i = 0; i < types.length; i++) {
+			desc.append(descriptor(types[i]));
+			if (i >= n)
+				code(ACONST_NULL);
+			else {
+				aload(T + i);
+				if (types[i] != Object.class) {
+					classOp(CHECKCAST, internalName(box(types[i])));
+					if (types[i].isPrimitive())
+						invokevirtual(internalName(box(types[i])), types[i]
+								.getName()
+								+ "Value", "()" + descriptor(types[i]));
+				}
+			}
+		}
+		Class<?> r = m.getReturnType();
+		desc.append(")" + descriptor(r));
+		int from = newLabel(), to = newLabel();
+		mark(from);
+		invokestatic(internalName(m.getDeclaringClass()), m.getName(), desc
+				.toString());
+		mark(to);
+		addHandler(from, to, k);
+		if (r == Void.TYPE)
+			code(ACONST_NULL);
+		else if (r.isPrimitive())
+			invokestatic(internalName(box(r)), "valueOf", "("
+					+ descriptor(r) + ")L" + internalName(box(r)) + ";");
+		invokestatic("Function", "trampoline",
+				"(Ljava/lang/Object;)Ljava/lang/Object;");
+		jump(GOTO, done);
+		mark(generic);
+	}
+
+	private static Class<?> box(Class<?> t) {
+		if (t == Integer.TYPE)
+			return Integer.class;
+		else if (t == Character.TYPE)
+			return Character.class;
+		else if (t == Boolean.TYPE)
+			return Boolean.class;
+		else if (t == Double.TYPE)
+			return Double.class;
+		else if (t == Long.TYPE)
+			return Long.class;
+		else
+			return t;
+	}
+
+	private static String internalName(Class<?> c) {
+		return c.getName().replace('.', '/');
+	}
+
+	private static String descriptor(Class<?> c) {
+		if (c == Void.TYPE)
+			return "V";
+		else if (c == Integer.TYPE)
+			return "I";
+		else if (c == Character.TYPE)
+			return "C";
+		else if (c == Boolean.TYPE)
+			return "Z";
+		else if (c == Double.TYPE)
+			return "D";
+		else if (c == Long.TYPE)
+			return "J";
+		else if (c.isArray())
+			return internalName(c);
+		else
+			return "L" + internalName(c) + ";";
+	}
+
+	// Finds the calls whose function is a global bound to a primitive
+	// that can be called directly.
+	private Hashtable<Integer, Subr> directCalls() {
+		Hashtable<Integer, Subr> direct = new Hashtable<Integer, Subr>();
+		for (int pc = 0; pc < vm.length; pc += length(vm[pc]))
+			if (vm[pc] == VM.GLOBALFN && vm[pc + 2] == VM.CHECKFN) {
+				Symbol sym = ((Node.GlobalFn) consts[vm[pc + 1]]).symbol();
+				Object f = sym.globalValue();
+				int call = vm[pc + 4] - 2;
+				int n = vm[call + 1];
+				if (f instanceof Subr && n <= 4
+						&& ((Subr) f).directMethod(n) != null) {
+					direct.put(Integer.valueOf(call), (Subr) f);
+					if (threshold > 0)
+						sym.addDependent(self);
+				}
+			}
+		return direct;
+	}
+
+	private final static int UNREACHED = -1, CONFLICT = -2;
+
+	// Computes for each instruction how many frames it is inside the
+	// lambda's own frame.
+	private int[] frameDepths() {
+		int[] depths = new int[vm.length];
+		for (int i = 0; i < depths.length; i++)
+			depths[i] = UNREACHED;
+		// An instruction is queued at most twice, when it is first
+		// reached and when a conflict is found.
+		int[] work = new int[2 * vm.length + 2];
+		int nwork = 0;
+		depths[0] = 0;
+		work[nwork++] = 0;
+		while (nwork > 0) {
+			int pc = work[--nwork];
+			int d = depths[pc];
+			int op = vm[pc];
+			int next = pc + length(op);
+			int target = -1;
+			switch (op) {
+			case VM.FRAME:
+			case VM.NEWFRAME:
+				d = (d < 0 ? d : d + 1);
+				break;
+			case VM.POPFRAME:
+				d = (d < 0 ? d : d - 1);
+				break;
+			case VM.JUMP:
+				next = -1;
+				target = vm[pc + 1];
+				break;
+			case VM.JUMPF:
+			case VM.JUMPT:
+			case VM.ANDJUMP:
+			case VM.ORJUMP:
+				target = vm[pc + 1];
+				break;
+			case VM.CHECKFN:
+				target = vm[pc + 2];
+				break;
+			case VM.TAILCALL:
+			case VM.RETURN:
+				next = -1;
+				break;
+			}
+			for (int k = 0; k < 2; k++) {
+				int succ = (k == 0 ? next : target);
+				if (succ < 0 || succ >= vm.length)
+					continue;
+				int old = depths[succ];
+				int nd = (old == UNREACHED || old == d ? d : CONFLICT);
+				if (nd != old) {
+					depths[succ] = nd;
+					work[nwork++] = succ;
+				}
+			}
+		}
+		return depths;
+	}
+
+	private static int length(int op) {
+		switch (op) {
+		case VM.POP:
+		case VM.POPFRAME:
+		case VM.RETURN:
+			return 1;
+		case VM.LOCAL:
+		case VM.SETLOCAL:
+		case VM.CHECKFN:
+		case VM.FRAME:
+		case VM.REFRAME:
+			return 3;
+		default:
+			return 2;
+		}
+	}
+
+	// Run-time support for the generated code.
+
+	static RuntimeException notFunction(Object f) {
+		return Eval.error(IO.printString(f) + " is not a function");
+	}
+
+	static Node.Closure codeOf(Function f) {
+		return (f instanceof Lambda ? ((Lambda) f).code : null);
+	}
+
+	static Env frame(Lambda f, int size) {
+		return new Env(new Object[size], f.env);
+	}
+
+	// The class file. Version 49 needs no stack map frames.
+
+	private final static int ACONST_NULL = 0x01, BIPUSH = 0x10,
+			SIPUSH = 0x11, LDC_W = 0x13, ALOAD = 0x19, AALOAD = 0x32,
+			ASTORE = 0x3a, AASTORE = 0x53, POP = 0x57, DUP = 0x59,
+			SWAP = 0x5f, IFEQ = 0x99, IF_ACMPEQ = 0xa5, IF_ACMPNE = 0xa6,
+			GOTO = 0xa7, ARETURN = 0xb0, RETURN = 0xb1, GETSTATIC = 0xb2,
+			PUTSTATIC = 0xb3, GETFIELD = 0xb4, INVOKEVIRTUAL = 0xb6,
+			INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, NEW = 0xbb,
+			ANEWARRAY = 0xbd, ATHROW = 0xbf, CHECKCAST = 0xc0,
+			INSTANCEOF = 0xc1;
+
+	private final static String NAME = "JITCode";
+
+	private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	private final DataOutputStream pool = new DataOutputStream(poolBytes);
+	private int poolCount = 1;
+	private final Hashtable<String, Integer> poolIndex = new Hashtable<String, Integer>();
+
+	private int entry(String key) {
+		Integer i = poolIndex.get(key);
+		return (i == null ? 0 : i.intValue());
+	}
+
+	private int newEntry(String key) {
+		poolIndex.put(key, Integer.valueOf(poolCount));
+		return poolCount++;
+	}
+
+	private int utf8(String s) {
+		int i = entry("U" + s);
+		if (i != 0)
+			return i;
+		try {
+			pool.writeByte(1);
+			pool.writeUTF(s);
+		} catch (IOException e) {
+			throw Eval.systemError(e.toString());
+		}
+		return newEntry("U" + s);
+	}
+
+	private int ref(int tag, String key, int a, int b) {
+		int i = entry(key);
+		if (i != 0)
+			return i;
+		try {
+			pool.writeByte(tag);
+			pool.writeShort(a);
+			if (b >= 0)
+				pool.writeShort(b);
+		} catch (IOException e) {
+			throw Eval.systemError(e.toString());
+		}
+		return newEntry(key);
+	}
+
+	private int classRef(String name) {
+		return ref(7, "C" + name, utf8(name), -1);
+	}
+
+	private int stringRef(String s) {
+		return ref(8, "S" + s, utf8(s), -1);
+	}
+
+	private int memberRef(int tag, String cls, String name, String desc) {
+		int c = classRef(cls);
+		int nt = ref(12, "N" + name + " " + desc, utf8(name), utf8(desc));
+		return ref(tag, tag + cls + "." + name + " " + desc, c, nt);
+	}
+
+	private byte[] code = new byte[256];
+	private int pc = 0;
+	private final int maxStack;
+
+	private void u1(int x) {
+		if (pc == code.length) {
+			byte[] v = new byte[pc * 2];
+			System.arraycopy(code, 0, v, 0, pc);
+			code = v;
+		}
+		code[pc++] = (byte) x;
+	}
+
+	private void u2(int x) {
+		u1(x >> 8);
+		u1(x);
+	}
+
+	private void code(int op) {
+		u1(op);
+	}
+
+	private void push(int x) {
+		if (x < 128) {
+			code(BIPUSH);
+			u1(x);
+		} else {
+			code(SIPUSH);
+			u2(x);
+		}
+	}
+
+	private void aload(int n) {
+		code(ALOAD);
+		u1(n);
+	}
+
+	private void astore(int n) {
+		code(ASTORE);
+		u1(n);
+	}
+
+	private void classOp(int op, String cls) {
+		code(op);
+		u2(classRef(cls));
+	}
+
+	private void getstatic(String cls, String name, String desc) {
+		code(GETSTATIC);
+		u2(memberRef(9, cls, name, desc));
+	}
+
+	private void getfield(String cls, String name, String desc) {
+		code(GETFIELD);
+		u2(memberRef(9, cls, name, desc));
+	}
+
+	private void invokevirtual(String cls, String name, String desc) {
+		code(INVOKEVIRTUAL);
+		u2(memberRef(10, cls, name, desc));
+	}
+
+	private void invokespecial(String cls, String name, String desc) {
+		code(INVOKESPECIAL);
+		u2(memberRef(10, cls, name, desc));
+	}
+
+	private void invokestatic(String cls, String name, String desc) {
+		code(INVOKESTATIC);
+		u2(memberRef(10, cls, name, desc));
+	}
+
+	// Each constant of the VM program, and each object the generated
+	// code refers to, is held in a static final field, which the JVM
+	// treats as a constant.
+	private Object[] fields = new Object[16];
+	private int nfields = 0;
+
+	private int constant(Object x) {
+		for (int i = 0; i < nfields; i++)
+			if (fields[i] == x)
+				return consts.length + i;
+		if (nfields == fields.length) {
+			Object[] v = new Object[nfields * 2];
+			System.arraycopy(fields, 0, v, 0, nfields);
+			fields = v;
+		}
+		fields[nfields] = x;
+		return consts.length + nfields++;
+	}
+
+	private void constant(int k) {
+		getstatic(NAME, "c" + k, "Ljava/lang/Object;");
+	}
+
+	// Pushes the VM constant k, or a field made by constant(Object).
+	private void constant(int k, String cls) {
+		getstatic(NAME, "c" + k, "Ljava/lang/Object;");
+		classOp(CHECKCAST, cls);
+	}
+
+	private int[] labelPos = new int[64];
+	private int nlabels = 0;
+	private int[] fixups = new int[64];
+	private int nfixups = 0;
+
+	private int newLabel() {
+		if (nlabels == labelPos.length) {
+			int[] v = new int[nlabels * 2];
+			System.arraycopy(labelPos, 0, v, 0, nlabels);
+			labelPos = v;
+		}
+		labelPos[nlabels] = -1;
+		return nlabels++;
+	}
+
+	private void mark(int label) {
+		labelPos[label] = pc;
+	}
+
+	private void jump(int op, int label) {
+		if (nfixups + 2 > fixups.length) {
+			int[] v = new int[fixups.length * 2];
+			System.arraycopy(fixups, 0, v, 0, nfixups);
+			fixups = v;
+		}
+		fixups[nfixups++] = pc;
+		fixups[nfixups++] = label;
+		code(op);
+		u2(0);
+	}
+
+	private int[][] handlers = new int[8][];
+	private int nhandlers = 0;
+
+	private void addHandler(int from, int to, int subr) {
+		if (nhandlers == handlers.length) {
+			int[][] v = new int[nhandlers * 2][];
+			System.arraycopy(handlers, 0, v, 0, nhandlers);
+			handlers = v;
+		}
+		handlers[nhandlers++] = new int[] { from, to, newLabel(), subr };
+	}
+
+	private Node define() {
+		for (int i = 0; i < nfixups; i += 2) {
+			int at = fixups[i];
+			int offset = labelPos[fixups[i + 1]] - at;
+			if (offset > Short.MAX_VALUE || offset < Short.MIN_VALUE)
+				throw Eval.error("code too large");
+			code[at + 1] = (byte) (offset >> 8);
+			code[at + 2] = (byte) offset;
+		}
+
+		// The VM constants come first, so that their numbers stay valid.
+		Object[] data = new Object[consts.length + nfields];
+		System.arraycopy(consts, 0, data, 0, consts.length);
+		System.arraycopy(fields, 0, data, consts.length, nfields);
+		byte[] method = code;
+		int methodLength = pc;
+		code = new byte[64];
+		pc = 0;
+		invokestatic("java/lang/invoke/MethodHandles", "lookup",
+				"()Ljava/lang/invoke/MethodHandles$Lookup;");
+		code(LDC_W);
+		u2(stringRef("_"));
+		code(LDC_W);
+		u2(classRef("[Ljava/lang/Object;"));
+		invokestatic("java/lang/invoke/MethodHandles", "classData",
+				"(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;"
+						+ "Ljava/lang/Class;)Ljava/lang/Object;");
+		classOp(CHECKCAST, "[Ljava/lang/Object;");
+		astore(0);
+		for (int i = 0; i < data.length; i++) {
+			aload(0);
+			push(i);
+			code(AALOAD);
+			code(PUTSTATIC);
+			u2(memberRef(9, NAME, "c" + i, "Ljava/lang/Object;"));
+		}
+		code(RETURN);
+		byte[] clinit = code;
+		int clinitLength = pc;
+
+		int thisClass = classRef(NAME);
+		int superClass = classRef("Node");
+		int init = memberRef(10, "Node", "<init>", "()V");
+		int codeAttr = utf8("Code");
+		int[] fieldNames = new int[data.length];
+		for (int i = 0; i < data.length; i++)
+			fieldNames[i] = utf8("c" + i);
+		int objectDesc = utf8("Ljava/lang/Object;");
+		int initName = utf8("<init>"), voidDesc = utf8("()V");
+		int clinitName = utf8("<clinit>");
+		int execName = utf8("exec"), execDesc = utf8("(LEnv;)Ljava/lang/Object;");
+		int[] handlerTypes = new int[nhandlers];
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0xcafebabe);
+			out.writeShort(0);
+			out.writeShort(49);
+			out.writeShort(poolCount);
+			poolBytes.writeTo(out);
+			out.writeShort(0x0030); // final super
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0);
+
+			out.writeShort(data.length);
+			for (int i = 0; i < data.length; i++) {
+				out.writeShort(0x001a); // private static final
+				out.writeShort(fieldNames[i]);
+				out.writeShort(objectDesc);
+				out.writeShort(0);
+			}
+
+			out.writeShort(3);
+			out.writeShort(0);
+			out.writeShort(initName);
+			out.writeShort(voidDesc);
+			out.writeShort(1);
+			out.writeShort(codeAttr);
+			out.writeInt(12 + 5);
+			out.writeShort(1);
+			out.writeShort(1);
+			out.writeInt(5);
+			out.writeByte(0x2a); // aload_0
+			out.writeByte(INVOKESPECIAL);
+			out.writeShort(init);
+			out.writeByte(RETURN);
+			out.writeShort(0);
+			out.writeShort(0);
+
+			out.writeShort(0x0008); // static
+			out.writeShort(clinitName);
+			out.writeShort(voidDesc);
+			out.writeShort(1);
+			out.writeShort(codeAttr);
+			out.writeInt(12 + clinitLength);
+			out.writeShort(4);
+			out.writeShort(1);
+			out.writeInt(clinitLength);
+			out.write(clinit, 0, clinitLength);
+			out.writeShort(0);
+			out.writeShort(0);
+
+			out.writeShort(0);
+			out.writeShort(execName);
+			out.writeShort(execDesc);
+			out.writeShort(1);
+			out.writeShort(codeAttr);
+			out.writeInt(12 + methodLength + 8 * nhandlers);
+			out.writeShort(maxStack);
+			out.writeShort(T + ntemps + size);
+			out.writeInt(methodLength);
+			out.write(method, 0, methodLength);
+			out.writeShort(nhandlers);
+			for (int i = 0; i < nhandlers; i++) {
+				out.writeShort(labelPos[handlers[i][0]]);
+				out.writeShort(labelPos[handlers[i][1]]);
+				out.writeShort(labelPos[handlers[i][2]]);
+				out.writeShort(handlerTypes[i]);
+			}
+			out.writeShort(0);
+
+			out.writeShort(0);
+			out.flush();
+			if (methodLength > 0xffff)
+				throw Eval.error("code too large");
+
+			MethodHandles.Lookup l = lookup.defineHiddenClassWithClassData(
+					bytes.toByteArray(), data, true);
+			return (Node) l.findConstructor(l.lookupClass(),
+					java.lang.invoke.MethodType.methodType(Void.TYPE))
+					.invoke();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw Eval.error(e.toString());
+		}
+	}
+
+	private final static MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+	static void init() {
+	}
+}
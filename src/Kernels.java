@@ -0,0 +1,97 @@
+// A Lisp Driver to be embedded in Java Applications
+
+// The contents of this file are subject to the Mozilla Public License
+// Version 1.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at
+// http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS"
+// basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+// License for the specific language governing rights and limitations
+// under the License.
+//
+// The Original Code is JAKLD code, released November 26, 2002.
+//
+// The Initial Developer of the Original Code is Taiichi Yuasa.
+// Portions created by Taiichi Yuasa are Copyright (C) 2002
+// Taiichi Yuasa. All Rights Reserved.
+//
+// Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
+
+// Loops over double arrays for the bulk f64vector primitives.  This
+// class has the scalar versions.  When the class SIMDKernels, built from
+// simd/SIMDKernels.java against the jdk.incubator.vector module, can be
+// loaded, its versions on the JDK Vector API are used instead, unless
+// the system property jakld.simd is false. Those add up dot and sum in
+// a different order, and round a * x + y once with fma in dot and axpy,
+// so their results may differ from these loops in the last bits.
+
+class Kernels {
+
+	static Kernels instance = new Kernels();
+
+	double dot(double[] x, double[] y) {
+		double s = 0.0;
+		for (int i = 0; i < x.length; i++)
+			s += x[i] * y[i];
+		return s;
+	}
+
+	double sum(double[] x) {
+		double s = 0.0;
+		for (int i = 0; i < x.length; i++)
+			s += x[i];
+		return s;
+	}
+
+	double min(double[] x) {
+		double m = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < x.length; i++)
+			m = Math.min(m, x[i]);
+		return m;
+	}
+
+	double max(double[] x) {
+		double m = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < x.length; i++)
+			m = Math.max(m, x[i]);
+		return m;
+	}
+
+	// z = x + y
+	void add(double[] x, double[] y, double[] z) {
+		for (int i = 0; i < x.length; i++)
+			z[i] = x[i] + y[i];
+	}
+
+	// z = x * y, element by element
+	void mul(double[] x, double[] y, double[] z) {
+		for (int i = 0; i < x.length; i++)
+			z[i] = x[i] * y[i];
+	}
+
+	// z = a * x
+	void scale(double a, double[] x, double[] z) {
+		for (int i = 0; i < x.length; i++)
+			z[i] = a * x[i];
+	}
+
+	// y = a * x + y
+	void axpy(double a, double[] x, double[] y) {
+		for (int i = 0; i < x.length; i++)
+			y[i] = a * x[i] + y[i];
+	}
+
+	static void init() {
+		if (System.getProperty("jakld.simd", "true").equals("false"))
+			return;
+		try {
+			instance = (Kernels) Class.forName("SIMDKernels")
+					.getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+		} catch (LinkageError e) {
+			// SIMDKernels was built, but the JVM runs without
+			// --add-modules jdk.incubator.vector.
+		}
+	}
+}
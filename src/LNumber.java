@@ -20,27 +20,17 @@
 
 import java.math.BigInteger;
 
-final class LNumber {
+// Scheme numbers: Fixnum, Bignum and Flonum.
 
-	private Number num;
+abstract class LNumber {
 
-	LNumber(Number num) {
-		this.num = num;
-	}
+	public abstract int intValue();
 
-	public String toString() {
-		return num.toString();
-	}
+	public abstract long longValue();
 
-	public int intValue() {
-		return num.intValue();
-	}
+	public abstract double doubleValue();
 
-	private final static LNumber IntZERO = new LNumber(Num.makeInt(0));
-	private final static LNumber IntONE = new LNumber(Num.makeInt(1));
-	// private final static LNumber IntMinusONE = new LNumber(new Integer(-1));
-	// private final static LNumber BigIntegerONE = new
-	// LNumber(BigInteger.valueOf(1));
+	public abstract BigInteger bigValue();
 
 	private final static Boolean T = Boolean.TRUE;
 	private final static Boolean F = Boolean.FALSE;
@@ -88,21 +78,31 @@ final class LNumber {
 		Subr.def("LNumber", "expt", 2);
 	}
 
+	// Calls with two arguments skip the argument list.
+	static {
+		Subr.defBinary("LNumber", "EQ2", "=");
+		Subr.defBinary("LNumber", "LT2", "<");
+		Subr.defBinary("LNumber", "GT2", ">");
+		Subr.defBinary("LNumber", "LE2", "<=");
+		Subr.defBinary("LNumber", "GE2", ">=");
+		Subr.defBinary("LNumber", "max2", "max");
+		Subr.defBinary("LNumber", "min2", "min");
+		Subr.defBinary("LNumber", "add2", "+");
+		Subr.defBinary("LNumber", "mult2", "*");
+		Subr.defBinary("LNumber", "minus2", "-");
+		Subr.defBinary("LNumber", "div2", "/");
+	}
+
 	public static Boolean numberp(Object obj) {
 		return obj instanceof LNumber ? T : F;
 	}
 
 	public static Boolean integerp(Object obj) {
-		if (obj instanceof LNumber) {
-			LNumber lnum = (LNumber) obj;
-			return lnum.num instanceof Integer
-					|| lnum.num instanceof BigInteger ? T : F;
-		} else
-			return F;
+		return obj instanceof Fixnum || obj instanceof Bignum ? T : F;
 	}
 
 	public static int compare(LNumber lnum1, LNumber lnum2) {
-		return Num.compare(lnum1.num, lnum2.num);
+		return Num.compare(lnum1, lnum2);
 	}
 
 	public static Boolean EQ(LNumber lnum, List args) {
@@ -113,6 +113,10 @@ final class LNumber {
 		return T;
 	}
 
+	public static Boolean EQ2(LNumber lnum1, LNumber lnum2) {
+		return Num.compare(lnum1, lnum2) == 0 ? T : F;
+	}
+
 	public static Boolean LT(LNumber lnum, List args) {
 		LNumber current = lnum;
 		for (; args != List.nil; args = (List) args.cdr) {
@@ -124,6 +128,10 @@ final class LNumber {
 		return T;
 	}
 
+	public static Boolean LT2(LNumber lnum1, LNumber lnum2) {
+		return Num.compare(lnum1, lnum2) < 0 ? T : F;
+	}
+
 	public static Boolean GT(LNumber lnum, List args) {
 		LNumber current = lnum;
 		for (; args != List.nil; args = (List) args.cdr) {
@@ -135,6 +143,10 @@ final class LNumber {
 		return T;
 	}
 
+	public static Boolean GT2(LNumber lnum1, LNumber lnum2) {
+		return Num.compare(lnum1, lnum2) > 0 ? T : F;
+	}
+
 	public static Boolean LE(LNumber lnum, List args) {
 		LNumber current = lnum;
 		for (; args != List.nil; args = (List) args.cdr) {
@@ -146,6 +158,10 @@ final class LNumber {
 		return T;
 	}
 
+	public static Boolean LE2(LNumber lnum1, LNumber lnum2) {
+		return Num.compare(lnum1, lnum2) <= 0 ? T : F;
+	}
+
 	public static Boolean GE(LNumber lnum, List args) {
 		LNumber current = lnum;
 		for (; args != List.nil; args = (List) args.cdr) {
@@ -157,24 +173,28 @@ final class LNumber {
 		return T;
 	}
 
+	public static Boolean GE2(LNumber lnum1, LNumber lnum2) {
+		return Num.compare(lnum1, lnum2) >= 0 ? T : F;
+	}
+
 	public static Boolean zerop(LNumber lnum) {
-		return Num.zerop(lnum.num);
+		return Num.zerop(lnum);
 	}
 
 	public static Boolean positivep(LNumber lnum) {
-		return Num.positivep(lnum.num);
+		return Num.positivep(lnum);
 	}
 
 	public static Boolean negativep(LNumber lnum) {
-		return Num.negativep(lnum.num);
+		return Num.negativep(lnum);
 	}
 
 	public static Boolean oddp(LNumber lnum) {
-		return Num.oddp(lnum.num);
+		return Num.oddp(lnum);
 	}
 
 	public static Boolean evenp(LNumber lnum) {
-		return Num.evenp(lnum.num);
+		return Num.evenp(lnum);
 	}
 
 	public static LNumber max(LNumber lnum, List args) {
@@ -184,6 +204,10 @@ final class LNumber {
 		return lnum;
 	}
 
+	public static LNumber max2(LNumber lnum1, LNumber lnum2) {
+		return Num.compare(lnum2, lnum1) > 0 ? lnum2 : lnum1;
+	}
+
 	public static LNumber min(LNumber lnum, List args) {
 		for (; args != List.nil; args = (List) args.cdr)
 			if (compare((LNumber) args.car, lnum) < 0)
@@ -191,295 +215,170 @@ final class LNumber {
 		return lnum;
 	}
 
+	public static LNumber min2(LNumber lnum1, LNumber lnum2) {
+		return Num.compare(lnum2, lnum1) < 0 ? lnum2 : lnum1;
+	}
+
 	public static LNumber add(List args) {
 		if (args == List.nil)
-			return IntZERO;
+			return Num.ZERO;
 
-		LNumber val = new LNumber(((LNumber) args.car).num);
-		while ((args = (List) args.cdr) != List.nil) {
-			LNumber next = (LNumber) args.car;
-			if (val.num instanceof Integer && next.num instanceof Integer)
-				val.num = Num.long2Number(val.num.longValue()
-						+ next.num.longValue());
-			else if (val.num instanceof Double || next.num instanceof Double)
-				val.num = new Double(val.num.doubleValue()
-						+ next.num.doubleValue());
-			else {
-				if (val.num instanceof Integer)
-					val.num = BigInteger.valueOf(val.num.longValue());
-				else if (next.num instanceof Integer)
-					next.num = BigInteger.valueOf(next.num.longValue());
-				val.num = Num.normalize(((BigInteger) val.num)
-						.add((BigInteger) next.num));
-			}
-		}
+		LNumber val = (LNumber) args.car;
+		while ((args = (List) args.cdr) != List.nil)
+			val = Num.add(val, (LNumber) args.car);
 		return val;
 	}
 
+	public static LNumber add2(LNumber lnum1, LNumber lnum2) {
+		return Num.add(lnum1, lnum2);
+	}
+
 	public static LNumber mult(List args) {
 		if (args == List.nil)
-			return IntONE;
+			return Num.ONE;
 
-		LNumber val = new LNumber(((LNumber) args.car).num);
-		while ((args = (List) args.cdr) != List.nil) {
-			LNumber next = (LNumber) args.car;
-			if (val.num instanceof Integer && next.num instanceof Integer)
-				val.num = Num.long2Number(val.num.longValue()
-						* next.num.longValue());
-			else if (val.num instanceof Double || next.num instanceof Double)
-				val.num = new Double(val.num.doubleValue()
-						* next.num.doubleValue());
-			else {
-				if (val.num instanceof Integer)
-					val.num = BigInteger.valueOf(val.num.longValue());
-				else if (next.num instanceof Integer)
-					next.num = BigInteger.valueOf(next.num.longValue());
-				val.num = Num.normalize(((BigInteger) val.num)
-						.multiply((BigInteger) next.num));
-			}
-		}
+		LNumber val = (LNumber) args.car;
+		while ((args = (List) args.cdr) != List.nil)
+			val = Num.multiply(val, (LNumber) args.car);
 		return val;
 	}
 
+	public static LNumber mult2(LNumber lnum1, LNumber lnum2) {
+		return Num.multiply(lnum1, lnum2);
+	}
+
 	public static LNumber minus(LNumber lnum, List args) {
 		if (args == List.nil)
-			if (lnum.num instanceof Integer)
-				return new LNumber(Num.long2Number(-lnum.num.longValue()));
-			else if (lnum.num instanceof BigInteger)
-				return new LNumber(Num.normalize(((BigInteger) lnum.num)
-						.negate()));
-			else
-				return new LNumber(new Double(-lnum.num.doubleValue()));
-
-		LNumber val = new LNumber(lnum.num);
-		do {
-			LNumber next = (LNumber) args.car;
-			if (val.num instanceof Integer && next.num instanceof Integer)
-				val.num = Num.long2Number(val.num.longValue()
-						- next.num.longValue());
-			else if (val.num instanceof Double || next.num instanceof Double)
-				val.num = new Double(val.num.doubleValue()
-						- next.num.doubleValue());
-			else {
-				if (val.num instanceof Integer)
-					val.num = BigInteger.valueOf(val.num.longValue());
-				else if (next.num instanceof Integer)
-					next.num = BigInteger.valueOf(next.num.longValue());
-				val.num = Num.normalize(((BigInteger) val.num)
-						.subtract((BigInteger) next.num));
-			}
-		} while ((args = (List) args.cdr) != List.nil);
+			return Num.negate(lnum);
 
+		LNumber val = lnum;
+		do
+			val = Num.subtract(val, (LNumber) args.car);
+		while ((args = (List) args.cdr) != List.nil);
 		return val;
 	}
 
+	public static LNumber minus2(LNumber lnum1, LNumber lnum2) {
+		return Num.subtract(lnum1, lnum2);
+	}
+
 	public static LNumber div(LNumber lnum, List args) {
 		if (args == List.nil)
-			if (lnum.num instanceof Integer) {
-				int x = lnum.num.intValue();
-				if (x == 1 || x == -1)
-					return lnum;
-				else
-					return new LNumber(new Double(1.0 / x));
-			} else
-				return new LNumber(new Double(1.0 / lnum.num.doubleValue()));
-
-		LNumber val = new LNumber(lnum.num);
-		do {
-			LNumber next = (LNumber) args.car;
-			if (val.num instanceof Integer && next.num instanceof Integer) {
-				int x = val.num.intValue();
-				int y = next.num.intValue();
-				if ((x % y) == 0)
-					val.num = Num.makeInt(x / y);
-				else
-					val.num = new Double(((double) x) / ((double) y));
-			} else if (val.num instanceof Double || next.num instanceof Double)
-				val.num = new Double(val.num.doubleValue()
-						/ next.num.doubleValue());
-			else {
-				if (val.num instanceof Integer)
-					val.num = BigInteger.valueOf(val.num.longValue());
-				else if (next.num instanceof Integer)
-					next.num = BigInteger.valueOf(next.num.longValue());
-				BigInteger[] z = ((BigInteger) val.num)
-						.divideAndRemainder((BigInteger) next.num);
-				if (z[1].signum() == 0)
-					val.num = Num.normalize(z[0]);
-				else
-					val.num = new Double(val.num.doubleValue()
-							/ next.num.doubleValue());
-			}
-		} while ((args = (List) args.cdr) != List.nil);
+			return Num.reciprocal(lnum);
 
+		LNumber val = lnum;
+		do
+			val = Num.divide(val, (LNumber) args.car);
+		while ((args = (List) args.cdr) != List.nil);
 		return val;
 	}
 
+	public static LNumber div2(LNumber lnum1, LNumber lnum2) {
+		return Num.divide(lnum1, lnum2);
+	}
+
 	public static LNumber abs(LNumber lnum) {
-		return new LNumber(Num.abs(lnum.num));
+		return Num.abs(lnum);
 	}
 
 	public static LNumber quotient(LNumber lnum1, LNumber lnum2) {
-		return new LNumber(Num.quotient(lnum1.num, lnum2.num));
+		return Num.quotient(lnum1, lnum2);
 	}
 
 	public static LNumber remainder(LNumber lnum1, LNumber lnum2) {
-		return new LNumber(Num.remainder(lnum1.num, lnum2.num));
+		return Num.remainder(lnum1, lnum2);
 	}
 
 	public static LNumber modulo(LNumber lnum1, LNumber lnum2) {
-		return new LNumber(Num.modulo(lnum1.num, lnum2.num));
-	}
-
-	private static int gcd(int m, int n) {
-		// m must be non-negative
-		if (n < 0)
-			n = -n;
-		if (m < n) {
-			int tmp = m;
-			m = n;
-			n = tmp;
-		}
-		for (;;)
-			if (n == 0)
-				return m;
-			else if (n == 1)
-				return n;
-			else {
-				int tmp = n;
-				n = m % n;
-				m = tmp;
-			}
+		return Num.modulo(lnum1, lnum2);
 	}
 
 	public static LNumber gcd(List args) {
 		if (args == List.nil)
-			return IntZERO;
+			return Num.ZERO;
 
-		LNumber val = abs((LNumber) args.car);
-		while ((args = (List) args.cdr) != List.nil) {
-			LNumber next = (LNumber) args.car;
-			if (val.num instanceof Integer)
-				if (next.num instanceof Integer) {
-					val.num = Num.makeInt(gcd(val.num.intValue(),
-							next.num.intValue()));
-					continue;
-				} else
-					val.num = BigInteger.valueOf(val.num.longValue());
-			else if (next.num instanceof Integer)
-				next.num = BigInteger.valueOf(next.num.longValue());
-
-			val.num = Num.normalize(((BigInteger) val.num)
-					.gcd((BigInteger) next.num));
-		}
+		LNumber val = Num.abs((LNumber) args.car);
+		while ((args = (List) args.cdr) != List.nil)
+			val = Num.gcd(val, (LNumber) args.car);
 		return val;
 	}
 
 	public static LNumber lcm(List args) {
 		if (args == List.nil)
-			return IntONE;
+			return Num.ONE;
 
-		LNumber val = abs((LNumber) args.car);
-		while ((args = (List) args.cdr) != List.nil) {
-			LNumber next = (LNumber) args.car;
-			if (val.num instanceof Integer)
-				if (next.num instanceof Integer) {
-					int m = val.num.intValue();
-					int n = next.num.intValue();
-					val.num = Num.makeInt((m * (n < 0 ? -n : n)) / gcd(m, n));
-					continue;
-				} else
-					val.num = BigInteger.valueOf(val.num.longValue());
-			else if (next.num instanceof Integer)
-				next.num = BigInteger.valueOf(next.num.longValue());
-
-			BigInteger X = (BigInteger) val.num;
-			BigInteger Y = ((BigInteger) next.num).abs();
-			val.num = Num.normalize(X.multiply(Y).divide(X.gcd(Y)));
-		}
+		LNumber val = Num.abs((LNumber) args.car);
+		while ((args = (List) args.cdr) != List.nil)
+			val = Num.lcm(val, (LNumber) args.car);
 		return val;
 	}
 
 	public static LNumber floor(LNumber lnum) {
-		return new LNumber(Num.floor(lnum.num));
+		return Num.floor(lnum);
 	}
 
 	public static LNumber ceiling(LNumber lnum) {
-		return new LNumber(Num.ceiling(lnum.num));
+		return Num.ceiling(lnum);
 	}
 
 	public static LNumber truncate(LNumber lnum) {
-		return new LNumber(Num.truncate(lnum.num));
+		return Num.truncate(lnum);
 	}
 
 	public static LNumber round(LNumber lnum) {
-		return new LNumber(Num.round(lnum.num));
+		return Num.round(lnum);
 	}
 
 	public static LString num2string(LNumber lnum, LNumber n) {
-		int radix = (n == null ? 10 : n.intValue());
-		Number num = lnum.num;
-
-		if (num instanceof Integer)
-			return new LString(Integer.toString(num.intValue(), radix));
-		else if (num instanceof BigInteger)
-			return new LString(((BigInteger) num).toString(radix));
-		else
-			return new LString(num.toString());
+		return Num.num2string(lnum, n == null ? 10 : n.intValue());
 	}
 
 	public static Object string2num(LString s, LNumber n) {
-		try {
-			return IO.readNumber(s.toString(), (n == null ? 10 : n.intValue()));
-		} catch (NumberFormatException e) {
-			return F;
-		}
+		LNumber x = IO.parseNumber(s.toString(), (n == null ? 10 : n
+				.intValue()));
+		return x == null ? F : x;
 	}
 
 	public static LNumber sqrt(LNumber lnum) {
-		return new LNumber(Num.sqrt(lnum.num));
+		return Num.sqrt(lnum);
 	}
 
 	public static LNumber exp(LNumber lnum) {
-		return new LNumber(Num.exp(lnum.num));
+		return Num.exp(lnum);
 	}
 
 	public static LNumber log(LNumber lnum) {
-		return new LNumber(Num.log(lnum.num));
+		return Num.log(lnum);
 	}
 
 	public static LNumber sin(LNumber lnum) {
-		return new LNumber(Num.sin(lnum.num));
+		return Num.sin(lnum);
 	}
 
 	public static LNumber cos(LNumber lnum) {
-		return new LNumber(Num.cos(lnum.num));
+		return Num.cos(lnum);
 	}
 
 	public static LNumber tan(LNumber lnum) {
-		return new LNumber(Num.tan(lnum.num));
+		return Num.tan(lnum);
 	}
 
 	public static LNumber asin(LNumber lnum) {
-		return new LNumber(Num.asin(lnum.num));
+		return Num.asin(lnum);
 	}
 
 	public static LNumber acos(LNumber lnum) {
-		return new LNumber(Num.acos(lnum.num));
+		return Num.acos(lnum);
 	}
 
 	public static LNumber atan(LNumber lnum1, LNumber lnum2) {
-		return new LNumber(Num.atan(lnum1.num, lnum2.num));
+		return Num.atan(lnum1, lnum2);
 	}
 
 	public static LNumber expt(LNumber lnum1, LNumber lnum2) {
-		return new LNumber(Num.expt(lnum1.num, lnum2.num));
+		return Num.expt(lnum1, lnum2);
 	}
 
-	// public static LNumber random(LNumber lnum) {
-	// return new LNumber(Num.random(lnum.num));
-	// }
-
 	static void init() {
 	}
 }
@@ -37,6 +37,15 @@ final class LString {
 		return str;
 	}
 
+	// Strings are equal? if they have the same characters.
+	public boolean equals(Object obj) {
+		return obj instanceof LString && str.equals(((LString) obj).str);
+	}
+
+	public int hashCode() {
+		return str.hashCode();
+	}
+
 	static {
 		Subr.def("LString", "stringp", "string?", 1);
 	}
@@ -98,7 +107,7 @@ final class LString {
 	// return Num.makeInt(s.str.length());
 	// }
 	public static LNumber stringLength(LString s) {
-		return new LNumber(Num.makeInt(s.str.length()));
+		return Fixnum.make(s.str.length());
 	}
 
 	static {
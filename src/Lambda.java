@@ -20,46 +20,120 @@
 
 final class Lambda extends Function {
 
-	private Object params;
-	private List body;
-	private Env env;
+	// Set after construction only by an image being read, whose
+	// environments may refer back to the lambda.
+	Node.Closure code;
+	Env env;
 	private Symbol name;
 
-	Lambda(Symbol name, Env env, Object params, List body) {
-		this.params = params;
-		this.body = body;
+	Lambda(Symbol name, Object params, List body) {
+		this(name, null, new Node.Closure(name, params, body, null));
+	}
+
+	Lambda(Symbol name, Env env, Node.Closure code) {
+		this.code = code;
 		this.env = env;
 		this.name = name;
 	}
 
+	Symbol name() {
+		return name;
+	}
+
 	void nameIt(Symbol sym) {
 		if (name == null)
 			name = sym;
 	}
 
-	static {
-		Subr.defSpecial("Lambda", "lambda", 1, 0, true);
+	private final static Symbol Slambda = Symbol.intern("lambda");
+
+	public Object invoke0(List args) {
+		try {
+			return code.body().exec(code.bind(args, env));
+		} catch (Throwable e) {
+			throw backtrace(e);
+		}
 	}
 
-	public static Lambda lambda(Object params, List body, Env env, boolean tailp) {
-		return new Lambda(null, env, params, body);
+	// The fixed-arity entries store the arguments straight into a new
+	// frame, unless the lambda takes a rest argument or the number of
+	// arguments is wrong.
+
+	Object call0() {
+		try {
+			Object[] values = code.frame(0);
+			return code.body().exec(
+					values == null ? code.bind(List.nil, env) : new Env(
+							values, env));
+		} catch (Throwable e) {
+			throw backtrace(e);
+		}
 	}
 
-	private final static Symbol Slambda = Symbol.intern("lambda");
+	Object call1(Object a) {
+		try {
+			Object[] values = code.frame(1);
+			if (values == null)
+				return code.body().exec(code.bind(List.list(a), env));
+			values[0] = a;
+			return code.body().exec(new Env(values, env));
+		} catch (Throwable e) {
+			throw backtrace(e);
+		}
+	}
 
-	public Object invoke0(List args) {
+	Object call2(Object a, Object b) {
+		try {
+			Object[] values = code.frame(2);
+			if (values == null)
+				return code.body().exec(code.bind(List.list(a, b), env));
+			values[0] = a;
+			values[1] = b;
+			return code.body().exec(new Env(values, env));
+		} catch (Throwable e) {
+			throw backtrace(e);
+		}
+	}
+
+	Object call3(Object a, Object b, Object c) {
+		try {
+			Object[] values = code.frame(3);
+			if (values == null)
+				return code.body().exec(code.bind(List.list(a, b, c), env));
+			values[0] = a;
+			values[1] = b;
+			values[2] = c;
+			return code.body().exec(new Env(values, env));
+		} catch (Throwable e) {
+			throw backtrace(e);
+		}
+	}
+
+	Object call4(Object a, Object b, Object c, Object d) {
 		try {
-			return Eval.evalBody(body, Env.lambdaBind(params, args, env), true);
+			Object[] values = code.frame(4);
+			if (values == null)
+				return code.body().exec(
+						code.bind(List.list(a, b, c, d), env));
+			values[0] = a;
+			values[1] = b;
+			values[2] = c;
+			values[3] = d;
+			return code.body().exec(new Env(values, env));
 		} catch (Throwable e) {
-			if (e != Eval.backtraceToken) {
-				IO.println(Eval.errorMessage(e));
-				IO.print("Backtrace: " + (name == null ? Slambda : name));
-			} else
-				IO.print(" < " + (name == null ? Slambda : name));
-			throw Eval.backtraceToken;
+			throw backtrace(e);
 		}
 	}
 
+	private RuntimeException backtrace(Throwable e) {
+		if (e != Eval.backtraceToken) {
+			IO.println(Eval.errorMessage(e));
+			IO.print("Backtrace: " + (name == null ? Slambda : name));
+		} else
+			IO.print(" < " + (name == null ? Slambda : name));
+		return Eval.backtraceToken;
+	}
+
 	public String toString() {
 		if (name == null)
 			return "#<function>";
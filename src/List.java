@@ -365,7 +365,7 @@ class List {
 		int len = 0;
 		for (; x != nil; x = (List) x.cdr)
 			len++;
-		return new LNumber(Num.makeInt(len));
+		return Fixnum.make(len);
 	}
 
 	static {
@@ -441,7 +441,7 @@ class List {
 
 	public static Object memv(Object obj, List list) {
 		for (; list != nil; list = (List) list.cdr)
-			if (Eval.eqv(list.car, obj) == T)
+			if (Eval.isEqv(list.car, obj))
 				return list;
 		return F;
 	}
@@ -452,7 +452,7 @@ class List {
 
 	public static Object member(Object obj, List list) {
 		for (; list != nil; list = (List) list.cdr)
-			if (Eval.equal(list.car, obj) == T)
+			if (Eval.isEqual(list.car, obj))
 				return list;
 		return F;
 	}
@@ -474,7 +474,7 @@ class List {
 
 	public static Object assv(Object obj, List alist) {
 		for (; alist != nil; alist = (List) alist.cdr)
-			if (Eval.eqv(((Pair) alist.car).car, obj) == T)
+			if (Eval.isEqv(((Pair) alist.car).car, obj))
 				return alist.car;
 		return F;
 	}
@@ -485,7 +485,7 @@ class List {
 
 	public static Object assoc(Object obj, List alist) {
 		for (; alist != nil; alist = (List) alist.cdr)
-			if (Eval.equal(((Pair) alist.car).car, obj) == T)
+			if (Eval.isEqual(((Pair) alist.car).car, obj))
 				return alist.car;
 		return F;
 	}
@@ -551,7 +551,7 @@ class List {
 	}
 
 	public static LNumber vectorLength(Object[] v) {
-		return new LNumber(Num.makeInt(Array.getLength(v)));
+		return Fixnum.make(Array.getLength(v));
 	}
 
 	static {
@@ -0,0 +1,109 @@
+// A Lisp Driver to be embedded in Java Applications
+
+// The contents of this file are subject to the Mozilla Public License
+// Version 1.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at
+// http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS"
+// basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+// License for the specific language governing rights and limitations
+// under the License.
+//
+// The Original Code is JAKLD code, released November 26, 2002.
+//
+// The Initial Developer of the Original Code is Taiichi Yuasa.
+// Portions created by Taiichi Yuasa are Copyright (C) 2002
+// Taiichi Yuasa. All Rights Reserved.
+//
+// Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+// The reader of the forms of a file being loaded. If jakld.readahead
+// is a positive number, a daemon thread reads up to that many forms
+// ahead of the evaluation, which then overlaps with the reading. An
+// error of the reader is handed over in order, so that it is raised
+// only after all the forms before it have been evaluated.
+final class LoadReader {
+
+	final static int readAhead = Integer.getInteger("jakld.readahead", 0)
+			.intValue();
+
+	// A form, or an error of the reader, with its place in the file.
+	private final static class Item {
+		final Object form;
+		final Throwable error;
+
+		Item(Object form, Throwable error) {
+			this.form = form;
+			this.error = error;
+		}
+	}
+
+	private final InputPort in;
+	private final ArrayBlockingQueue<Item> queue;
+	private final Thread thread;
+	private volatile boolean stopped = false;
+
+	LoadReader(InputPort in) {
+		this.in = in;
+		if (readAhead <= 0) {
+			queue = null;
+			thread = null;
+			return;
+		}
+		queue = new ArrayBlockingQueue<Item>(readAhead);
+		thread = new Thread("load reader") {
+			public void run() {
+				readForms();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void readForms() {
+		try {
+			Object x;
+			do {
+				Item item;
+				try {
+					x = IO.read(in);
+					item = new Item(x, null);
+				} catch (Throwable e) {
+					x = IO.eofObject;
+					item = new Item(null, e);
+				}
+				queue.put(item);
+			} while (x != IO.eofObject && !stopped);
+		} catch (InterruptedException e) {
+		}
+	}
+
+	// Returns the next form, or the eof-object at the end.
+	Object next() throws Throwable {
+		if (thread == null)
+			return IO.read(in);
+		Item item = queue.take();
+		if (item.error != null)
+			throw item.error;
+		return item.form;
+	}
+
+	// Stops reading ahead, and waits for the reader to leave the port.
+	void stop() {
+		if (thread == null)
+			return;
+		stopped = true;
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static void init() {
+	}
+}
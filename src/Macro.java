@@ -32,6 +32,10 @@ final class Macro extends Function {
 		return null;
 	}
 
+	Symbol name() {
+		return name;
+	}
+
 	public Object expand() {
 		return expr;
 	}
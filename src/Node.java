@@ -0,0 +1,1145 @@
+// A Lisp Driver to be embedded in Java Applications
+
+// The contents of this file are subject to the Mozilla Public License
+// Version 1.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at
+// http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS"
+// basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+// License for the specific language governing rights and limitations
+// under the License.
+//
+// The Original Code is JAKLD code, released November 26, 2002.
+//
+// The Initial Developer of the Original Code is Taiichi Yuasa.
+// Portions created by Taiichi Yuasa are Copyright (C) 2002
+// Taiichi Yuasa. All Rights Reserved.
+//
+// Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
+
+
+abstract class Node {
+
+	abstract Object exec(Env env);
+
+	// Emits code for the bytecode engine. A node without its own
+	// translation is executed as it is by the VM.
+	void compile(VM.Assembler a, boolean tailp) {
+		a.node(this);
+	}
+
+	static final class Const extends Node {
+		private final Object value;
+
+		Const(Object value) {
+			this.value = value;
+		}
+
+		Object exec(Env env) {
+			return value;
+		}
+
+		void compile(VM.Assembler a, boolean tailp) {
+			a.op(VM.CONST, 1);
+			a.arg(a.constant(value));
+		}
+	}
+
+	static Node localRef(int depth, int index) {
+		if (depth == 0)
+			return new LocalRef0(index);
+		else if (depth == 1)
+			return new LocalRef1(index);
+		else
+			return new LocalRef(depth, index);
+	}
+
+	static final class LocalRef0 extends Node {
+		private final int index;
+
+		LocalRef0(int index) {
+			this.index = index;
+		}
+
+		Object exec(Env env) {
+			return env.values[index];
+		}
+
+		void compile(VM.Assembler a, boolean tailp) {
+			a.op(VM.LOCAL0, 1);
+			a.arg(index);
+		}
+	}
+
+	static final class LocalRef1 extends Node {
+		private final int index;
+
+		LocalRef1(int index) {
+			this.index = index;
+		}
+
+		Object exec(Env env) {
+			return env.next.values[index];
+		}
+
+		void compile(VM.Assembler a, boolean tailp) {
+			a.op(VM.LOCAL1, 1);
+			a.arg(index);
+		}
+	}
+
+	static final class LocalRef extends Node {
+		private final int depth, index;
+
+		LocalRef(int depth, int index) {
+			this.depth = depth;
+			this.index = index;
+		}
+
+		Object exec(Env env) {
+			for (int d = depth; d > 0; d--)
+				env = env.next;
+			return env.values[index];
+		}
+
+		void compile(VM.Assembler a, boolean tailp) {
+			a.op(VM.LOCAL, 1);
+			a.arg(depth);
+			a.arg(index);
+		}
+	}
+
+	// A symbol is itself the cell of its global value. Once a global
+	// variable is defined it stays defined, so the check is made only
+	// until the first successful reference.
+	static final class GlobalRef extends Node {
+		private final Symbol sym;
+		private boolean bound = false;
+
+		GlobalRef(Symbol sym) {
+			this.sym = sym;
+		}
+
+		Object exec(Env env) {
+			if (bound)
+				return sym.boundValue();
+			Object val = sym.valueOf();
+			bound = true;
+			return val;
+		}
+
+		void compile(VM.Assembler a, boolean tailp) {
+			a.op(VM.GLOBAL, 1);
+			a.arg(a.constant(sym));
+		}
+	}
+
+	// The function at a call site is cached until the global binding
+	// of the symbol changes by define or set!.
+	static final class GlobalFn extends Node {
+		private final Symbol sym;
+		private Function cached = null;
+		private int version;
+
+		GlobalFn(Symbol sym) {
+			this.sym = sym;
+		}
+
+		Symbol symbol() {
+			return sym;
+		}
+
+		Function function() {
+			Function f = cached;
+			if (f != null && version == sym.version())
+				return f;
+			f = sym.functionOf();
+			version = sym.version();
+			return cached = f;
+		}
+
+		Object exec(Env env) {
+			return function();
+		}
+
+		void compile(VM.Assembler a, boolean tailp) {
+			a.op(VM.GLOBALFN, 1);
+			a.arg(a.constant(this));
+		}
+	}
+
+	static final class If extends Node {
+		private final Node test, then, otherwise;
+
+		If(Node test, Node then, Node otherwise) {
+			this.test = test;
+			this.then = then;
+			this.otherwise = otherwise;
+		}
+
+		Object exec(Env env) {
+			if (test.exec(env) != Boolean.FALSE)
+				return then.exec(env);
+			else if (otherwise == null)
+				return List.nil;
+			else
+				return otherwise.exec(env);
+		}
+
+		void compile(VM.Assembler a, boolean tailp) {
+			test.compile(a, false);
+			int d = a.depth();
+			int j = a.jump(VM.JUMPF, -1);
+			then.compile(a, tailp);
+			int k = a.jump(VM.JUMP, 0);
+			a.patch(j);
+			a.depth(d - 1);
+			if (otherwise == null) {
+				a.op(VM.CONST, 1);
+				a.arg(a.constant(List.nil));
+			} else
+				otherwise.compile(a, tailp);
+			a.patch(k);
+		}
+	}
+
+	static final class Seq extends Node {
+		private final Node[] body;
+
+		Seq(Node[] body) {
+			this.body = body;
+		}
+
+		Object exec(Env env) {
+			int last = body.length - 1;
+			for (int i = 0; i < last; i++)
+				body[i].exec(env);
+			return body[last].exec(env);
+		}
+
+		void compile(VM.Assembler a, boolean tailp) {
+			int last = body.length - 1;
+			for (int i = 0; i < last; i++) {
+				body[i].compile(a, false);
+				a.op(VM.POP, -1);
+			}
+			body[last].compile(a, tailp);
+		}
+	}
+
+	static final class Closure extends Node {
+		private final Symbol name;
+		private final Object params;
+		private final List body;
+		private Scope scope;
+		private Node code = null;
+		private Node tree;
+		private int count = 0;
+		private boolean stayTree = false;
+		private int nrequireds;
+		private boolean restp;
+		private int size;
+		private boolean captured;
+		private boolean reanalyze = false;
+
+		Closure(Symbol name, Object params, List body, Scope scope) {
+			this.name = name;
+			this.params = params;
+			this.body = body;
+			this.scope = scope;
+		}
+
+		// The source of the closure, which an image saves instead of the
+		// code. The scope is kept after the body is analyzed for this.
+		Symbol name() {
+			return name;
+		}
+
+		Object params() {
+			return params;
+		}
+
+		List source() {
+			return body;
+		}
+
+		Scope scope() {
+			return scope;
+		}
+
+		Node body() {
+			if (code == null) {
+				Scope newscope = new Scope(scope);
+				Object ps = params;
+				for (; ps instanceof Pair; ps = ((Pair) ps).cdr)
+					newscope.add((Symbol) ((Pair) ps).car);
+				nrequireds = newscope.size();
+				restp = (ps != List.nil);
+				if (restp)
+					newscope.add((Symbol) ps);
+				newscope.setOwner(this);
+				code = tree = Analyzer.lambdaBody(body, newscope);
+				size = newscope.size();
+				captured = newscope.isCaptured();
+				if (VM.enabled)
+					code = VM.compile(code);
+				if (JIT.enabled)
+					code = JIT.compile(this, (VM.Program) code, size,
+							nrequireds, restp, captured);
+			} else if (code == tree && JIT.threshold > 0 && !stayTree
+					&& ++count >= JIT.threshold)
+				promote();
+			return code;
+		}
+
+		// Counts an iteration of a loop in the body, which weighs like an
+		// invocation for the tiered policy.
+		void backedge() {
+			if (code == tree && JIT.threshold > 0 && !stayTree
+					&& ++count >= JIT.threshold)
+				promote();
+		}
+
+		// A body the JIT cannot translate stays a tree, which runs faster
+		// than the VM program it would fall back to, and is not counted
+		// again.
+		private void promote() {
+			Node compiled = JIT.compile(this, (VM.Program) VM.compile(tree),
+					size, nrequireds, restp, captured);
+			if (compiled instanceof VM.Program)
+				stayTree = true;
+			else
+				code = compiled;
+		}
+
+		// Called by the Analyzer when it inlines the primitive bound to
+		// sym in the body.
+		void inlined(Symbol sym) {
+			reanalyze = true;
+			sym.addDependent(this);
+		}
+
+		// Sends the closure back to the tree tier, after a global that
+		// the compiled code depends on has changed. A body with inlined
+		// primitives is analyzed again.
+		void deoptimize() {
+			if (reanalyze) {
+				code = null;
+				reanalyze = false;
+				stayTree = false;
+			} else
+				code = tree;
+			count = 0;
+		}
+
+		// Returns a new frame for a call with n arguments, or null if
+		// the call has to go through bind.
+		Object[] frame(int n) {
+			if (code == null)
+				body();
+			if (restp || n != nrequireds)
+				return null;
+			return new Object[size];
+		}
+
+		Env bind(List args, Env env) {
+			Object[] values = new Object[size];
+			int i = 0;
+			for (; i < nrequireds; i++) {
+				if (args == List.nil)
+					throw Eval.error("too few arguments");
+				values[i] = args.car;
+				args = (List) args.cdr;
+			}
+			if (restp)
+				values[i] = args;
+			else if (args != List.nil)
+				throw Eval.error("too many arguments");
+			return new Env(values, env);
+		}
+
+		Object exec(Env env) {
+			return new Lambda(name, env, this);
+		}
+
+		void compile(VM.Assembler a, boolean tailp) {
+			a.op(VM.CLOSURE, 1);
+			a.arg(a.constant(this));
+		}
+	}
+
+	static final class Let extends Node {
+		private final int size;
+		private final Node[] inits;
+		private final Node body;
+
+		Let(int size, Node[] inits, Node body) {
+			this.size = size;
+			this.inits = inits;
+			this.body = body;
+		}
+
+		Object exec(Env env) {
+			Object[] values = new Object[size];
+			for (int i = 0; i < inits.length; i++)
+				values[i] = inits[i].exec(env);
+			return body.exec(new Env(values, env));
+		}
+
+		void compile(VM.Assembler a, boolean tailp) {
+			for (int i = 0; i < inits.length; i++)
+				inits[i].compile(a, false);
+			a.op(VM.FRAME, -inits.length);
+			a.arg(size);
+			a.arg(inits.length);
+			body.compile(a, tailp);
+			if (!tailp)
+				a.op(VM.POPFRAME, 0);
+		}
+	}
+
+	// Used for both let* and letrec: the inits run one by one in the
+	// new frame, which differ only in what the Analyzer lets them see.
+	static final class Letrec extends Node {
+		private final int size;
+		private final Node[] inits;
+		private final Node body;
+
+		Letrec(int size, Node[] inits, Node body) {
+			this.size = size;
+			this.inits = inits;
+			this.body = body;
+		}
+
+		Object exec(Env env) {
+			env = new Env(new Object[size], env);
+			for (int i = 0; i < inits.length; i++)
+				env.values[i] = inits[i].exec(env);
+			return body.exec(env);
+		}
+
+		void compile(VM.Assembler a, boolean tailp) {
+			a.op(VM.NEWFRAME, 0);
+			a.arg(size);
+			for (int i = 0; i < inits.length; i++) {
+				inits[i].compile(a, false);
+				a.op(VM.STORE, -1);
+				a.arg(i);
+			}
+			body.compile(a, tailp);
+			if (!tailp)
+				a.op(VM.POPFRAME, 0);
+		}
+	}
+
+	static final class NamedLet extends Node {
+		private final Closure loop;
+		private final Node let;
+
+		NamedLet(Closure loop, Node let) {
+			this.loop = loop;
+			this.let = let;
+		}
+
+		Object exec(Env env) {
+			Object[] values = new Object[1];
+			env = new Env(values, env);
+			values[0] = new Lambda(loop.name, env, loop);
+			return let.exec(env);
+		}
+
+		void compile(VM.Assembler a, boolean tailp) {
+			a.op(VM.NEWFRAME, 0);
+			a.arg(1);
+			loop.compile(a, false);
+			a.op(VM.STORE, -1);
+			a.arg(0);
+			let.compile(a, tailp);
+			if (!tailp)
+				a.op(VM.POPFRAME, 0);
+		}
+	}
+
+	static final class Body extends Node {
+		private final int base;
+		private final Node[] inits;
+		private final Node body;
+
+		Body(int base, Node[] inits, Node body) {
+			this.base = base;
+			this.inits = inits;
+			this.body = body;
+		}
+
+		Object exec(Env env) {
+			for (int i = 0; i < inits.length; i++)
+				env.values[base + i] = inits[i].exec(env);
+			return body.exec(env);
+		}
+
+		void compile(VM.Assembler a, boolean tailp) {
+			for (int i = 0; i < inits.length; i++) {
+				inits[i].compile(a, false);
+				a.op(VM.STORE, -1);
+				a.arg(base + i);
+			}
+			body.compile(a, tailp);
+		}
+	}
+
+	static final class Invoke extends Node {
+		private Node fn;
+		private final Node[] args;
+		private final boolean tailp;
+		private final Pair form;
+		private final Scope scope;
+
+		Invoke(Node fn, Node[] args, boolean tailp, Pair form, Scope scope) {
+			this.fn = fn;
+			this.args = args;
+			this.tailp = tailp;
+			this.form = form;
+			this.scope = scope;
+		}
+
+		Object exec(Env env) {
+			Object fval = fn.exec(env);
+			if (!(fval instanceof Function))
+				throw Eval.error(IO.printString(fval) + " is not a function");
+			if (fval instanceof Macro)
+				return macroCall((Macro) fval, env);
+			Function f = (Function) fval;
+			if (tailp)
+				switch (args.length) {
+				case 0:
+					return Call.with0(f);
+				case 1:
+					return Call.with1(f, args[0].exec(env));
+				case 2:
+					return Call.with2(f, args[0].exec(env), args[1].exec(env));
+				case 3:
+					return Call.with3(f, args[0].exec(env), args[1].exec(env),
+							args[2].exec(env));
+				case 4:
+					return Call.with4(f, args[0].exec(env), args[1].exec(env),
+							args[2].exec(env), args[3].exec(env));
+				default:
+					return Call.list(f, argList(env));
+				}
+			switch (args.length) {
+			case 0:
+				return Function.trampoline(f.call0());
+			case 1:
+				return Function.trampoline(f.call1(args[0].exec(env)));
+			case 2:
+				return Function.trampoline(f.call2(args[0].exec(env), args[1]
+						.exec(env)));
+			case 3:
+				return Function.trampoline(f.call3(args[0].exec(env), args[1]
+						.exec(env), args[2].exec(env)));
+			case 4:
+				return Function.trampoline(f.call4(args[0].exec(env), args[1]
+						.exec(env), args[2].exec(env), args[3].exec(env)));
+			default:
+				return f.invoke(argList(env));
+			}
+		}
+
+		Object macroCall(Macro m, Env env) {
+			form.car = m.expand();
+			fn = Analyzer.analyze(form.car, scope, false);
+			return exec(env);
+		}
+
+		void compile(VM.Assembler a, boolean tailp) {
+			fn.compile(a, false);
+			a.op(VM.CHECKFN, 0);
+			a.arg(a.constant(this));
+			int skip = a.label();
+			a.arg(-1);
+			for (int i = 0; i < args.length; i++)
+				args[i].compile(a, false);
+			a.op(this.tailp ? VM.TAILCALL : VM.CALL, -args.length);
+			a.arg(args.length);
+			a.patch(skip);
+		}
+
+		private List argList(Env env) {
+			List list = List.nil;
+			Pair last = null;
+			for (int i = 0; i < args.length; i++) {
+				Pair x = List.list(args[i].exec(env));
+				if (last == null)
+					list = x;
+				else
+					last.cdr = x;
+				last = x;
+			}
+			return list;
+		}
+	}
+
+	static final class SetLocal extends Node {
+		private final int depth, index;
+		private final Node value;
+
+		SetLocal(int depth, int index, Node value) {
+			this.depth = depth;
+			this.index = index;
+			this.value = value;
+		}
+
+		Object exec(Env env) {
+			Object val = value.exec(env);
+			for (int d = depth; d > 0; d--)
+				env = env.next;
+			return env.values[index] = val;
+		}
+
+		void compile(VM.Assembler a, boolean tailp) {
+			value.compile(a, false);
+			a.op(VM.SETLOCAL, 0);
+			a.arg(depth);
+			a.arg(index);
+		}
+	}
+
+	static final class SetGlobal extends Node {
+		private final Symbol sym;
+		private final Node value;
+
+		SetGlobal(Symbol sym, Node value) {
+			this.sym = sym;
+			this.value = value;
+		}
+
+		Object exec(Env env) {
+			return sym.setValue(value.exec(env));
+		}
+
+		void compile(VM.Assembler a, boolean tailp) {
+			value.compile(a, false);
+			a.op(VM.SETGLOBAL, 0);
+			a.arg(a.constant(sym));
+		}
+	}
+
+	static final class And extends Node {
+		private final Node[] args;
+
+		And(Node[] args) {
+			this.args = args;
+		}
+
+		Object exec(Env env) {
+			Object val = Boolean.TRUE;
+			for (int i = 0; i < args.length; i++)
+				if ((val = args[i].exec(env)) == Boolean.FALSE)
+					return val;
+			return val;
+		}
+
+		void compile(VM.Assembler a, boolean tailp) {
+			if (args.length == 0) {
+				a.op(VM.CONST, 1);
+				a.arg(a.constant(Boolean.TRUE));
+				return;
+			}
+			int last = args.length - 1;
+			int[] js = new int[last];
+			for (int i = 0; i < last; i++) {
+				args[i].compile(a, false);
+				js[i] = a.jump(VM.ANDJUMP, -1);
+			}
+			args[last].compile(a, tailp);
+			for (int i = 0; i < last; i++)
+				a.patch(js[i]);
+		}
+	}
+
+	static final class Or extends Node {
+		private final Node[] args;
+
+		Or(Node[] args) {
+			this.args = args;
+		}
+
+		Object exec(Env env) {
+			for (int i = 0; i < args.length; i++) {
+				Object val = args[i].exec(env);
+				if (val != Boolean.FALSE)
+					return val;
+			}
+			return Boolean.FALSE;
+		}
+
+		void compile(VM.Assembler a, boolean tailp) {
+			if (args.length == 0) {
+				a.op(VM.CONST, 1);
+				a.arg(a.constant(Boolean.FALSE));
+				return;
+			}
+			int last = args.length - 1;
+			int[] js = new int[last];
+			for (int i = 0; i < last; i++) {
+				args[i].compile(a, false);
+				js[i] = a.jump(VM.ORJUMP, -1);
+			}
+			args[last].compile(a, tailp);
+			for (int i = 0; i < last; i++)
+				a.patch(js[i]);
+		}
+	}
+
+	static final class Cond extends Node {
+		// Clause kinds; an else clause is a BODY clause without test.
+		final static int BODY = 0, TEST = 1, ARROW = 2, TAIL_ARROW = 3;
+
+		private final int n;
+		private final Node[] tests, bodies;
+		private final int[] kinds;
+
+		Cond(int n, Node[] tests, Node[] bodies, int[] kinds) {
+			this.n = n;
+			this.tests = tests;
+			this.bodies = bodies;
+			this.kinds = kinds;
+		}
+
+		Object exec(Env env) {
+			for (int i = 0; i < n; i++) {
+				Object c = (tests[i] == null ? Boolean.TRUE : tests[i]
+						.exec(env));
+				if (c != Boolean.FALSE)
+					switch (kinds[i]) {
+					case TEST:
+						return c;
+					case ARROW:
+						return ((Function) bodies[i].exec(env)).invoke1(c);
+					case TAIL_ARROW:
+						return Call.with1((Function) bodies[i].exec(env), c);
+					default:
+						return bodies[i].exec(env);
+					}
+			}
+			return List.nil;
+		}
+
+		void compile(VM.Assembler a, boolean tailp) {
+			for (int i = 0; i < n; i++)
+				if (kinds[i] == ARROW || kinds[i] == TAIL_ARROW) {
+					a.node(this);
+					return;
+				}
+			int d = a.depth();
+			int[] js = new int[n];
+			int m = 0;
+			boolean hasElse = false;
+			for (int i = 0; i < n && !hasElse; i++) {
+				a.depth(d);
+				if (tests[i] == null) {
+					bodies[i].compile(a, tailp);
+					hasElse = true;
+				} else {
+					tests[i].compile(a, false);
+					if (kinds[i] == TEST)
+						js[m++] = a.jump(VM.ORJUMP, -1);
+					else {
+						int j = a.jump(VM.JUMPF, -1);
+						bodies[i].compile(a, tailp);
+						js[m++] = a.jump(VM.JUMP, 0);
+						a.patch(j);
+					}
+				}
+			}
+			if (!hasElse) {
+				a.depth(d);
+				a.op(VM.CONST, 1);
+				a.arg(a.constant(List.nil));
+			}
+			for (int i = 0; i < m; i++)
+				a.patch(js[i]);
+		}
+	}
+
+	static final class Case extends Node {
+		private final Node key;
+		private final int n;
+		private final Object[][] data;
+		private final Node[] bodies;
+
+		Case(Node key, int n, Object[][] data, Node[] bodies) {
+			this.key = key;
+			this.n = n;
+			this.data = data;
+			this.bodies = bodies;
+		}
+
+		Object exec(Env env) {
+			Object k = key.exec(env);
+			for (int i = 0; i < n; i++) {
+				Object[] d = data[i];
+				if (d == null)
+					return bodies[i].exec(env);
+				for (int j = 0; j < d.length; j++)
+					if (Eval.isEqv(d[j], k))
+						return bodies[i].exec(env);
+			}
+			return List.nil;
+		}
+	}
+
+	static final class Do extends Node {
+		private final Node[] inits, steps, body;
+		private final Node test, result;
+		private final boolean captured;
+		private final Closure owner;
+
+		Do(Node[] inits, Node[] steps, Node test, Node[] body, Node result,
+				boolean captured, Closure owner) {
+			this.owner = owner;
+			this.inits = inits;
+			this.steps = steps;
+			this.test = test;
+			this.body = body;
+			this.result = result;
+			this.captured = captured;
+		}
+
+		Object exec(Env env) {
+			int n = inits.length;
+			Object[] values = new Object[n];
+			for (int i = 0; i < n; i++)
+				values[i] = inits[i].exec(env);
+			Env newenv = new Env(values, env);
+			// Unless a closure may have captured the frame, the steps
+			// are stored back into it instead of into a fresh frame.
+			Object[] next = (captured ? null : new Object[n]);
+			while (test.exec(newenv) == Boolean.FALSE) {
+				for (int i = 0; i < body.length; i++)
+					body[i].exec(newenv);
+				Object[] nv = (captured ? new Object[n] : next);
+				for (int i = 0; i < n; i++)
+					nv[i] = (steps[i] == null ? newenv.values[i] : steps[i]
+							.exec(newenv));
+				if (captured)
+					newenv = new Env(nv, env);
+				else
+					System.arraycopy(nv, 0, values, 0, n);
+				if (owner != null)
+					owner.backedge();
+			}
+			return result.exec(newenv);
+		}
+
+		void compile(VM.Assembler a, boolean tailp) {
+			int n = inits.length;
+			for (int i = 0; i < n; i++)
+				inits[i].compile(a, false);
+			a.op(VM.FRAME, -n);
+			a.arg(n);
+			a.arg(n);
+			int loop = a.label();
+			test.compile(a, false);
+			int exit = a.jump(VM.JUMPT, -1);
+			for (int i = 0; i < body.length; i++) {
+				body[i].compile(a, false);
+				a.op(VM.POP, -1);
+			}
+			for (int i = 0; i < n; i++)
+				if (steps[i] == null) {
+					a.op(VM.LOCAL0, 1);
+					a.arg(i);
+				} else
+					steps[i].compile(a, false);
+			if (captured) {
+				a.op(VM.REFRAME, -n);
+				a.arg(n);
+				a.arg(n);
+			} else {
+				a.op(VM.STOREN, -n);
+				a.arg(n);
+			}
+			a.op(VM.JUMP, 0);
+			a.arg(loop);
+			a.patch(exit);
+			result.compile(a, tailp);
+			if (!tailp)
+				a.op(VM.POPFRAME, 0);
+		}
+	}
+
+	static final class Cons extends Node {
+		private final Node car, cdr;
+
+		Cons(Node car, Node cdr) {
+			this.car = car;
+			this.cdr = cdr;
+		}
+
+		Object exec(Env env) {
+			return new Pair(car.exec(env), cdr.exec(env));
+		}
+	}
+
+	static final class Append extends Node {
+		private final Node list, tail;
+
+		Append(Node list, Node tail) {
+			this.list = list;
+			this.tail = tail;
+		}
+
+		Object exec(Env env) {
+			List x = (List) list.exec(env);
+			Object y = tail.exec(env);
+			if (x == List.nil)
+				return y;
+			Pair val = new Pair(x.car, null);
+			Pair last = val;
+			while ((x = (List) x.cdr) != List.nil) {
+				Pair z = new Pair(x.car, null);
+				last.cdr = z;
+				last = z;
+			}
+			last.cdr = y;
+			return val;
+		}
+	}
+
+	static final class Vector extends Node {
+		private final Node list;
+
+		Vector(Node list) {
+			this.list = list;
+		}
+
+		Object exec(Env env) {
+			return List.list2vector((List) list.exec(env));
+		}
+	}
+
+	static final class Time extends Node {
+		private final Node expr;
+
+		Time(Node expr) {
+			this.expr = expr;
+		}
+
+		Object exec(Env env) {
+			long time = System.currentTimeMillis();
+			Object val = expr.exec(env);
+			time = System.currentTimeMillis() - time;
+			IO.println("time: " + time / 1000.0 + " secs");
+			return val;
+		}
+	}
+
+	static final class Fail extends Node {
+		private final RuntimeException e;
+
+		Fail(RuntimeException e) {
+			this.e = e;
+		}
+
+		Object exec(Env env) {
+			throw e;
+		}
+	}
+
+	// Flonum operations inlined by the Analyzer. An operand that is an
+	// inlined operation itself delivers an unboxed double, so a nested
+	// expression allocates a Flonum only for its value.
+	static abstract class Flo extends Node {
+		abstract double flo(Env env);
+
+		Object exec(Env env) {
+			return Flonum.make(flo(env));
+		}
+	}
+
+	static final class FloConst extends Flo {
+		private final double value;
+
+		FloConst(double value) {
+			this.value = value;
+		}
+
+		double flo(Env env) {
+			return value;
+		}
+	}
+
+	// The index-th operand of subr that is not an inlined operation.
+	static final class Unbox extends Flo {
+		private final Node x;
+		private final Subr subr;
+		private final int index;
+
+		Unbox(Node x, Subr subr, int index) {
+			this.x = x;
+			this.subr = subr;
+			this.index = index;
+		}
+
+		double flo(Env env) {
+			Object val = x.exec(env);
+			if (val instanceof Flonum)
+				return ((Flonum) val).value;
+			else
+				throw subr.backtrace(subr.argError(index, val, "Flonum"));
+		}
+	}
+
+	static final class FloOp extends Flo {
+		final static int ADD = 0, SUB = 1, MUL = 2, DIV = 3, NEG = 4,
+				ABS = 5, SQRT = 6;
+
+		private final int op;
+		private final Flo x, y;
+
+		FloOp(int op, Flo x, Flo y) {
+			this.op = op;
+			this.x = x;
+			this.y = y;
+		}
+
+		double flo(Env env) {
+			double a = x.flo(env);
+			switch (op) {
+			case ADD:
+				return a + y.flo(env);
+			case SUB:
+				return a - y.flo(env);
+			case MUL:
+				return a * y.flo(env);
+			case DIV:
+				return a / y.flo(env);
+			case NEG:
+				return -a;
+			case ABS:
+				return Math.abs(a);
+			default:
+				return Math.sqrt(a);
+			}
+		}
+	}
+
+	static final class FloCompare extends Node {
+		final static int EQ = 0, LT = 1, GT = 2, LE = 3, GE = 4;
+
+		private final int op;
+		private final Flo x, y;
+
+		FloCompare(int op, Flo x, Flo y) {
+			this.op = op;
+			this.x = x;
+			this.y = y;
+		}
+
+		Object exec(Env env) {
+			double a = x.flo(env);
+			double b = y.flo(env);
+			boolean val;
+			switch (op) {
+			case EQ:
+				val = a == b;
+				break;
+			case LT:
+				val = a < b;
+				break;
+			case GT:
+				val = a > b;
+				break;
+			case LE:
+				val = a <= b;
+				break;
+			default:
+				val = a >= b;
+			}
+			return val ? Boolean.TRUE : Boolean.FALSE;
+		}
+	}
+
+	static final class FixToFlo extends Flo {
+		private final Node x;
+		private final Subr subr;
+
+		FixToFlo(Node x, Subr subr) {
+			this.x = x;
+			this.subr = subr;
+		}
+
+		double flo(Env env) {
+			Object val = x.exec(env);
+			if (val instanceof Fixnum)
+				return (double) ((Fixnum) val).value;
+			else
+				throw subr.backtrace(subr.argError(0, val, "Fixnum"));
+		}
+	}
+
+	// Anything but an in-range index into a double[] goes to subr,
+	// which signals the error.
+	static final class F64Ref extends Flo {
+		private final Node v, k;
+		private final Subr subr;
+
+		F64Ref(Node v, Node k, Subr subr) {
+			this.v = v;
+			this.k = k;
+			this.subr = subr;
+		}
+
+		double flo(Env env) {
+			Object vec = v.exec(env);
+			Object index = k.exec(env);
+			if (vec instanceof double[] && index instanceof Fixnum) {
+				double[] a = (double[]) vec;
+				long i = ((Fixnum) index).value;
+				if (i >= 0 && i < a.length)
+					return a[(int) i];
+			}
+			return ((Flonum) subr.call2(vec, index)).value;
+		}
+	}
+
+	static final class F64Set extends Node {
+		private final Node v, k, x;
+		private final Subr subr;
+
+		F64Set(Node v, Node k, Node x, Subr subr) {
+			this.v = v;
+			this.k = k;
+			this.x = x;
+			this.subr = subr;
+		}
+
+		Object exec(Env env) {
+			Object vec = v.exec(env);
+			Object index = k.exec(env);
+			double val;
+			if (x instanceof Flo)
+				val = ((Flo) x).flo(env);
+			else {
+				Object y = x.exec(env);
+				if (!(y instanceof LNumber))
+					return subr.call3(vec, index, y);
+				val = ((LNumber) y).doubleValue();
+			}
+			if (vec instanceof double[] && index instanceof Fixnum) {
+				double[] a = (double[]) vec;
+				long i = ((Fixnum) index).value;
+				if (i >= 0 && i < a.length) {
+					a[(int) i] = val;
+					return Boolean.TRUE;
+				}
+			}
+			return subr.call3(vec, index, Flonum.make(val));
+		}
+	}
+
+	static void init() {
+	}
+}
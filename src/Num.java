@@ -23,341 +23,359 @@ import java.math.BigInteger;
 
 final class Num {
 
-	private final static int IntPoolSize = 1024;
-	private final static Integer[] IntPool = new Integer[IntPoolSize];
-
-	public static Integer makeInt(int n) {
-		if (n >= 0 && n < IntPoolSize) {
-			Integer x = IntPool[n];
-			if (x != null)
-				return x;
-			else
-				return IntPool[n] = new Integer(n);
-		} else
-			return new Integer(n);
-	}
-
-	private final static Integer IntZERO = makeInt(0);
-	private final static Integer IntONE = makeInt(1);
-	private final static Integer IntMinusONE = new Integer(-1);
-	private final static BigInteger BigIntegerONE = BigInteger.valueOf(1);
+	final static Fixnum ZERO = Fixnum.make(0);
+	final static Fixnum ONE = Fixnum.make(1);
+	final static Fixnum MinusONE = Fixnum.make(-1);
 
 	private final static Boolean T = Boolean.TRUE;
 	private final static Boolean F = Boolean.FALSE;
 
-	public static Number normalize(BigInteger n) {
-		if (n.bitLength() < 32)
-			return makeInt(n.intValue());
-		else
-			return n;
-	}
-
-	public static int compare(Number num1, Number num2) {
-		if (num1 instanceof Integer && num2 instanceof Integer) {
-			int x = num1.intValue();
-			int y = num2.intValue();
-			return x > y ? 1 : (x == y ? 0 : -1);
-		} else if (num1 instanceof Double || num2 instanceof Double) {
+	public static int compare(LNumber num1, LNumber num2) {
+		if (num1 instanceof Fixnum && num2 instanceof Fixnum)
+			return Long.compare(((Fixnum) num1).value, ((Fixnum) num2).value);
+		else if (num1 instanceof Flonum || num2 instanceof Flonum) {
 			double x = num1.doubleValue();
 			double y = num2.doubleValue();
 			return x > y ? 1 : (x == y ? 0 : -1);
-		} else {
-			if (num1 instanceof Integer)
-				num1 = BigInteger.valueOf(num1.longValue());
-			else if (num2 instanceof Integer)
-				num2 = BigInteger.valueOf(num2.longValue());
-			return ((BigInteger) num1).compareTo((BigInteger) num2);
+		} else
+			return num1.bigValue().compareTo(num2.bigValue());
+	}
+
+	public static LNumber add(LNumber num1, LNumber num2) {
+		if (num1 instanceof Fixnum && num2 instanceof Fixnum) {
+			long x = ((Fixnum) num1).value;
+			long y = ((Fixnum) num2).value;
+			try {
+				return Fixnum.make(Math.addExact(x, y));
+			} catch (ArithmeticException e) {
+			}
+		} else if (num1 instanceof Flonum || num2 instanceof Flonum)
+			return Flonum.make(num1.doubleValue() + num2.doubleValue());
+		return Bignum.normalize(num1.bigValue().add(num2.bigValue()));
+	}
+
+	public static LNumber subtract(LNumber num1, LNumber num2) {
+		if (num1 instanceof Fixnum && num2 instanceof Fixnum) {
+			long x = ((Fixnum) num1).value;
+			long y = ((Fixnum) num2).value;
+			try {
+				return Fixnum.make(Math.subtractExact(x, y));
+			} catch (ArithmeticException e) {
+			}
+		} else if (num1 instanceof Flonum || num2 instanceof Flonum)
+			return Flonum.make(num1.doubleValue() - num2.doubleValue());
+		return Bignum.normalize(num1.bigValue().subtract(num2.bigValue()));
+	}
+
+	public static LNumber multiply(LNumber num1, LNumber num2) {
+		if (num1 instanceof Fixnum && num2 instanceof Fixnum) {
+			long x = ((Fixnum) num1).value;
+			long y = ((Fixnum) num2).value;
+			try {
+				return Fixnum.make(Math.multiplyExact(x, y));
+			} catch (ArithmeticException e) {
+			}
+		} else if (num1 instanceof Flonum || num2 instanceof Flonum)
+			return Flonum.make(num1.doubleValue() * num2.doubleValue());
+		return Bignum.normalize(num1.bigValue().multiply(num2.bigValue()));
+	}
+
+	public static LNumber divide(LNumber num1, LNumber num2) {
+		if (num1 instanceof Fixnum && num2 instanceof Fixnum) {
+			long x = ((Fixnum) num1).value;
+			long y = ((Fixnum) num2).value;
+			if ((x % y) != 0)
+				return Flonum.make(((double) x) / ((double) y));
+			else if (y != -1)
+				return Fixnum.make(x / y);
+			else
+				return negate(num1);
+		} else if (num1 instanceof Flonum || num2 instanceof Flonum)
+			return Flonum.make(num1.doubleValue() / num2.doubleValue());
+		else {
+			BigInteger[] z = num1.bigValue().divideAndRemainder(
+					num2.bigValue());
+			if (z[1].signum() == 0)
+				return Bignum.normalize(z[0]);
+			else
+				return Flonum.make(num1.doubleValue() / num2.doubleValue());
+		}
+	}
+
+	public static LNumber negate(LNumber num) {
+		if (num instanceof Fixnum) {
+			long x = ((Fixnum) num).value;
+			if (x != Long.MIN_VALUE)
+				return Fixnum.make(-x);
+		} else if (num instanceof Flonum)
+			return Flonum.make(-((Flonum) num).value);
+		return Bignum.normalize(num.bigValue().negate());
+	}
+
+	public static LNumber reciprocal(LNumber num) {
+		if (num instanceof Fixnum) {
+			long x = ((Fixnum) num).value;
+			if (x == 1 || x == -1)
+				return num;
 		}
+		return Flonum.make(1.0 / num.doubleValue());
 	}
 
-	public static Boolean zerop(Number num) {
-		if (num instanceof Integer)
-			return num.intValue() == 0 ? T : F;
-		else if (num instanceof BigInteger)
+	public static Boolean zerop(LNumber num) {
+		if (num instanceof Fixnum)
+			return ((Fixnum) num).value == 0 ? T : F;
+		else if (num instanceof Bignum)
 			return F;
 		else
 			return num.doubleValue() == 0 ? T : F;
 	}
 
-	public static Boolean positivep(Number num) {
-		if (num instanceof Integer)
-			return num.intValue() > 0 ? T : F;
-		else if (num instanceof BigInteger)
-			return ((BigInteger) num).signum() > 0 ? T : F;
+	public static Boolean positivep(LNumber num) {
+		if (num instanceof Fixnum)
+			return ((Fixnum) num).value > 0 ? T : F;
+		else if (num instanceof Bignum)
+			return ((Bignum) num).value.signum() > 0 ? T : F;
 		else
 			return num.doubleValue() > 0 ? T : F;
 	}
 
-	public static Boolean negativep(Number num) {
-		if (num instanceof Integer)
-			return num.intValue() < 0 ? T : F;
-		else if (num instanceof BigInteger)
-			return ((BigInteger) num).signum() < 0 ? T : F;
+	public static Boolean negativep(LNumber num) {
+		if (num instanceof Fixnum)
+			return ((Fixnum) num).value < 0 ? T : F;
+		else if (num instanceof Bignum)
+			return ((Bignum) num).value.signum() < 0 ? T : F;
 		else
 			return num.doubleValue() < 0 ? T : F;
 	}
 
-	public static Boolean oddp(Number num) {
-		if (num instanceof Integer)
-			return (num.intValue() & 1) != 0 ? T : F;
+	public static Boolean oddp(LNumber num) {
+		if (num instanceof Fixnum)
+			return (((Fixnum) num).value & 1) != 0 ? T : F;
+		else if (num instanceof Bignum)
+			return ((Bignum) num).value.testBit(0) ? T : F;
 		else
-			return ((BigInteger) num).testBit(0) ? T : F;
+			return num.doubleValue() % 2 != 0 ? T : F;
 	}
 
-	public static Boolean evenp(Number num) {
-		if (num instanceof Integer)
-			return (num.intValue() & 1) == 0 ? T : F;
-		else
-			return !((BigInteger) num).testBit(0) ? T : F;
-	}
-
-	// public static Number max(Number num, List args) {
-	// for (; args != List.nil; args = (List) args.cdr)
-	// if (compare((Number) args.car, num) > 0)
-	// num = (Number) args.car;
-	// return num;
-	// }
-	//
-	// public static Number min(Number num, List args) {
-	// for (; args != List.nil; args = (List) args.cdr)
-	// if (compare((Number) args.car, num) < 0)
-	// num = (Number) args.car;
-	// return num;
-	// }
-
-	public static Number long2Number(long n) {
-		if (n == (int) n)
-			return makeInt((int) n);
-		else
-			return BigInteger.valueOf(n);
+	public static Boolean evenp(LNumber num) {
+		return oddp(num) == T ? F : T;
 	}
 
-	public static Number abs(Number num) {
-		if (num instanceof Integer) {
-			long x = num.longValue();
-			return x >= 0 ? num : long2Number(-x);
-		} else if (num instanceof BigInteger)
-			return ((BigInteger) num).abs();
-		else {
-			double x = num.doubleValue();
-			return x >= 0 ? num : new Double(-x);
-		}
+	public static LNumber abs(LNumber num) {
+		return negativep(num) == T ? negate(num) : num;
 	}
 
-	public static Number quotient(Number num1, Number num2) {
-		if (num1 instanceof Integer)
-			if (num2 instanceof Integer)
-				return makeInt(num1.intValue() / num2.intValue());
+	public static LNumber quotient(LNumber num1, LNumber num2) {
+		if (num1 instanceof Fixnum && num2 instanceof Fixnum) {
+			long y = ((Fixnum) num2).value;
+			if (y != -1)
+				return Fixnum.make(((Fixnum) num1).value / y);
 			else
-				num1 = BigInteger.valueOf(num1.longValue());
-		else if (num2 instanceof Integer)
-			num2 = BigInteger.valueOf(num2.longValue());
+				return negate(num1);
+		} else if (num1 instanceof Flonum || num2 instanceof Flonum) {
+			double x = num1.doubleValue() / num2.doubleValue();
+			return Flonum.make(x >= 0 ? Math.floor(x) : Math.ceil(x));
+		} else
+			return Bignum.normalize(num1.bigValue().divide(num2.bigValue()));
+	}
 
-		return normalize(((BigInteger) num1).divide((BigInteger) num2));
+	public static LNumber remainder(LNumber num1, LNumber num2) {
+		if (num1 instanceof Fixnum && num2 instanceof Fixnum)
+			return Fixnum.make(((Fixnum) num1).value % ((Fixnum) num2).value);
+		else if (num1 instanceof Flonum || num2 instanceof Flonum)
+			return Flonum.make(num1.doubleValue() % num2.doubleValue());
+		else
+			return Bignum.normalize(num1.bigValue().remainder(
+					num2.bigValue()));
 	}
 
-	public static Number remainder(Number num1, Number num2) {
-		if (num1 instanceof Integer)
-			if (num2 instanceof Integer)
-				return makeInt(num1.intValue() % num2.intValue());
-			else
-				num1 = BigInteger.valueOf(num1.longValue());
-		else if (num2 instanceof Integer)
-			num2 = BigInteger.valueOf(num2.longValue());
-
-		return normalize(((BigInteger) num1).remainder((BigInteger) num2));
-	}
-
-	public static Number modulo(Number num1, Number num2) {
-		if (num1 instanceof Integer)
-			if (num2 instanceof Integer) {
-				int y = num2.intValue();
-				int r = num1.intValue() % y;
-				return makeInt(((long) y) * r < 0 ? r + y : r);
-			} else
-				num1 = BigInteger.valueOf(num1.longValue());
-		else if (num2 instanceof Integer)
-			num2 = BigInteger.valueOf(num2.longValue());
-
-		BigInteger X = (BigInteger) num1;
-		BigInteger Y = (BigInteger) num2;
+	public static LNumber modulo(LNumber num1, LNumber num2) {
+		if (num1 instanceof Fixnum && num2 instanceof Fixnum) {
+			long y = ((Fixnum) num2).value;
+			long r = ((Fixnum) num1).value % y;
+			return Fixnum.make(r != 0 && (r ^ y) < 0 ? r + y : r);
+		} else if (num1 instanceof Flonum || num2 instanceof Flonum) {
+			double y = num2.doubleValue();
+			double r = num1.doubleValue() % y;
+			return Flonum.make(r != 0 && (r < 0) != (y < 0) ? r + y : r);
+		}
+
+		BigInteger X = num1.bigValue();
+		BigInteger Y = num2.bigValue();
 		if (Y.signum() < 0)
-			return normalize(X.negate().mod(Y.negate()).negate());
+			return Bignum.normalize(X.negate().mod(Y.negate()).negate());
 		else
-			return normalize(X.mod(Y));
+			return Bignum.normalize(X.mod(Y));
 	}
 
-	public static Number floor(Number num) {
-		if (num instanceof Integer || num instanceof BigInteger)
-			return num;
-		else {
-			double x = Math.floor(num.doubleValue());
-			if (x == (int) x)
-				return makeInt((int) x);
-			else
-				return new BigDecimal(x).toBigInteger();
+	private static long gcd(long m, long n) {
+		// m and n must be non-negative
+		if (m < n) {
+			long tmp = m;
+			m = n;
+			n = tmp;
 		}
+		while (n != 0) {
+			long tmp = n;
+			n = m % n;
+			m = tmp;
+		}
+		return m;
 	}
 
-	public static Number ceiling(Number num) {
-		if (num instanceof Integer || num instanceof BigInteger)
-			return num;
-		else {
-			double x = Math.ceil(num.doubleValue());
-			if (x == (int) x)
-				return makeInt((int) x);
-			else
-				return new BigDecimal(x).toBigInteger();
+	public static LNumber gcd(LNumber num1, LNumber num2) {
+		num1 = abs(num1);
+		num2 = abs(num2);
+		if (num1 instanceof Fixnum && num2 instanceof Fixnum)
+			return Fixnum.make(gcd(((Fixnum) num1).value,
+					((Fixnum) num2).value));
+		else
+			return Bignum.normalize(num1.bigValue().gcd(num2.bigValue()));
+	}
+
+	public static LNumber lcm(LNumber num1, LNumber num2) {
+		num1 = abs(num1);
+		num2 = abs(num2);
+		if (zerop(num1) == T || zerop(num2) == T)
+			return ZERO;
+		else if (num1 instanceof Fixnum && num2 instanceof Fixnum) {
+			long m = ((Fixnum) num1).value;
+			long n = ((Fixnum) num2).value;
+			try {
+				return Fixnum.make(Math.multiplyExact(m / gcd(m, n), n));
+			} catch (ArithmeticException e) {
+			}
 		}
+		BigInteger X = num1.bigValue();
+		BigInteger Y = num2.bigValue();
+		return Bignum.normalize(X.multiply(Y).divide(X.gcd(Y)));
+	}
+
+	// Converts an integral double to an exact integer.
+	private static LNumber exact(double x) {
+		if (x >= -0x1p63 && x < 0x1p63)
+			return Fixnum.make((long) x);
+		else
+			return Bignum.normalize(new BigDecimal(x).toBigInteger());
 	}
 
-	public static Number truncate(Number num) {
-		if (num instanceof Integer || num instanceof BigInteger)
+	public static LNumber floor(LNumber num) {
+		if (num instanceof Flonum)
+			return exact(Math.floor(((Flonum) num).value));
+		else
 			return num;
-		else {
-			double x = num.doubleValue();
-			x = (x >= 0 ? Math.floor(x) : Math.ceil(x));
-			if (x == (int) x)
-				return makeInt((int) x);
-			else
-				return new BigDecimal(x).toBigInteger();
-		}
 	}
 
-	public static Number round(Number num) {
-		if (num instanceof Integer || num instanceof BigInteger)
+	public static LNumber ceiling(LNumber num) {
+		if (num instanceof Flonum)
+			return exact(Math.ceil(((Flonum) num).value));
+		else
 			return num;
-		else {
-			double x = num.doubleValue();
-			long n = Math.round(x);
-			if ((n - x) == 0.5 && (n & 1) == 1)
-				n--;
-			return long2Number(n);
-		}
 	}
 
-	public static LString num2string(Number num, Integer n) {
-		int radix = (n == null ? 10 : n.intValue());
+	public static LNumber truncate(LNumber num) {
+		if (num instanceof Flonum) {
+			double x = ((Flonum) num).value;
+			return exact(x >= 0 ? Math.floor(x) : Math.ceil(x));
+		} else
+			return num;
+	}
 
-		if (num instanceof Integer)
-			return new LString(Integer.toString(num.intValue(), radix));
-		else if (num instanceof BigInteger)
-			return new LString(((BigInteger) num).toString(radix));
+	public static LNumber round(LNumber num) {
+		if (num instanceof Flonum)
+			return exact(Math.rint(((Flonum) num).value));
 		else
-			return new LString(num.toString());
+			return num;
 	}
 
-	// static {
-	// Subr.def("Num", "string2num", "string->number", 1, 1);
-	// }
-
-	public static Object string2num(LString s, Integer n) {
-		try {
-			return IO.readNumber(s.toString(), (n == null ? 10 : n.intValue()));
-		} catch (NumberFormatException e) {
-			return F;
-		}
+	public static LString num2string(LNumber num, int radix) {
+		if (num instanceof Fixnum)
+			return new LString(Long.toString(((Fixnum) num).value, radix));
+		else if (num instanceof Bignum)
+			return new LString(((Bignum) num).value.toString(radix));
+		else
+			return new LString(num.toString());
 	}
 
-	public static Double sqrt(Number num) {
-		return new Double(Math.sqrt(num.doubleValue()));
+	public static Flonum sqrt(LNumber num) {
+		return Flonum.make(Math.sqrt(num.doubleValue()));
 	}
 
-	public static Double exp(Number num) {
-		return new Double(Math.exp(num.doubleValue()));
+	public static Flonum exp(LNumber num) {
+		return Flonum.make(Math.exp(num.doubleValue()));
 	}
 
-	public static Double log(Number num) {
-		return new Double(Math.log(num.doubleValue()));
+	public static Flonum log(LNumber num) {
+		return Flonum.make(Math.log(num.doubleValue()));
 	}
 
-	public static Double sin(Number num) {
-		return new Double(Math.sin(num.doubleValue()));
+	public static Flonum sin(LNumber num) {
+		return Flonum.make(Math.sin(num.doubleValue()));
 	}
 
-	public static Double cos(Number num) {
-		return new Double(Math.cos(num.doubleValue()));
+	public static Flonum cos(LNumber num) {
+		return Flonum.make(Math.cos(num.doubleValue()));
 	}
 
-	public static Double tan(Number num) {
-		return new Double(Math.tan(num.doubleValue()));
+	public static Flonum tan(LNumber num) {
+		return Flonum.make(Math.tan(num.doubleValue()));
 	}
 
-	public static Double asin(Number num) {
-		return new Double(Math.asin(num.doubleValue()));
+	public static Flonum asin(LNumber num) {
+		return Flonum.make(Math.asin(num.doubleValue()));
 	}
 
-	public static Double acos(Number num) {
-		return new Double(Math.acos(num.doubleValue()));
+	public static Flonum acos(LNumber num) {
+		return Flonum.make(Math.acos(num.doubleValue()));
 	}
 
-	public static Double atan(Number num1, Number num2) {
+	public static Flonum atan(LNumber num1, LNumber num2) {
 		if (num2 == null)
-			return new Double(Math.atan(num1.doubleValue()));
-		else {
-			return new Double(
-					Math.atan2(num1.doubleValue(), num2.doubleValue()));
-		}
+			return Flonum.make(Math.atan(num1.doubleValue()));
+		else
+			return Flonum.make(Math.atan2(num1.doubleValue(),
+					num2.doubleValue()));
 	}
 
-	public static Number expt(Number num1, Number num2) {
+	public static LNumber expt(LNumber num1, LNumber num2) {
 		double x = Math.pow(num1.doubleValue(), num2.doubleValue());
-		if (num1 instanceof Double || num2 instanceof Double
-				|| x >= Double.POSITIVE_INFINITY
-				|| x <= Double.NEGATIVE_INFINITY)
-			return new Double(x);
+		if (num1 instanceof Flonum || num2 instanceof Flonum
+				|| Double.isInfinite(x))
+			return Flonum.make(x);
 
-		if (num1 instanceof Integer) {
-			int m = num1.intValue();
+		if (num1 instanceof Fixnum) {
+			long m = ((Fixnum) num1).value;
 			if (m == 0)
-				return num2.doubleValue() == 0 ? IntONE : IntZERO;
+				return zerop(num2) == T ? ONE : ZERO;
 			else if (m == 1)
-				return IntONE;
+				return ONE;
 			else if (m == -1)
-				if (num2 instanceof Integer)
-					return (num2.intValue() & 1) != 0 ? IntMinusONE : IntONE;
-				else
-					return ((BigInteger) num2).testBit(0) ? IntMinusONE
-							: IntONE;
-			else { // num2 cannot be BigInteger
-				int n = num2.intValue();
-				return n >= 0 ? expt((long) m, n, (long) 1) : new Double(x);
-			}
-		} else { // num2 cannot be BigInteger
-			int n = num2.intValue();
-			return n >= 0 ? expt((BigInteger) num1, n, BigIntegerONE)
-					: new Double(x);
+				return oddp(num2) == T ? MinusONE : ONE;
 		}
+		// num2 is a Bignum only if it is a large negative number
+		if (num2 instanceof Bignum || negativep(num2) == T)
+			return Flonum.make(x);
+		int n = num2.intValue();
+		if (num1 instanceof Fixnum)
+			return expt(((Fixnum) num1).value, n);
+		else
+			return Bignum.normalize(num1.bigValue().pow(n));
 	}
 
-	private static Number expt(long m, int n, long val) {
-		boolean escape = false;
-		while (n > 0) {
-			if ((n & 1) == 1) {
-				n--;
-				val *= m;
-				escape = (val != (int) val);
-			} else {
-				n >>= 1;
-				m *= m;
-				escape = (m != (int) m);
+	private static LNumber expt(long m, int n) {
+		long val = 1;
+		long base = m;
+		try {
+			for (int k = n; k > 0; k >>= 1) {
+				if ((k & 1) == 1)
+					val = Math.multiplyExact(val, base);
+				if (k > 1)
+					base = Math.multiplyExact(base, base);
 			}
-			if (escape)
-				return expt(BigInteger.valueOf(m), n, BigInteger.valueOf(val));
+			return Fixnum.make(val);
+		} catch (ArithmeticException e) {
+			return Bignum.normalize(BigInteger.valueOf(m).pow(n));
 		}
-		return makeInt((int) val);
-	}
-
-	private static Number expt(BigInteger m, int n, BigInteger val) {
-		while (n > 0)
-			if ((n & 1) == 1) {
-				n--;
-				val = val.multiply(m);
-			} else {
-				n >>= 1;
-				m = m.multiply(m);
-			}
-		return normalize(val);
 	}
 
 	static void init() {
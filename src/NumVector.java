@@ -0,0 +1,505 @@
+// A Lisp Driver to be embedded in Java Applications
+
+// The contents of this file are subject to the Mozilla Public License
+// Version 1.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at
+// http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS"
+// basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+// License for the specific language governing rights and limitations
+// under the License.
+//
+// The Original Code is JAKLD code, released November 26, 2002.
+//
+// The Initial Developer of the Original Code is Taiichi Yuasa.
+// Portions created by Taiichi Yuasa are Copyright (C) 2002
+// Taiichi Yuasa. All Rights Reserved.
+//
+// Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Objects;
+
+// Homogeneous numeric vectors of SRFI 4, represented by arrays of the
+// Java primitive types: f64vector by double[], f32vector by float[],
+// s64vector by long[], s32vector by int[], s16vector by short[] and
+// u8vector by byte[].
+
+final class NumVector {
+
+	private final static Boolean T = Boolean.TRUE;
+	private final static Boolean F = Boolean.FALSE;
+
+	// Returns the tag such as "f64" for the array class c, or null.
+	static String tag(Class<?> c) {
+		if (c == double[].class)
+			return "f64";
+		else if (c == float[].class)
+			return "f32";
+		else if (c == long[].class)
+			return "s64";
+		else if (c == int[].class)
+			return "s32";
+		else if (c == short[].class)
+			return "s16";
+		else if (c == byte[].class)
+			return "u8";
+		else
+			return null;
+	}
+
+	static String tag(Object x) {
+		return x == null ? null : tag(x.getClass());
+	}
+
+	static int length(Object v) {
+		return Array.getLength(v);
+	}
+
+	// The i-th element of v as a Scheme number.
+	static Object ref(Object v, int i) {
+		if (v instanceof double[])
+			return Flonum.make(((double[]) v)[i]);
+		else if (v instanceof float[])
+			return Flonum.make(((float[]) v)[i]);
+		else if (v instanceof byte[])
+			return Fixnum.make(((byte[]) v)[i] & 0xff);
+		else
+			return Fixnum.make(Array.getLong(v, i));
+	}
+
+	static boolean equal(Object v1, Object v2) {
+		return tag(v1) != null && Objects.deepEquals(v1, v2);
+	}
+
+	// Used by the reader for #f64(...) and the like.
+	static Object list2vector(String tag, List list) {
+		if (tag.equals("f64"))
+			return list2f64vector(list);
+		else if (tag.equals("f32"))
+			return list2f32vector(list);
+		else if (tag.equals("s64"))
+			return list2s64vector(list);
+		else if (tag.equals("s32"))
+			return list2s32vector(list);
+		else if (tag.equals("s16"))
+			return list2s16vector(list);
+		else if (tag.equals("u8"))
+			return list2u8vector(list);
+		else
+			throw Eval.error("unknown syntax #" + tag);
+	}
+
+	private static double real(Object x) {
+		if (x instanceof LNumber)
+			return ((LNumber) x).doubleValue();
+		else
+			throw Eval.error(IO.printString(x) + " is not a number");
+	}
+
+	private static long integer(Object x, long min, long max) {
+		if (x instanceof Fixnum) {
+			long n = ((Fixnum) x).value;
+			if (n >= min && n <= max)
+				return n;
+		}
+		throw Eval.error(IO.printString(x) + " is not an integer from "
+				+ min + " to " + max);
+	}
+
+	static {
+		Subr.def("NumVector", "f64vectorp", "f64vector?", 1);
+		Subr.def("NumVector", "makeF64vector", "make-f64vector", 1, 1);
+		Subr.def("NumVector", "f64vector", 0, true);
+		Subr.def("NumVector", "f64vectorLength", "f64vector-length", 1);
+		Subr.def("NumVector", "f64vectorRef", "f64vector-ref", 2);
+		Subr.def("NumVector", "f64vectorSet", "f64vector-set!", 3);
+		Subr.def("NumVector", "f64vector2list", "f64vector->list", 1);
+		Subr.def("NumVector", "list2f64vector", "list->f64vector", 1);
+
+		Analyzer.defInline("f64vector-ref");
+		Analyzer.defInline("f64vector-set!");
+	}
+
+	public static Boolean f64vectorp(Object obj) {
+		return obj instanceof double[] ? T : F;
+	}
+
+	public static double[] makeF64vector(LNumber lnum, Object fill) {
+		double[] v = new double[lnum.intValue()];
+		if (fill != null)
+			Arrays.fill(v, real(fill));
+		return v;
+	}
+
+	public static double[] f64vector(List args) {
+		return list2f64vector(args);
+	}
+
+	public static LNumber f64vectorLength(double[] v) {
+		return Fixnum.make(v.length);
+	}
+
+	public static LNumber f64vectorRef(double[] v, LNumber index) {
+		int i = index.intValue();
+		return Flonum.make(v[i]);
+	}
+
+	public static Boolean f64vectorSet(double[] v, LNumber index, Object val) {
+		v[index.intValue()] = real(val);
+		return T;
+	}
+
+	public static List f64vector2list(double[] v) {
+		List list = List.nil;
+		for (int i = v.length - 1; i >= 0; i--)
+			list = new Pair(Flonum.make(v[i]), list);
+		return list;
+	}
+
+	public static double[] list2f64vector(List list) {
+		double[] v = new double[List.length(list).intValue()];
+		for (int i = 0; list != List.nil; list = (List) list.cdr)
+			v[i++] = real(list.car);
+		return v;
+	}
+
+	static {
+		Subr.def("NumVector", "f32vectorp", "f32vector?", 1);
+		Subr.def("NumVector", "makeF32vector", "make-f32vector", 1, 1);
+		Subr.def("NumVector", "f32vector", 0, true);
+		Subr.def("NumVector", "f32vectorLength", "f32vector-length", 1);
+		Subr.def("NumVector", "f32vectorRef", "f32vector-ref", 2);
+		Subr.def("NumVector", "f32vectorSet", "f32vector-set!", 3);
+		Subr.def("NumVector", "f32vector2list", "f32vector->list", 1);
+		Subr.def("NumVector", "list2f32vector", "list->f32vector", 1);
+	}
+
+	public static Boolean f32vectorp(Object obj) {
+		return obj instanceof float[] ? T : F;
+	}
+
+	public static float[] makeF32vector(LNumber lnum, Object fill) {
+		float[] v = new float[lnum.intValue()];
+		if (fill != null)
+			Arrays.fill(v, (float) real(fill));
+		return v;
+	}
+
+	public static float[] f32vector(List args) {
+		return list2f32vector(args);
+	}
+
+	public static LNumber f32vectorLength(float[] v) {
+		return Fixnum.make(v.length);
+	}
+
+	public static LNumber f32vectorRef(float[] v, LNumber index) {
+		int i = index.intValue();
+		return Flonum.make(v[i]);
+	}
+
+	public static Boolean f32vectorSet(float[] v, LNumber index, Object val) {
+		v[index.intValue()] = (float) real(val);
+		return T;
+	}
+
+	public static List f32vector2list(float[] v) {
+		List list = List.nil;
+		for (int i = v.length - 1; i >= 0; i--)
+			list = new Pair(Flonum.make(v[i]), list);
+		return list;
+	}
+
+	public static float[] list2f32vector(List list) {
+		float[] v = new float[List.length(list).intValue()];
+		for (int i = 0; list != List.nil; list = (List) list.cdr)
+			v[i++] = (float) real(list.car);
+		return v;
+	}
+
+	static {
+		Subr.def("NumVector", "s64vectorp", "s64vector?", 1);
+		Subr.def("NumVector", "makeS64vector", "make-s64vector", 1, 1);
+		Subr.def("NumVector", "s64vector", 0, true);
+		Subr.def("NumVector", "s64vectorLength", "s64vector-length", 1);
+		Subr.def("NumVector", "s64vectorRef", "s64vector-ref", 2);
+		Subr.def("NumVector", "s64vectorSet", "s64vector-set!", 3);
+		Subr.def("NumVector", "s64vector2list", "s64vector->list", 1);
+		Subr.def("NumVector", "list2s64vector", "list->s64vector", 1);
+	}
+
+	public static Boolean s64vectorp(Object obj) {
+		return obj instanceof long[] ? T : F;
+	}
+
+	public static long[] makeS64vector(LNumber lnum, Object fill) {
+		long[] v = new long[lnum.intValue()];
+		if (fill != null)
+			Arrays.fill(v, integer(fill, Long.MIN_VALUE, Long.MAX_VALUE));
+		return v;
+	}
+
+	public static long[] s64vector(List args) {
+		return list2s64vector(args);
+	}
+
+	public static LNumber s64vectorLength(long[] v) {
+		return Fixnum.make(v.length);
+	}
+
+	public static LNumber s64vectorRef(long[] v, LNumber index) {
+		int i = index.intValue();
+		return Fixnum.make(v[i]);
+	}
+
+	public static Boolean s64vectorSet(long[] v, LNumber index, Object val) {
+		v[index.intValue()] = integer(val, Long.MIN_VALUE, Long.MAX_VALUE);
+		return T;
+	}
+
+	public static List s64vector2list(long[] v) {
+		List list = List.nil;
+		for (int i = v.length - 1; i >= 0; i--)
+			list = new Pair(Fixnum.make(v[i]), list);
+		return list;
+	}
+
+	public static long[] list2s64vector(List list) {
+		long[] v = new long[List.length(list).intValue()];
+		for (int i = 0; list != List.nil; list = (List) list.cdr)
+			v[i++] = integer(list.car, Long.MIN_VALUE, Long.MAX_VALUE);
+		return v;
+	}
+
+	static {
+		Subr.def("NumVector", "s32vectorp", "s32vector?", 1);
+		Subr.def("NumVector", "makeS32vector", "make-s32vector", 1, 1);
+		Subr.def("NumVector", "s32vector", 0, true);
+		Subr.def("NumVector", "s32vectorLength", "s32vector-length", 1);
+		Subr.def("NumVector", "s32vectorRef", "s32vector-ref", 2);
+		Subr.def("NumVector", "s32vectorSet", "s32vector-set!", 3);
+		Subr.def("NumVector", "s32vector2list", "s32vector->list", 1);
+		Subr.def("NumVector", "list2s32vector", "list->s32vector", 1);
+	}
+
+	public static Boolean s32vectorp(Object obj) {
+		return obj instanceof int[] ? T : F;
+	}
+
+	public static int[] makeS32vector(LNumber lnum, Object fill) {
+		int[] v = new int[lnum.intValue()];
+		if (fill != null)
+			Arrays.fill(v, (int) integer(fill, Integer.MIN_VALUE, Integer.MAX_VALUE));
+		return v;
+	}
+
+	public static int[] s32vector(List args) {
+		return list2s32vector(args);
+	}
+
+	public static LNumber s32vectorLength(int[] v) {
+		return Fixnum.make(v.length);
+	}
+
+	public static LNumber s32vectorRef(int[] v, LNumber index) {
+		int i = index.intValue();
+		return Fixnum.make(v[i]);
+	}
+
+	public static Boolean s32vectorSet(int[] v, LNumber index, Object val) {
+		v[index.intValue()] = (int) integer(val, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		return T;
+	}
+
+	public static List s32vector2list(int[] v) {
+		List list = List.nil;
+		for (int i = v.length - 1; i >= 0; i--)
+			list = new Pair(Fixnum.make(v[i]), list);
+		return list;
+	}
+
+	public static int[] list2s32vector(List list) {
+		int[] v = new int[List.length(list).intValue()];
+		for (int i = 0; list != List.nil; list = (List) list.cdr)
+			v[i++] = (int) integer(list.car, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		return v;
+	}
+
+	static {
+		Subr.def("NumVector", "s16vectorp", "s16vector?", 1);
+		Subr.def("NumVector", "makeS16vector", "make-s16vector", 1, 1);
+		Subr.def("NumVector", "s16vector", 0, true);
+		Subr.def("NumVector", "s16vectorLength", "s16vector-length", 1);
+		Subr.def("NumVector", "s16vectorRef", "s16vector-ref", 2);
+		Subr.def("NumVector", "s16vectorSet", "s16vector-set!", 3);
+		Subr.def("NumVector", "s16vector2list", "s16vector->list", 1);
+		Subr.def("NumVector", "list2s16vector", "list->s16vector", 1);
+	}
+
+	public static Boolean s16vectorp(Object obj) {
+		return obj instanceof short[] ? T : F;
+	}
+
+	public static short[] makeS16vector(LNumber lnum, Object fill) {
+		short[] v = new short[lnum.intValue()];
+		if (fill != null)
+			Arrays.fill(v, (short) integer(fill, Short.MIN_VALUE, Short.MAX_VALUE));
+		return v;
+	}
+
+	public static short[] s16vector(List args) {
+		return list2s16vector(args);
+	}
+
+	public static LNumber s16vectorLength(short[] v) {
+		return Fixnum.make(v.length);
+	}
+
+	public static LNumber s16vectorRef(short[] v, LNumber index) {
+		int i = index.intValue();
+		return Fixnum.make(v[i]);
+	}
+
+	public static Boolean s16vectorSet(short[] v, LNumber index, Object val) {
+		v[index.intValue()] = (short) integer(val, Short.MIN_VALUE, Short.MAX_VALUE);
+		return T;
+	}
+
+	public static List s16vector2list(short[] v) {
+		List list = List.nil;
+		for (int i = v.length - 1; i >= 0; i--)
+			list = new Pair(Fixnum.make(v[i]), list);
+		return list;
+	}
+
+	public static short[] list2s16vector(List list) {
+		short[] v = new short[List.length(list).intValue()];
+		for (int i = 0; list != List.nil; list = (List) list.cdr)
+			v[i++] = (short) integer(list.car, Short.MIN_VALUE, Short.MAX_VALUE);
+		return v;
+	}
+
+	static {
+		Subr.def("NumVector", "u8vectorp", "u8vector?", 1);
+		Subr.def("NumVector", "makeU8vector", "make-u8vector", 1, 1);
+		Subr.def("NumVector", "u8vector", 0, true);
+		Subr.def("NumVector", "u8vectorLength", "u8vector-length", 1);
+		Subr.def("NumVector", "u8vectorRef", "u8vector-ref", 2);
+		Subr.def("NumVector", "u8vectorSet", "u8vector-set!", 3);
+		Subr.def("NumVector", "u8vector2list", "u8vector->list", 1);
+		Subr.def("NumVector", "list2u8vector", "list->u8vector", 1);
+	}
+
+	public static Boolean u8vectorp(Object obj) {
+		return obj instanceof byte[] ? T : F;
+	}
+
+	public static byte[] makeU8vector(LNumber lnum, Object fill) {
+		byte[] v = new byte[lnum.intValue()];
+		if (fill != null)
+			Arrays.fill(v, (byte) integer(fill, 0, 255));
+		return v;
+	}
+
+	public static byte[] u8vector(List args) {
+		return list2u8vector(args);
+	}
+
+	public static LNumber u8vectorLength(byte[] v) {
+		return Fixnum.make(v.length);
+	}
+
+	public static LNumber u8vectorRef(byte[] v, LNumber index) {
+		int i = index.intValue();
+		return Fixnum.make(v[i] & 0xff);
+	}
+
+	public static Boolean u8vectorSet(byte[] v, LNumber index, Object val) {
+		v[index.intValue()] = (byte) integer(val, 0, 255);
+		return T;
+	}
+
+	public static List u8vector2list(byte[] v) {
+		List list = List.nil;
+		for (int i = v.length - 1; i >= 0; i--)
+			list = new Pair(Fixnum.make(v[i] & 0xff), list);
+		return list;
+	}
+
+	public static byte[] list2u8vector(List list) {
+		byte[] v = new byte[List.length(list).intValue()];
+		for (int i = 0; list != List.nil; list = (List) list.cdr)
+			v[i++] = (byte) integer(list.car, 0, 255);
+		return v;
+	}
+
+	// Bulk operations on f64vectors, which run the loops of Kernels. The
+	// ones making a vector store into the optional last argument, if
+	// given, instead of a new vector.
+	static {
+		Subr.def("NumVector", "f64vectorDot", "f64vector-dot", 2);
+		Subr.def("NumVector", "f64vectorSum", "f64vector-sum", 1);
+		Subr.def("NumVector", "f64vectorMin", "f64vector-min", 1);
+		Subr.def("NumVector", "f64vectorMax", "f64vector-max", 1);
+		Subr.def("NumVector", "f64vectorAdd", "f64vector-add", 2, 1);
+		Subr.def("NumVector", "f64vectorMul", "f64vector-mul", 2, 1);
+		Subr.def("NumVector", "f64vectorScale", "f64vector-scale", 2, 1);
+		Subr.def("NumVector", "f64vectorAxpy", "f64vector-axpy!", 3);
+	}
+
+	private static double[] sameLength(double[] v, double[] w) {
+		if (v.length != w.length)
+			throw Eval.error("f64vectors of different lengths "
+					+ v.length + " and " + w.length);
+		return w;
+	}
+
+	private static double[] target(double[] v, double[] z) {
+		return z == null ? new double[v.length] : sameLength(v, z);
+	}
+
+	public static Flonum f64vectorDot(double[] x, double[] y) {
+		return Flonum.make(Kernels.instance.dot(x, sameLength(x, y)));
+	}
+
+	public static Flonum f64vectorSum(double[] x) {
+		return Flonum.make(Kernels.instance.sum(x));
+	}
+
+	public static Flonum f64vectorMin(double[] x) {
+		return Flonum.make(Kernels.instance.min(x));
+	}
+
+	public static Flonum f64vectorMax(double[] x) {
+		return Flonum.make(Kernels.instance.max(x));
+	}
+
+	public static double[] f64vectorAdd(double[] x, double[] y, double[] z) {
+		z = target(x, z);
+		Kernels.instance.add(x, sameLength(x, y), z);
+		return z;
+	}
+
+	public static double[] f64vectorMul(double[] x, double[] y, double[] z) {
+		z = target(x, z);
+		Kernels.instance.mul(x, sameLength(x, y), z);
+		return z;
+	}
+
+	public static double[] f64vectorScale(LNumber a, double[] x, double[] z) {
+		z = target(x, z);
+		Kernels.instance.scale(a.doubleValue(), x, z);
+		return z;
+	}
+
+	public static double[] f64vectorAxpy(LNumber a, double[] x, double[] y) {
+		Kernels.instance.axpy(a.doubleValue(), x, sameLength(x, y));
+		return y;
+	}
+
+	static void init() {
+	}
+}
@@ -0,0 +1,151 @@
+// A Lisp Driver to be embedded in Java Applications
+
+// The contents of this file are subject to the Mozilla Public License
+// Version 1.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at
+// http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS"
+// basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+// License for the specific language governing rights and limitations
+// under the License.
+//
+// The Original Code is JAKLD code, released November 26, 2002.
+//
+// The Initial Developer of the Original Code is Taiichi Yuasa.
+// Portions created by Taiichi Yuasa are Copyright (C) 2002
+// Taiichi Yuasa. All Rights Reserved.
+//
+// Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+// Buffered output ports. Characters are collected without locking and
+// passed on to the underlying Writer according to the buffering mode:
+// at every newline (line), when a number of characters are buffered
+// (block), or only when flushed or closed (explicit).
+
+final class OutputPort extends Writer {
+
+	final static int LINE = 0;
+	final static int BLOCK = 1;
+	final static int EXPLICIT = 2;
+
+	private final Writer sink;
+	private char[] buf;
+	private int count = 0;
+	private int mode;
+	private int size;
+
+	OutputPort(Writer sink, int mode, int size) {
+		this.sink = sink;
+		this.mode = mode;
+		this.size = size;
+		buf = new char[Math.max(size, 1024)];
+	}
+
+	public void write(int c) throws IOException {
+		if (count == buf.length)
+			overflow(1);
+		buf[count++] = (char) c;
+		if (c == '\n' ? mode == LINE : mode == BLOCK && count >= size)
+			flush();
+	}
+
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		if (count + len > buf.length)
+			overflow(len);
+		System.arraycopy(cbuf, off, buf, count, len);
+		count += len;
+		if (mode == LINE) {
+			for (int i = off; i < off + len; i++)
+				if (cbuf[i] == '\n') {
+					flush();
+					break;
+				}
+		} else if (mode == BLOCK && count >= size)
+			flush();
+	}
+
+	public void write(String s, int off, int len) throws IOException {
+		if (count + len > buf.length)
+			overflow(len);
+		s.getChars(off, off + len, buf, count);
+		count += len;
+		if (mode == LINE) {
+			int i = s.indexOf('\n', off);
+			if (i >= 0 && i < off + len)
+				flush();
+		} else if (mode == BLOCK && count >= size)
+			flush();
+	}
+
+	// Makes room for n more characters, passing the buffered ones on
+	// unless the port is flushed only explicitly.
+	private void overflow(int n) throws IOException {
+		if (mode != EXPLICIT && count > 0) {
+			sink.write(buf, 0, count);
+			count = 0;
+		}
+		if (count + n > buf.length)
+			buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + n));
+	}
+
+	public void flush() throws IOException {
+		if (count > 0) {
+			sink.write(buf, 0, count);
+			count = 0;
+		}
+		sink.flush();
+	}
+
+	public void close() throws IOException {
+		flush();
+		sink.close();
+	}
+
+	private final static Symbol Sline = Symbol.intern("line");
+	private final static Symbol Sblock = Symbol.intern("block");
+	private final static Symbol Sexplicit = Symbol.intern("explicit");
+
+	static int mode(String s) {
+		return s.equals("line") ? LINE : s.equals("block") ? BLOCK : s
+				.equals("explicit") ? EXPLICIT : -1;
+	}
+
+	static {
+		Subr.def("OutputPort", "portBuffering", "port-buffering", 1);
+	}
+
+	public static Symbol portBuffering(OutputPort out) {
+		return out.mode == LINE ? Sline : out.mode == BLOCK ? Sblock
+				: Sexplicit;
+	}
+
+	static {
+		Subr.def("OutputPort", "setPortBuffering", "set-port-buffering!", 2,
+				1);
+	}
+
+	public static Symbol setPortBuffering(OutputPort out, Symbol mode,
+			LNumber size) throws IOException {
+		int m = mode(mode.toString());
+		if (m < 0)
+			throw Eval.error("unknown buffering mode " + mode);
+		out.flush();
+		out.mode = m;
+		if (size != null) {
+			if (size.intValue() < 1)
+				throw Eval.error("bad buffer size " + size);
+			out.size = size.intValue();
+			if (out.size > out.buf.length)
+				out.buf = new char[out.size];
+		}
+		return mode;
+	}
+
+	static void init() {
+	}
+}
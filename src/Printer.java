@@ -0,0 +1,314 @@
+// A Lisp Driver to be embedded in Java Applications
+
+// The contents of this file are subject to the Mozilla Public License
+// Version 1.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at
+// http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS"
+// basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+// License for the specific language governing rights and limitations
+// under the License.
+//
+// The Original Code is JAKLD code, released November 26, 2002.
+//
+// The Initial Developer of the Original Code is Taiichi Yuasa.
+// Portions created by Taiichi Yuasa are Copyright (C) 2002
+// Taiichi Yuasa. All Rights Reserved.
+//
+// Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Vector;
+
+// The printer of write and display. Lists and vectors are printed with
+// an explicit stack instead of recursion, so that deeply nested data
+// can be printed, and the characters are collected in a buffer that is
+// passed to the port in large blocks. With labels, pairs and vectors
+// reached more than once are printed as #n= and then #n#, which makes
+// shared and cyclic structure printable.
+
+final class Printer {
+
+	private final static int PRINT = 0;
+	private final static int REST = 1;
+	private final static int ELEMENT = 2;
+	private final static int TEXT = 3;
+
+	final static int SEEN = -2;
+	final static int SHARED = -1;
+
+	private Writer out;
+	private boolean write;
+	private IdentityHashMap<Object, Integer> labels = null;
+	private int nextLabel;
+
+	private final char[] buf = new char[8192];
+	private int count = 0;
+
+	private Object[] objs = new Object[64];
+	private int[] ops = new int[64];
+	private int[] indices = new int[64];
+	private int sp = 0;
+
+	// A printer not in use, kept for the next print.
+	private static Printer cache = null;
+
+	private final static Symbol Squote = Symbol.intern("quote");
+	private final static Symbol Squasiquote = Symbol.intern("quasiquote");
+	private final static Symbol Sunquote = Symbol.intern("unquote");
+	private final static Symbol SunquoteSplicing = Symbol
+			.intern("unquote-splicing");
+
+	static void print(Object x, Writer out, boolean write, boolean shared)
+			throws IOException {
+		Printer p = cache;
+		if (p == null)
+			p = new Printer();
+		else
+			cache = null;
+		p.out = out;
+		p.write = write;
+		try {
+			if (shared) {
+				p.labels = findShared(x);
+				p.nextLabel = 0;
+			}
+			p.run(x);
+			p.drain();
+		} finally {
+			while (p.sp > 0)
+				p.objs[--p.sp] = null;
+			p.count = 0;
+			p.out = null;
+			p.labels = null;
+			cache = p;
+		}
+	}
+
+	private void push(int op, Object x, int i) {
+		if (sp == objs.length) {
+			int n = sp * 2;
+			objs = Arrays.copyOf(objs, n);
+			ops = Arrays.copyOf(ops, n);
+			indices = Arrays.copyOf(indices, n);
+		}
+		ops[sp] = op;
+		objs[sp] = x;
+		indices[sp] = i;
+		sp++;
+	}
+
+	private void run(Object x) throws IOException {
+		push(PRINT, x, 0);
+		while (sp > 0) {
+			sp--;
+			Object y = objs[sp];
+			objs[sp] = null;
+			switch (ops[sp]) {
+			case PRINT:
+				printObject(y);
+				break;
+			case REST:
+				rest((Pair) y);
+				break;
+			case ELEMENT:
+				element((Object[]) y, indices[sp]);
+				break;
+			default:
+				emit((String) y);
+			}
+		}
+	}
+
+	private void printObject(Object x) throws IOException {
+		if (x instanceof Pair) {
+			if (labels != null && labeled(x))
+				return;
+			Pair pair = (Pair) x;
+			if (write && pair.cdr instanceof Pair
+					&& ((Pair) pair.cdr).cdr == List.nil && !shared(pair.cdr)) {
+				String prefix = pair.car == Squote ? "'"
+						: pair.car == Squasiquote ? "`"
+								: pair.car == Sunquote ? ","
+										: pair.car == SunquoteSplicing ? ",@"
+												: null;
+				if (prefix != null) {
+					emit(prefix);
+					push(PRINT, ((Pair) pair.cdr).car, 0);
+					return;
+				}
+			}
+			emit('(');
+			push(REST, pair, 0);
+			push(PRINT, pair.car, 0);
+		} else if (x instanceof Object[]) {
+			if (labels != null && labeled(x))
+				return;
+			emit("#(");
+			element((Object[]) x, 0);
+		} else
+			atom(x);
+	}
+
+	// Continues a list after the car of pair.
+	private void rest(Pair pair) throws IOException {
+		Object x = pair.cdr;
+		if (x == List.nil)
+			emit(')');
+		else if (x instanceof Pair && !shared(x)) {
+			emit(' ');
+			push(REST, x, 0);
+			push(PRINT, ((Pair) x).car, 0);
+		} else {
+			emit(" . ");
+			push(TEXT, ")", 0);
+			push(PRINT, x, 0);
+		}
+	}
+
+	// Continues a vector from its i-th element.
+	private void element(Object[] v, int i) throws IOException {
+		if (i < v.length) {
+			if (i > 0)
+				emit(' ');
+			push(ELEMENT, v, i + 1);
+			push(PRINT, v[i], 0);
+		} else
+			emit(')');
+	}
+
+	private void atom(Object x) throws IOException {
+		if (x == null)
+			emit("#<null>");
+		else if (x == List.nil)
+			emit("()");
+		else if (x instanceof Boolean)
+			emit(((Boolean) x).booleanValue() ? "#t" : "#f");
+		else if (x instanceof Symbol)
+			emit(write ? x.toString() : ((Symbol) x).name());
+		else if (x instanceof Character && write) {
+			char c = ((Character) x).charValue();
+			emit("#\\");
+			if (c == ' ')
+				emit("space");
+			else if (c == '\n')
+				emit("newline");
+			else if (c == '\t')
+				emit("tab");
+			else if (c == '\f')
+				emit("formfeed");
+			else if (c == '\r')
+				emit("return");
+			else
+				emit(c);
+		} else if (x instanceof LString && write) {
+			String s = x.toString();
+			int len = s.length();
+			emit('"');
+			for (int i = 0; i < len; i++) {
+				char c = s.charAt(i);
+				if (c == '\\' || c == '"')
+					emit('\\');
+				emit(c);
+			}
+			emit('"');
+		} else if (NumVector.tag(x) != null) {
+			emit("#" + NumVector.tag(x) + "(");
+			int len = NumVector.length(x);
+			for (int i = 0; i < len; i++) {
+				if (i > 0)
+					emit(' ');
+				emit(NumVector.ref(x, i).toString());
+			}
+			emit(')');
+		} else if (x instanceof Writer)
+			emit("#<output port>");
+		else
+			emit(x.toString());
+	}
+
+	// Finds the pairs and vectors reachable from x, mapping them to
+	// SHARED if they are reached more than once and to SEEN otherwise.
+	static IdentityHashMap<Object, Integer> findShared(Object x) {
+		IdentityHashMap<Object, Integer> found = new IdentityHashMap<Object, Integer>();
+		Vector<Object> stack = new Vector<Object>();
+		stack.addElement(x);
+		while (!stack.isEmpty()) {
+			Object y = stack.remove(stack.size() - 1);
+			while (y instanceof Pair || y instanceof Object[]) {
+				Integer n = found.get(y);
+				if (n != null) {
+					if (n.intValue() == SEEN)
+						found.put(y, SHARED);
+					break;
+				}
+				found.put(y, SEEN);
+				if (y instanceof Pair) {
+					stack.addElement(((Pair) y).car);
+					y = ((Pair) y).cdr;
+				} else {
+					Object[] v = (Object[]) y;
+					for (int i = v.length - 1; i >= 0; i--)
+						stack.addElement(v[i]);
+					break;
+				}
+			}
+		}
+		return found;
+	}
+
+	private boolean shared(Object x) {
+		if (labels == null)
+			return false;
+		Integer n = labels.get(x);
+		return n != null && n.intValue() != SEEN;
+	}
+
+	// Prints #n# and returns true if x has been labeled, or prints #n=
+	// if x is shared and is printed for the first time.
+	private boolean labeled(Object x) throws IOException {
+		Integer n = labels.get(x);
+		if (n == null || n.intValue() == SEEN)
+			return false;
+		emit('#');
+		if (n.intValue() >= 0) {
+			emit(n.toString());
+			emit('#');
+			return true;
+		}
+		labels.put(x, nextLabel);
+		emit(Integer.toString(nextLabel++));
+		emit('=');
+		return false;
+	}
+
+	private void emit(char c) throws IOException {
+		if (count == buf.length)
+			drain();
+		buf[count++] = c;
+	}
+
+	private void emit(String s) throws IOException {
+		int len = s.length();
+		if (count + len > buf.length) {
+			drain();
+			if (len > buf.length) {
+				out.write(s);
+				return;
+			}
+		}
+		s.getChars(0, len, buf, count);
+		count += len;
+	}
+
+	private void drain() throws IOException {
+		if (count > 0) {
+			out.write(buf, 0, count);
+			count = 0;
+		}
+	}
+}
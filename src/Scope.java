@@ -0,0 +1,113 @@
+// A Lisp Driver to be embedded in Java Applications
+
+// The contents of this file are subject to the Mozilla Public License
+// Version 1.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at
+// http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS"
+// basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+// License for the specific language governing rights and limitations
+// under the License.
+//
+// The Original Code is JAKLD code, released November 26, 2002.
+//
+// The Initial Developer of the Original Code is Taiichi Yuasa.
+// Portions created by Taiichi Yuasa are Copyright (C) 2002
+// Taiichi Yuasa. All Rights Reserved.
+//
+// Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
+
+
+final class Scope {
+
+	private Symbol[] names;
+	private int size;
+	private boolean captured = false;
+	private Node.Closure owner = null;
+	final Scope next;
+
+	Scope(Scope next) {
+		this(new Symbol[4], 0, next);
+	}
+
+	private Scope(Symbol[] names, int size, Scope next) {
+		this.names = names;
+		this.size = size;
+		this.next = next;
+	}
+
+	int add(Symbol sym) {
+		if (size == names.length) {
+			Symbol[] v = new Symbol[size * 2];
+			System.arraycopy(names, 0, v, 0, size);
+			names = v;
+		}
+		names[size] = sym;
+		return size++;
+	}
+
+	int size() {
+		return size;
+	}
+
+	Symbol[] names() {
+		if (names.length != size) {
+			Symbol[] v = new Symbol[size];
+			System.arraycopy(names, 0, v, 0, size);
+			names = v;
+		}
+		return names;
+	}
+
+	// Returns the lexical address of sym as (depth << 16 | index),
+	// or -1 if sym is not bound in scope.
+	static int lookup(Symbol sym, Scope scope) {
+		for (int depth = 0; scope != null; scope = scope.next, depth++)
+			for (int i = scope.size - 1; i >= 0; i--)
+				if (scope.names[i] == sym)
+					return (depth << 16) | i;
+		return -1;
+	}
+
+	static boolean binds(Symbol sym, Scope scope) {
+		return lookup(sym, scope) >= 0;
+	}
+
+	// Marks every frame in the chain as captured by a closure and
+	// returns a copy that later additions to these scopes do not affect.
+	// Closure bodies are analyzed lazily, so they must not see let*
+	// variables bound after them.
+	static Scope capture(Scope scope) {
+		if (scope == null)
+			return null;
+		scope.captured = true;
+		Scope s = new Scope(scope.names, scope.size, capture(scope.next));
+		s.owner = scope.owner;
+		return s;
+	}
+
+	// The owner of the scope of a lambda's parameters is the lambda.
+	void setOwner(Node.Closure owner) {
+		this.owner = owner;
+	}
+
+	Node.Closure directOwner() {
+		return owner;
+	}
+
+	// Returns the innermost lambda whose body contains scope.
+	static Node.Closure owner(Scope scope) {
+		for (; scope != null; scope = scope.next)
+			if (scope.owner != null)
+				return scope.owner;
+		return null;
+	}
+
+	boolean isCaptured() {
+		return captured;
+	}
+
+	static void init() {
+	}
+}
@@ -18,24 +18,34 @@
 //
 // Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
 
-import java.lang.reflect.Array;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.Hashtable;
 
 final class Subr extends Function {
 
 	private Symbol name;
 	private Method method;
+	private MethodHandle handle;
+	private boolean adapted = false;
 	private int nrequireds;
 	private int nrequiredsPLUSnoptionals;
 	private int argLength;
 	private boolean restp;
 	private boolean specialp;
+	private Subr binary;
 
 	private static Hashtable<String, Method[]> methodTable = new Hashtable<String, Method[]>(
 			16);
 
+	// The primitives by the names they are defined under, which stay
+	// the same when the global variables are given other values.
+	private static Hashtable<Symbol, Subr> primitives = new Hashtable<Symbol, Subr>(
+			512);
+
 	private static Method findMethod(String cname, String mname) {
 		Method[] methods = (Method[]) methodTable.get(cname);
 		if (methods == null)
@@ -59,35 +69,86 @@ final class Subr extends Function {
 		return m;
 	}
 
-	private static int MaxArgLength = 3;
-	private static Object[] argVector[];
+	// Handles taking up to MaxDirectArgs arguments are invoked directly
+	// with the arguments; longer ones take them spread in an Object[].
+	private final static int MaxDirectArgs = 4;
+
+	private final static MethodHandles.Lookup lookup = MethodHandles.lookup();
 
-	private Subr(String cname, String mname, int nr, int no, boolean rp,
-			boolean sp) {
+	private Subr(String cname, String mname, int nr, int no, boolean rp) {
 		method = findMethod(cname, mname);
 		nrequireds = nr;
 		nrequiredsPLUSnoptionals = nr + no;
 		restp = rp;
-		specialp = sp;
-		argLength = nr + no + (rp ? 1 : 0) + (sp ? 2 : 0);
-		if (argLength > MaxArgLength)
-			MaxArgLength = argLength;
+		specialp = false;
+		argLength = nr + no + (rp ? 1 : 0);
+		if (method != null)
+			try {
+				handle = lookup.unreflect(method);
+			} catch (IllegalAccessException e) {
+				IO.println("method " + cname + "." + mname + " not accessible");
+			}
+	}
+
+	// The handle is adapted to take Objects on the first call rather
+	// than by def, since adapting one for every primitive takes most of
+	// the startup time.
+	private MethodHandle handle() {
+		if (!adapted) {
+			if (handle != null) {
+				MethodHandle h = handle.asType(MethodType
+						.genericMethodType(argLength));
+				handle = (argLength <= MaxDirectArgs ? h : h.asSpreader(
+						Object[].class, argLength));
+			}
+			adapted = true;
+		}
+		return handle;
+	}
+
+	// Special forms are compiled by the Analyzer. Their Subr only
+	// records the syntax for argument checking.
+	private Subr(int nr, int no, boolean rp) {
+		nrequireds = nr;
+		nrequiredsPLUSnoptionals = nr + no;
+		restp = rp;
+		specialp = true;
+		argLength = nr + no + (rp ? 1 : 0);
 	}
 
 	private static void def(String cname, String mname, String sname, int nr,
 			int no, boolean rp) {
-		Subr f = new Subr(cname, mname, nr, no, rp, false);
+		Subr f = new Subr(cname, mname, nr, no, rp);
 		f.name = Symbol.makeOrdinary(sname, f);
+		primitives.put(f.name, f);
 	}
 
-	static void defSpecial(String cname, String mname, String sname, int nr,
-			int no, boolean rp) {
-		Subr f = new Subr(cname, mname, nr, no, rp, true);
+	static void defSpecial(String sname, int nr, int no, boolean rp) {
+		Subr f = new Subr(nr, no, rp);
 		f.name = Symbol.makeSpecial(sname, f);
 	}
 
+	// Registers mname as the entry point of the function sname for calls
+	// with exactly two arguments, typically a fast path of a function
+	// that takes a rest parameter.
+	static void defBinary(String cname, String mname, String sname) {
+		Subr f = (Subr) Symbol.intern(sname).globalValue();
+		Subr b = new Subr(cname, mname, 2, 0, false);
+		b.name = f.name;
+		f.binary = b;
+	}
+
+	Symbol name() {
+		return name;
+	}
+
+	// Returns the primitive defined under name, or null.
+	static Subr primitive(Symbol name) {
+		return primitives.get(name);
+	}
+
 	static Subr make(String cname, String mname, int nr) {
-		Subr f = new Subr(cname, mname, nr, 0, false, false);
+		Subr f = new Subr(cname, mname, nr, 0, false);
 		f.name = Symbol.intern(mname);
 		return f;
 	}
@@ -116,17 +177,11 @@ final class Subr extends Function {
 		def(cname, mname, sname, nr, 0, rp);
 	}
 
-	static void defSpecial(String cname, String mname, int nr, int no,
-			boolean rp) {
-		defSpecial(cname, mname, mname, nr, no, rp);
-	}
-
-	static Env argEnv;
-	static boolean argTailp;
-
 	public Object invoke0(List args) {
 		try {
-			Object[] argV = argVector[argLength];
+			if (specialp)
+				throw Eval.error("special form " + name + " in a bad place");
+			Object[] argV = new Object[argLength];
 			int i = 0;
 			while (i < nrequireds)
 				if (args == List.nil)
@@ -147,45 +202,176 @@ final class Subr extends Function {
 			else if (args != List.nil)
 				throw Eval.error("too many arguments to " + name);
 
-			if (specialp) {
-				argV[i++] = argEnv;
-				argV[i] = (argTailp ? Boolean.TRUE : Boolean.FALSE);
-			}
-
 			try {
-				return method.invoke(null, argV);
-			} catch (InvocationTargetException e) {
-				throw e.getTargetException();
-			} catch (IllegalArgumentException e) {
-				Class[] types = method.getParameterTypes();
-				if (Array.getLength(types) != argLength)
-					throw Eval.systemError("wrong argLength");
-				for (int j = 0; j < argLength; j++) {
-					String cname = checkArg(argV[j], types[j]);
-					if (cname != null) {
-						int n = j + 1;
-						throw Eval.error((n == 1 ? "1st" : n == 2 ? "2nd"
-								: n == 3 ? "3rd" : n + "th")
-								+ " argument "
-								+ IO.printString(argV[j])
-								+ " to "
-								+ name
-								+ " not " + cname + " object");
-					}
+				switch (argLength) {
+				case 0:
+					return (Object) handle().invokeExact();
+				case 1:
+					return (Object) handle().invokeExact(argV[0]);
+				case 2:
+					return (Object) handle().invokeExact(argV[0], argV[1]);
+				case 3:
+					return (Object) handle().invokeExact(argV[0], argV[1],
+							argV[2]);
+				case 4:
+					return (Object) handle().invokeExact(argV[0], argV[1],
+							argV[2], argV[3]);
+				default:
+					return (Object) handle().invokeExact(argV);
 				}
-				IO.println(Eval.errorMessage(e));
-				throw Eval.systemError("failed error analysis");
+			} catch (ClassCastException e) {
+				throw argError(argV, e);
+			} catch (NullPointerException e) {
+				throw argError(argV, e);
 			}
 		} catch (Throwable e) {
-			if (e != Eval.backtraceToken) {
-				IO.println(Eval.errorMessage(e));
-				IO.print("Backtrace: " + name);
-			} else
-				IO.print(" < " + name);
-			throw Eval.backtraceToken;
+			throw backtrace(e);
 		}
 	}
 
+	// A call with n arguments can invoke the handle directly if the Subr
+	// has no rest parameter and the handle takes its arguments unspread.
+	// Missing optional arguments are passed as null.
+	private boolean isDirect(int n) {
+		return !restp && !specialp && argLength <= MaxDirectArgs
+				&& nrequireds <= n && n <= nrequiredsPLUSnoptionals;
+	}
+
+	// Returns the method to call directly with n arguments for compiled
+	// code, or null if the call must go through the Subr.
+	Method directMethod(int n) {
+		if (n == 2 && binary != null)
+			return binary.directMethod(2);
+		else if (!isDirect(n) || handle() == null
+				|| !Modifier.isStatic(method.getModifiers()))
+			return null;
+		Class<?>[] types = method.getParameterTypes();
+		for (int i = n; i < types.length; i++)
+			if (types[i].isPrimitive())
+				return null;
+		return method;
+	}
+
+	private Object direct(Object a, Object b, Object c, Object d)
+			throws Throwable {
+		try {
+			switch (argLength) {
+			case 0:
+				return (Object) handle().invokeExact();
+			case 1:
+				return (Object) handle().invokeExact(a);
+			case 2:
+				return (Object) handle().invokeExact(a, b);
+			case 3:
+				return (Object) handle().invokeExact(a, b, c);
+			default:
+				return (Object) handle().invokeExact(a, b, c, d);
+			}
+		} catch (ClassCastException e) {
+			throw argError(new Object[] { a, b, c, d }, e);
+		} catch (NullPointerException e) {
+			throw argError(new Object[] { a, b, c, d }, e);
+		}
+	}
+
+	Object call0() {
+		if (!isDirect(0))
+			return invoke0(List.nil);
+		try {
+			return direct(null, null, null, null);
+		} catch (Throwable e) {
+			throw backtrace(e);
+		}
+	}
+
+	Object call1(Object a) {
+		if (!isDirect(1))
+			return invoke0(List.list(a));
+		try {
+			return direct(a, null, null, null);
+		} catch (Throwable e) {
+			throw backtrace(e);
+		}
+	}
+
+	Object call2(Object a, Object b) {
+		if (binary != null)
+			return binary.call2(a, b);
+		else if (!isDirect(2))
+			return invoke0(List.list(a, b));
+		try {
+			return direct(a, b, null, null);
+		} catch (Throwable e) {
+			throw backtrace(e);
+		}
+	}
+
+	Object call3(Object a, Object b, Object c) {
+		if (!isDirect(3))
+			return invoke0(List.list(a, b, c));
+		try {
+			return direct(a, b, c, null);
+		} catch (Throwable e) {
+			throw backtrace(e);
+		}
+	}
+
+	Object call4(Object a, Object b, Object c, Object d) {
+		if (!isDirect(4))
+			return invoke0(List.list(a, b, c, d));
+		try {
+			return direct(a, b, c, d);
+		} catch (Throwable e) {
+			throw backtrace(e);
+		}
+	}
+
+	RuntimeException backtrace(Throwable e) {
+		if (e != Eval.backtraceToken) {
+			IO.println(Eval.errorMessage(e));
+			IO.print("Backtrace: " + name);
+		} else
+			IO.print(" < " + name);
+		return Eval.backtraceToken;
+	}
+
+	// A ClassCastException or NullPointerException is either raised by the
+	// handle's argument conversion, in which case some argument does not
+	// match its parameter type, or by the method body itself.
+	private RuntimeException argError(Object[] argV, RuntimeException e)
+			throws ClassNotFoundException {
+		Class<?>[] types = method.getParameterTypes();
+		for (int j = 0; j < argLength; j++) {
+			String cname = checkArg(argV[j], types[j]);
+			if (cname != null)
+				return argError(j, argV[j], cname);
+		}
+		return e;
+	}
+
+	// Also used by code that inlines this Subr and checks the j-th
+	// argument itself.
+	RuntimeException argError(int j, Object arg, String cname) {
+		int n = j + 1;
+		return Eval.error((n == 1 ? "1st" : n == 2 ? "2nd" : n == 3 ? "3rd"
+				: n + "th")
+				+ " argument "
+				+ IO.printString(arg)
+				+ " to "
+				+ name
+				+ " not " + cname + " object");
+	}
+
+	void checkArgs(List args) {
+		int n = 0;
+		for (; args != List.nil; args = (List) args.cdr)
+			n++;
+		if (n < nrequireds)
+			throw Eval.error("too few arguments to " + name);
+		else if (!restp && n > nrequiredsPLUSnoptionals)
+			throw Eval.error("too many arguments to " + name);
+	}
+
 	private static String checkArg(Object arg, Class t)
 			throws ClassNotFoundException {
 		if (t.isPrimitive()) {
@@ -204,8 +390,10 @@ final class Subr extends Function {
 				throw Eval.systemError("wrong arg type");
 		} else if (arg == null || t.isInstance(arg))
 			return null;
-		else if (t.isArray())
+		else if (t == Object[].class)
 			return "Vector";
+		else if (t.isArray())
+			return NumVector.tag(t) + "vector";
 		else if (Class.forName("java.io.Reader").isAssignableFrom(t))
 			return "InputPort";
 		else if (Class.forName("java.io.Writer").isAssignableFrom(t))
@@ -228,17 +416,6 @@ final class Subr extends Function {
 	}
 
 	static void init() {
-		argVector = new Object[MaxArgLength + 1][];
-		for (int i = 0; i <= MaxArgLength; i++)
-			argVector[i] = new Object[i];
-
 		methodTable = null;
 	}
-
-	static void clean() {
-		for (int i = 1; i <= MaxArgLength; i++)
-			for (int j = 0; j < i; j++)
-				argVector[i][j] = null;
-		argEnv = null;
-	}
 }
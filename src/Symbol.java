@@ -18,8 +18,10 @@
 //
 // Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
 
+import java.lang.ref.WeakReference;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.Vector;
 
 final class Symbol {
 
@@ -27,47 +29,183 @@ final class Symbol {
 	private final static int SKordinary = 1;
 	private final static int SKundefined = 2;
 
-	private String name;
+	private final String name;
+	private final int hash;
 	private Object value = null;
 	private int kind = SKundefined;
 	private String printName = null;
-
-	private final static Hashtable<String, Symbol> symbolTable = new Hashtable<String, Symbol>();
+	private Vector<WeakReference<Node.Closure>> dependents = null;
+	private int version = 0;
+	private boolean weak = false;
 
 	Symbol(String s) {
 		name = s;
+		hash = s.hashCode();
 	}
 
 	private final static Boolean T = Boolean.TRUE;
 	private final static Boolean F = Boolean.FALSE;
 
+	// The symbol table is open-addressed with linear probing. A slot
+	// holds either a symbol or, for a symbol made by string->symbol, a
+	// WeakSymbol, so that the symbol can be collected while it has no
+	// global value. Lookups take no lock and, when the symbol exists,
+	// allocate nothing; insertions are synchronized and publish a grown
+	// table through the volatile field.
+	private static volatile Object[] symbolTable = new Object[4096];
+	private static int symbolCount = 0;
+
+	private final static boolean weakSymbols = !System.getProperty(
+			"jakld.weaksymbols", "true").equals("false");
+
+	private final static class WeakSymbol extends WeakReference<Symbol> {
+		WeakSymbol(Symbol sym) {
+			super(sym);
+		}
+	}
+
+	private static Symbol symbolAt(Object x) {
+		return x instanceof WeakSymbol ? ((WeakSymbol) x).get() : (Symbol) x;
+	}
+
+	private static int index(int h, int mask) {
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	// Looks for the symbol named s, or by the chars of buf if s is null.
+	private static Symbol find(Object[] table, int h, String s, char[] buf,
+			int off, int len) {
+		int mask = table.length - 1;
+		for (int i = index(h, mask);; i = (i + 1) & mask) {
+			Object x = table[i];
+			if (x == null)
+				return null;
+			Symbol sym = symbolAt(x);
+			if (sym != null && sym.hash == h
+					&& (s != null ? sym.name.equals(s) : sym.named(buf, off, len)))
+				return sym;
+		}
+	}
+
+	private boolean named(char[] buf, int off, int len) {
+		if (name.length() != len)
+			return false;
+		for (int i = 0; i < len; i++)
+			if (name.charAt(i) != buf[off + i])
+				return false;
+		return true;
+	}
+
+	private static synchronized Symbol insert(int h, String s, char[] buf,
+			int off, int len, boolean weak) {
+		Object[] table = symbolTable;
+		Symbol sym = find(table, h, s, buf, off, len);
+		if (sym != null)
+			return sym;
+		sym = new Symbol(s != null ? s : new String(buf, off, len));
+		sym.weak = weak;
+		if (++symbolCount * 3 > table.length * 2)
+			table = rehash(table);
+		int mask = table.length - 1;
+		int i = index(h, mask);
+		while (table[i] != null)
+			i = (i + 1) & mask;
+		table[i] = weak ? new WeakSymbol(sym) : sym;
+		symbolTable = table;
+		return sym;
+	}
+
+	// Copies the live entries into a new table, dropping the collected
+	// weak symbols, and doubling the size only if still needed.
+	private static Object[] rehash(Object[] table) {
+		int live = 0;
+		for (int i = 0; i < table.length; i++)
+			if (table[i] != null && symbolAt(table[i]) != null)
+				live++;
+		int length = table.length;
+		while ((live + 1) * 3 > length)
+			length *= 2;
+		Object[] newTable = new Object[length];
+		int mask = length - 1;
+		for (int i = 0; i < table.length; i++) {
+			Object x = table[i];
+			Symbol sym;
+			if (x != null && (sym = symbolAt(x)) != null) {
+				int j = index(sym.hash, mask);
+				while (newTable[j] != null)
+					j = (j + 1) & mask;
+				newTable[j] = x;
+			}
+		}
+		symbolCount = live + 1;
+		return newTable;
+	}
+
+	// Tells if the symbol is the one in the table, unlike a gensym.
+	boolean isInterned() {
+		return find(symbolTable, hash, name, null, 0, 0) == this;
+	}
+
+	// Returns the symbols that have a global value.
+	static Vector<Symbol> globals() {
+		Object[] table = symbolTable;
+		Vector<Symbol> globals = new Vector<Symbol>();
+		for (int i = 0; i < table.length; i++) {
+			Symbol sym = table[i] == null ? null : symbolAt(table[i]);
+			if (sym != null && sym.kind == SKordinary)
+				globals.addElement(sym);
+		}
+		return globals;
+	}
+
+	// A weak symbol becomes strong once it is given a global value.
+	private static synchronized void strengthen(Symbol sym) {
+		if (sym.weak) {
+			Object[] table = symbolTable;
+			int mask = table.length - 1;
+			for (int i = index(sym.hash, mask);; i = (i + 1) & mask)
+				if (table[i] instanceof WeakSymbol
+						&& ((WeakSymbol) table[i]).get() == sym) {
+					table[i] = sym;
+					break;
+				}
+			sym.weak = false;
+		}
+	}
+
 	static {
 		// Subr.def("Symbol", "intern", "string->symbol", 1);
 		Subr.def("Symbol", "string2symbol", "string->symbol", 1);
 	}
 
 	public static Symbol string2symbol(LString s) {
-		return intern(s.toString());
+		String name = s.toString();
+		int h = name.hashCode();
+		Symbol sym = find(symbolTable, h, name, null, 0, 0);
+		return sym != null ? sym : insert(h, name, null, 0, 0, weakSymbols);
 	}
 
 	public static Symbol intern(String s) {
-		Symbol sym = (Symbol) symbolTable.get(s);
-		if (sym == null) {
-			sym = new Symbol(s);
-			symbolTable.put(s, sym);
-		}
-		return sym;
+		int h = s.hashCode();
+		Symbol sym = find(symbolTable, h, s, null, 0, 0);
+		return sym != null ? sym : insert(h, s, null, 0, 0, false);
+	}
+
+	// Interns the symbol named by len chars of buf from off, such as a
+	// token in the reader's buffer.
+	static Symbol intern(char[] buf, int off, int len) {
+		int h = 0;
+		for (int i = 0; i < len; i++)
+			h = 31 * h + buf[off + i];
+		Symbol sym = find(symbolTable, h, null, buf, off, len);
+		return sym != null ? sym : insert(h, null, buf, off, len, false);
 	}
 
 	static Symbol makeSpecial(String s, Subr f) {
-		Symbol sym = (Symbol) symbolTable.get(s);
+		Symbol sym = intern(s);
 
-		if (sym == null) {
-			sym = new Symbol(s);
-			sym.kind = SKspecial;
-			sym.value = f;
-			symbolTable.put(s, sym);
-		} else if (sym.kind == SKundefined) {
+		if (sym.kind == SKundefined) {
+			strengthen(sym);
 			sym.kind = SKspecial;
 			sym.value = f;
 		} else
@@ -77,14 +215,10 @@ final class Symbol {
 	}
 
 	static Symbol makeOrdinary(String s, Object val) {
-		Symbol sym = (Symbol) symbolTable.get(s);
+		Symbol sym = intern(s);
 
-		if (sym == null) {
-			sym = new Symbol(s);
-			sym.kind = SKordinary;
-			sym.value = val;
-			symbolTable.put(s, sym);
-		} else if (sym.kind == SKundefined) {
+		if (sym.kind == SKundefined) {
+			strengthen(sym);
 			sym.kind = SKordinary;
 			sym.value = val;
 		} else
@@ -97,12 +231,44 @@ final class Symbol {
 		if (kind == SKspecial) {
 			throw Eval.error("cannot define special form " + this);
 		} else {
+			strengthen(this);
 			kind = SKordinary;
 			value = val;
+			changed();
 		}
 		return this;
 	}
 
+	// Compiled code that relies on the current global value of the
+	// symbol registers here, and is deoptimized when the value changes.
+	void addDependent(Node.Closure c) {
+		if (dependents == null)
+			dependents = new Vector<WeakReference<Node.Closure>>(2);
+		for (int i = 0; i < dependents.size(); i++)
+			if (dependents.elementAt(i).get() == c)
+				return;
+		dependents.addElement(new WeakReference<Node.Closure>(c));
+	}
+
+	// The version changes with every change of the global value, so that
+	// caches of the value can tell whether they are still valid.
+	int version() {
+		return version;
+	}
+
+	private void changed() {
+		version++;
+		if (dependents != null) {
+			Vector<WeakReference<Node.Closure>> ds = dependents;
+			dependents = null;
+			for (int i = 0; i < ds.size(); i++) {
+				Node.Closure c = ds.elementAt(i).get();
+				if (c != null)
+					c.deoptimize();
+			}
+		}
+	}
+
 	Object valueOf() {
 		if (kind == SKordinary)
 			return value;
@@ -117,13 +283,32 @@ final class Symbol {
 			throw Eval.error("undefined function " + this);
 	}
 
+	boolean isSpecialForm() {
+		return kind == SKspecial;
+	}
+
+	// The value of a symbol known to be a defined global variable.
+	Object boundValue() {
+		return value;
+	}
+
+	Object globalValue() {
+		return kind == SKordinary ? value : null;
+	}
+
 	Object setValue(Object val) {
-		if (kind == SKordinary)
-			return value = val;
-		else
+		if (kind == SKordinary) {
+			value = val;
+			changed();
+			return val;
+		} else
 			throw Eval.error("undefined variable " + this);
 	}
 
+	String name() {
+		return name;
+	}
+
 	public String toString() {
 		if (printName == null)
 			return printName = (IO.needsEscape(name) ? "|" + name + "|" : name);
@@ -182,7 +367,10 @@ final class Symbol {
 	}
 
 	public static Symbol gensym() {
-		String s = "#$" + gensymCounter++;
+		return uninterned("#$" + gensymCounter++);
+	}
+
+	static Symbol uninterned(String s) {
 		Symbol sym = new Symbol(s);
 		sym.printName = s;
 		return sym;
@@ -204,8 +392,7 @@ final class Symbol {
 			traceLevel++;
 			Object val = f.invoke0(args);
 			traceLevel--;
-			while (val instanceof Call)
-				val = ((Call) val).fun.invoke0(((Call) val).args);
+			val = Function.trampoline(val);
 			for (int i = 0; i < traceLevel; i++)
 				IO.print("  ");
 			IO.print("<" + traceLevel + " ");
@@ -230,10 +417,11 @@ final class Symbol {
 					IO.println("function " + sym + " is already traced");
 					continue;
 				}
-				Lambda wrapper = new Lambda(sym, null, Sx, List.list(List.list(
+				Lambda wrapper = new Lambda(sym, Sx, List.list(List.list(
 						tracerFun, List.list(Squote, sym), sym.value, Sx)));
 				traceSet.put(sym, new Pair(wrapper, sym.value));
 				sym.value = wrapper;
+				sym.changed();
 				traced = new Pair(sym, traced);
 			} else
 				IO.println("function " + sym + " is not defined");
@@ -250,6 +438,7 @@ final class Symbol {
 				Pair x = (Pair) traceSet.get(sym);
 				if (x.car == sym.value) {
 					sym.value = x.cdr;
+					sym.changed();
 					untraced = new Pair(sym, untraced);
 				}
 			}
@@ -263,6 +452,7 @@ final class Symbol {
 				else {
 					if (x.car == sym.value) {
 						sym.value = x.cdr;
+						sym.changed();
 						untraced = new Pair(sym, untraced);
 					} else
 						IO.println("function " + sym + " has been redefined");
@@ -0,0 +1,349 @@
+// A Lisp Driver to be embedded in Java Applications
+
+// The contents of this file are subject to the Mozilla Public License
+// Version 1.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at
+// http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS"
+// basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+// License for the specific language governing rights and limitations
+// under the License.
+//
+// The Original Code is JAKLD code, released November 26, 2002.
+//
+// The Initial Developer of the Original Code is Taiichi Yuasa.
+// Portions created by Taiichi Yuasa are Copyright (C) 2002
+// Taiichi Yuasa. All Rights Reserved.
+//
+// Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
+
+import java.util.Arrays;
+
+// The bytecode engine. When enabled, every lambda body is analyzed into
+// a Node tree as usual and then compiled into a Program, a flat
+// instruction stream for a stack machine, which run() executes in a
+// single dispatch loop. Nodes translate themselves through compile();
+// forms without their own translation are embedded whole and executed
+// by the NODE instruction. Frames are the same Env objects the tree
+// engine uses, so both kinds of code can call each other freely.
+// Programs are mainly the input of the JIT: run on their own, they are
+// slower than Node trees, whose calls the JVM can inline per node.
+
+final class VM {
+
+	static boolean enabled = false;
+
+	// Instructions and their operands. The comments give the stack
+	// effect.
+	final static int CONST = 0; // k: -> consts[k]
+	final static int LOCAL0 = 1; // i: -> values[i] of the current frame
+	final static int LOCAL1 = 2; // i: -> values[i] of the next frame
+	final static int LOCAL = 3; // d i: -> values[i] of the d-th frame
+	final static int GLOBAL = 4; // k: -> value of symbol consts[k]
+	final static int GLOBALFN = 5; // k: -> function of GlobalFn consts[k]
+	final static int SETLOCAL = 6; // d i: x -> x
+	final static int SETGLOBAL = 7; // k: x -> x
+	final static int POP = 8; // x ->
+	final static int JUMP = 9; // t:
+	final static int JUMPF = 10; // t: x -> ; jump if x is #f
+	final static int JUMPT = 11; // t: x -> ; jump unless x is #f
+	final static int ANDJUMP = 12; // t: x -> x if jumping if x is #f
+	final static int ORJUMP = 13; // t: x -> x if jumping unless x is #f
+	final static int CHECKFN = 14; // k t: f -> f, or the value of a macro
+	// call by the Invoke node consts[k] and jump to t
+	final static int CALL = 15; // n: f x1 .. xn -> value
+	final static int TAILCALL = 16; // n: f x1 .. xn -> Call
+	final static int CLOSURE = 17; // k: -> lambda of consts[k]
+	final static int FRAME = 18; // size n: x1 .. xn -> ; push a frame
+	final static int REFRAME = 19; // size n: x1 .. xn -> ; replace it
+	final static int NEWFRAME = 20; // size: push an empty frame
+	final static int POPFRAME = 21; // pop the current frame
+	final static int STORE = 22; // i: x -> ; values[i] = x
+	final static int STOREN = 23; // n: x1 .. xn -> ; values[0..n-1]
+	final static int NODE = 24; // k: -> value of node consts[k]
+	final static int RETURN = 25; // x ->
+
+	static Node compile(Node body) {
+		Assembler a = new Assembler();
+		body.compile(a, true);
+		a.op(RETURN, -1);
+		return a.finish();
+	}
+
+	static final class Program extends Node {
+		final int[] code;
+		final Object[] consts;
+		final int maxStack;
+
+		Program(int[] code, Object[] consts, int maxStack) {
+			this.code = code;
+			this.consts = consts;
+			this.maxStack = maxStack;
+		}
+
+		Object exec(Env env) {
+			return run(this, env);
+		}
+	}
+
+	static final class Assembler {
+		private int[] code = new int[32];
+		private int pc = 0;
+		private Object[] consts = new Object[8];
+		private int nconsts = 0;
+		private int depth = 0, maxDepth = 0;
+
+		void op(int opcode, int delta) {
+			arg(opcode);
+			depth(depth + delta);
+		}
+
+		void arg(int x) {
+			if (pc == code.length) {
+				int[] v = new int[pc * 2];
+				System.arraycopy(code, 0, v, 0, pc);
+				code = v;
+			}
+			code[pc++] = x;
+		}
+
+		int constant(Object x) {
+			for (int i = 0; i < nconsts; i++)
+				if (consts[i] == x)
+					return i;
+			if (nconsts == consts.length) {
+				Object[] v = new Object[nconsts * 2];
+				System.arraycopy(consts, 0, v, 0, nconsts);
+				consts = v;
+			}
+			consts[nconsts] = x;
+			return nconsts++;
+		}
+
+		// Emits a jump whose target is set later by patch.
+		int jump(int opcode, int delta) {
+			op(opcode, delta);
+			arg(-1);
+			return pc - 1;
+		}
+
+		void patch(int at) {
+			code[at] = pc;
+		}
+
+		int label() {
+			return pc;
+		}
+
+		int depth() {
+			return depth;
+		}
+
+		void depth(int d) {
+			depth = d;
+			if (d > maxDepth)
+				maxDepth = d;
+		}
+
+		void node(Node node) {
+			op(NODE, 1);
+			arg(constant(node));
+		}
+
+		Program finish() {
+			int[] v = new int[pc];
+			System.arraycopy(code, 0, v, 0, pc);
+			Object[] cs = new Object[nconsts];
+			System.arraycopy(consts, 0, cs, 0, nconsts);
+			return new Program(v, cs, maxDepth);
+		}
+	}
+
+	private final static Boolean F = Boolean.FALSE;
+
+	static Object run(Program p, Env env) {
+		int[] code = p.code;
+		Object[] consts = p.consts;
+		Object[] stack = new Object[p.maxStack];
+		int sp = 0;
+		int pc = 0;
+		for (;;) {
+			switch (code[pc++]) {
+			case CONST:
+				stack[sp++] = consts[code[pc++]];
+				break;
+			case LOCAL0:
+				stack[sp++] = env.values[code[pc++]];
+				break;
+			case LOCAL1:
+				stack[sp++] = env.next.values[code[pc++]];
+				break;
+			case LOCAL: {
+				Env e = env;
+				for (int d = code[pc++]; d > 0; d--)
+					e = e.next;
+				stack[sp++] = e.values[code[pc++]];
+				break;
+			}
+			case GLOBAL:
+				stack[sp++] = ((Symbol) consts[code[pc++]]).valueOf();
+				break;
+			case GLOBALFN:
+				stack[sp++] = ((Node.GlobalFn) consts[code[pc++]]).function();
+				break;
+			case SETLOCAL: {
+				Env e = env;
+				for (int d = code[pc++]; d > 0; d--)
+					e = e.next;
+				e.values[code[pc++]] = stack[sp - 1];
+				break;
+			}
+			case SETGLOBAL:
+				stack[sp - 1] = ((Symbol) consts[code[pc++]])
+						.setValue(stack[sp - 1]);
+				break;
+			case POP:
+				stack[--sp] = null;
+				break;
+			case JUMP:
+				pc = code[pc];
+				break;
+			case JUMPF:
+				pc = (stack[--sp] == F ? code[pc] : pc + 1);
+				break;
+			case JUMPT:
+				pc = (stack[--sp] != F ? code[pc] : pc + 1);
+				break;
+			case ANDJUMP:
+				if (stack[sp - 1] == F)
+					pc = code[pc];
+				else {
+					sp--;
+					pc++;
+				}
+				break;
+			case ORJUMP:
+				if (stack[sp - 1] != F)
+					pc = code[pc];
+				else {
+					sp--;
+					pc++;
+				}
+				break;
+			case CHECKFN: {
+				Object f = stack[sp - 1];
+				if (!(f instanceof Function))
+					throw Eval.error(IO.printString(f) + " is not a function");
+				if (f instanceof Macro) {
+					stack[sp - 1] = ((Node.Invoke) consts[code[pc]])
+							.macroCall((Macro) f, env);
+					pc = code[pc + 1];
+				} else
+					pc += 2;
+				break;
+			}
+			case CALL: {
+				int n = code[pc++];
+				sp -= n;
+				Function f = (Function) stack[sp - 1];
+				Object val;
+				switch (n) {
+				case 0:
+					val = f.call0();
+					break;
+				case 1:
+					val = f.call1(stack[sp]);
+					break;
+				case 2:
+					val = f.call2(stack[sp], stack[sp + 1]);
+					break;
+				case 3:
+					val = f.call3(stack[sp], stack[sp + 1], stack[sp + 2]);
+					break;
+				case 4:
+					val = f.call4(stack[sp], stack[sp + 1], stack[sp + 2],
+							stack[sp + 3]);
+					break;
+				default:
+					val = f.invoke0(argList(stack, sp, n));
+				}
+				// the arguments are not kept reachable, as POP does not
+				// keep its value
+				for (int i = sp + n - 1; i >= sp; i--)
+					stack[i] = null;
+				stack[sp - 1] = Function.trampoline(val);
+				break;
+			}
+			case TAILCALL: {
+				int n = code[pc++];
+				sp -= n;
+				Function f = (Function) stack[sp - 1];
+				switch (n) {
+				case 0:
+					return Call.with0(f);
+				case 1:
+					return Call.with1(f, stack[sp]);
+				case 2:
+					return Call.with2(f, stack[sp], stack[sp + 1]);
+				case 3:
+					return Call.with3(f, stack[sp], stack[sp + 1],
+							stack[sp + 2]);
+				case 4:
+					return Call.with4(f, stack[sp], stack[sp + 1],
+							stack[sp + 2], stack[sp + 3]);
+				default:
+					return Call.list(f, argList(stack, sp, n));
+				}
+			}
+			case CLOSURE:
+				stack[sp++] = ((Node) consts[code[pc++]]).exec(env);
+				break;
+			case FRAME:
+			case REFRAME: {
+				Object[] values = new Object[code[pc]];
+				int n = code[pc + 1];
+				sp -= n;
+				System.arraycopy(stack, sp, values, 0, n);
+				Arrays.fill(stack, sp, sp + n, null);
+				env = new Env(values, code[pc - 1] == FRAME ? env : env.next);
+				pc += 2;
+				break;
+			}
+			case NEWFRAME:
+				env = new Env(new Object[code[pc++]], env);
+				break;
+			case POPFRAME:
+				env = env.next;
+				break;
+			case STORE:
+				env.values[code[pc++]] = stack[--sp];
+				break;
+			case STOREN: {
+				int n = code[pc++];
+				sp -= n;
+				System.arraycopy(stack, sp, env.values, 0, n);
+				Arrays.fill(stack, sp, sp + n, null);
+				break;
+			}
+			case NODE:
+				stack[sp++] = ((Node) consts[code[pc++]]).exec(env);
+				break;
+			case RETURN:
+				return stack[sp - 1];
+			default:
+				throw Eval.systemError("bad instruction " + code[pc - 1]);
+			}
+		}
+	}
+
+	private static List argList(Object[] stack, int sp, int n) {
+		List list = List.nil;
+		for (int i = sp + n - 1; i >= sp; i--)
+			list = new Pair(stack[i], list);
+		return list;
+	}
+
+	static void init() {
+	}
+}
@@ -0,0 +1,123 @@
+// A Lisp Driver to be embedded in Java Applications
+
+// The contents of this file are subject to the Mozilla Public License
+// Version 1.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at
+// http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS"
+// basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+// License for the specific language governing rights and limitations
+// under the License.
+//
+// The Original Code is JAKLD code, released November 26, 2002.
+//
+// The Initial Developer of the Original Code is Taiichi Yuasa.
+// Portions created by Taiichi Yuasa are Copyright (C) 2002
+// Taiichi Yuasa. All Rights Reserved.
+//
+// Contributor(s): Taiichi Yuasa <yuasa@kuis.kyoto-u.ac.jp>
+
+// The Kernels on the JDK Vector API.  dot and sum add up lane by lane
+// and then across the lanes, and dot and axpy use fma, so results may
+// differ in the last bits from the scalar Kernels.  Compile and run with
+// the module enabled, for example from the directory of the other
+// classes:
+//
+//	javac --add-modules jdk.incubator.vector -cp . -d . simd/SIMDKernels.java
+//	java --add-modules jdk.incubator.vector Eval
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+final class SIMDKernels extends Kernels {
+
+	private final static VectorSpecies<Double> S = DoubleVector.SPECIES_PREFERRED;
+
+	double dot(double[] x, double[] y) {
+		int n = x.length;
+		int upper = S.loopBound(n);
+		DoubleVector acc = DoubleVector.zero(S);
+		int i = 0;
+		for (; i < upper; i += S.length())
+			acc = DoubleVector.fromArray(S, x, i).fma(
+					DoubleVector.fromArray(S, y, i), acc);
+		double s = acc.reduceLanes(VectorOperators.ADD);
+		for (; i < n; i++)
+			s += x[i] * y[i];
+		return s;
+	}
+
+	double sum(double[] x) {
+		return reduce(x, VectorOperators.ADD, 0.0);
+	}
+
+	double min(double[] x) {
+		return reduce(x, VectorOperators.MIN, Double.POSITIVE_INFINITY);
+	}
+
+	double max(double[] x) {
+		return reduce(x, VectorOperators.MAX, Double.NEGATIVE_INFINITY);
+	}
+
+	private static double reduce(double[] x,
+			VectorOperators.Associative op, double identity) {
+		int n = x.length;
+		int upper = S.loopBound(n);
+		DoubleVector acc = DoubleVector.broadcast(S, identity);
+		int i = 0;
+		for (; i < upper; i += S.length())
+			acc = acc.lanewise(op, DoubleVector.fromArray(S, x, i));
+		double r = acc.reduceLanes(op);
+		for (; i < n; i++)
+			r = (op == VectorOperators.ADD ? r + x[i]
+					: op == VectorOperators.MIN ? Math.min(r, x[i]) : Math.max(
+							r, x[i]));
+		return r;
+	}
+
+	void add(double[] x, double[] y, double[] z) {
+		int n = x.length;
+		int upper = S.loopBound(n);
+		int i = 0;
+		for (; i < upper; i += S.length())
+			DoubleVector.fromArray(S, x, i).add(
+					DoubleVector.fromArray(S, y, i)).intoArray(z, i);
+		for (; i < n; i++)
+			z[i] = x[i] + y[i];
+	}
+
+	void mul(double[] x, double[] y, double[] z) {
+		int n = x.length;
+		int upper = S.loopBound(n);
+		int i = 0;
+		for (; i < upper; i += S.length())
+			DoubleVector.fromArray(S, x, i).mul(
+					DoubleVector.fromArray(S, y, i)).intoArray(z, i);
+		for (; i < n; i++)
+			z[i] = x[i] * y[i];
+	}
+
+	void scale(double a, double[] x, double[] z) {
+		int n = x.length;
+		int upper = S.loopBound(n);
+		int i = 0;
+		for (; i < upper; i += S.length())
+			DoubleVector.fromArray(S, x, i).mul(a).intoArray(z, i);
+		for (; i < n; i++)
+			z[i] = a * x[i];
+	}
+
+	void axpy(double a, double[] x, double[] y) {
+		int n = x.length;
+		int upper = S.loopBound(n);
+		DoubleVector va = DoubleVector.broadcast(S, a);
+		int i = 0;
+		for (; i < upper; i += S.length())
+			DoubleVector.fromArray(S, x, i).fma(va,
+					DoubleVector.fromArray(S, y, i)).intoArray(y, i);
+		for (; i < n; i++)
+			y[i] = a * x[i] + y[i];
+	}
+}
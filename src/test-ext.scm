@@ -0,0 +1,211 @@
+;;;; "test-ext.scm" Tests of the extensions of JAKLD.
+;;; Load it after "test.scm", whose SECTION, test and report-errs it
+;;; uses.  The file `tmp1' is written over in the course of the tests.
+
+(SECTION 'numeric-vector)
+(define nv (make-u8vector 3 255))
+(test #t u8vector? nv)
+(test #f u8vector? (vector 1 2 3))
+(test #f u8vector? (s16vector 1 2 3))
+(test 3 u8vector-length nv)
+(test 255 u8vector-ref nv 2)
+(test '(255 0 255) 'u8vector-set!
+      (begin (u8vector-set! nv 1 0) (u8vector->list nv)))
+(test '(-32768 32767) s16vector->list (s16vector -32768 32767))
+(test -5 s32vector-ref (s32vector -5) 0)
+(test 12345678901 s64vector-ref (s64vector 12345678901) 0)
+(test 1.5 f32vector-ref (f32vector 1.5) 0)
+(test 2.0 f64vector-ref (f64vector 1 2) 1)
+(test '(1.0 2.5) f64vector->list (list->f64vector '(1 2.5)))
+(test #t equal? (u8vector 1 2) (u8vector 1 2))
+(test #f equal? (u8vector 1 2) (s16vector 1 2))
+(test #f equal? (f64vector 1.0) (f64vector 2.0))
+(test #f eqv? (u8vector 1 2) (u8vector 1 2))
+(test (u8vector 1 2 255) read (open-input-string "#u8(1 2 255)"))
+(test (f64vector 1.5 -2.0) read (open-input-string "#f64(1.5 -2.0)"))
+(test "#u8(7 8)" 'write
+      (let ((port (open-output-string)))
+	(write '#u8(7 8) port)
+	(get-output-string port)))
+(test "#f64(0.5 -1.0)" 'write
+      (let ((port (open-output-string)))
+	(write (f64vector 0.5 -1.0) port)
+	(get-output-string port)))
+(define (nv-add a b) (fl+ a b))
+(define (nv-ref v) (f64vector-ref v 0))
+(define (nv-set v) (f64vector-set! v 0 9) v)
+(test 3.0 nv-add 1.0 2.0)
+(test 4.0 nv-ref (f64vector 4.0))
+(test (f64vector 9.0) nv-set (f64vector 1.0))
+(test '(6.0 -5.0 #t 4.0 2.0) 'flonum
+      (list (fl* 2.0 3.0) (fl- 5.0) (fl<? 1.0 2.0) (flsqrt 16.0) (flabs -2.0)))
+;; Redefining an inlined primitive makes its callers analyzed again.
+(define nv-fl+ fl+)
+(define (fl+ a b) 'redefined)
+(test 'redefined nv-add 1.0 2.0)
+(set! fl+ nv-fl+)
+(test 3.0 nv-add 1.0 2.0)
+(define nv-f64vector-ref f64vector-ref)
+(define (f64vector-ref v i) 'redefined)
+(test 'redefined nv-ref (f64vector 4.0))
+(set! f64vector-ref nv-f64vector-ref)
+(test 4.0 nv-ref (f64vector 4.0))
+
+(SECTION 'f64vector-kernels)
+;; The elements are small multiples of 1/4, so that every result is
+;; exact in any order of summation, with or without fused multiply-add.
+(define (kv-make n f)
+  (let ((v (make-f64vector n)))
+    (do ((i 0 (+ i 1))) ((= i n) v)
+      (f64vector-set! v i (f i)))))
+(define kx (kv-make 19 (lambda (i) (- i 9))))
+(define ky (kv-make 19 (lambda (i) (* 0.25 i))))
+(test 142.5 f64vector-dot kx ky)
+(test 0.0 f64vector-sum kx)
+(test 42.75 f64vector-sum ky)
+(test -9.0 f64vector-min kx)
+(test 9.0 f64vector-max kx)
+(test (kv-make 19 (lambda (i) (+ (- i 9) (* 0.25 i)))) f64vector-add kx ky)
+(test (kv-make 19 (lambda (i) (* (- i 9) (* 0.25 i)))) f64vector-mul kx ky)
+(test (kv-make 19 (lambda (i) (* 2 (- i 9)))) f64vector-scale 2 kx)
+(test (kv-make 19 (lambda (i) (+ (* 2 (- i 9)) 1))) f64vector-axpy! 2 kx
+      (make-f64vector 19 1.0))
+(test #t 'f64vector-add
+      (let ((z (make-f64vector 19)))
+	(eq? z (f64vector-add kx ky z))))
+(test 0.0 f64vector-sum (f64vector))
+(test 0.0 f64vector-dot (f64vector) (f64vector))
+
+(SECTION 'hash-table)
+(define ht (make-hash-table))
+(hash-table-set! ht "k" 1)
+(test 1 hash-table-ref/default ht (string-append "k") 0)
+(test 2 'hash-table-update!
+      (begin (hash-table-update! ht "k" (lambda (x) (+ x 1)))
+	     (hash-table-ref ht "k")))
+(test 11 'hash-table-update!/default
+      (begin (hash-table-update!/default ht 'n (lambda (x) (+ x 1)) 10)
+	     (hash-table-ref ht 'n)))
+(test 'none hash-table-ref ht 'absent (lambda () 'none))
+(test 2 hash-table-size ht)
+(test #t hash-table-delete! ht 'n)
+(test '(("k" . 2)) hash-table->alist ht)
+(define ht (make-hash-table eq?))
+(hash-table-set! ht (list 1) 'x)
+(test #f hash-table-contains? ht (list 1))
+(define ht (make-hash-table string=?))
+(hash-table-set! ht "a" 1)
+(test 1 hash-table-ref/default ht (list->string (list #\a)) 0)
+(define ht (make-hash-table))
+(do ((i 0 (+ i 1))) ((= i 1000)) (hash-table-set! ht i (* i i)))
+(test 1000 hash-table-size ht)
+(test 998001 hash-table-ref ht 999)
+(test 332833500 hash-table-fold ht (lambda (k v sum) (+ v sum)) 0)
+(test 0 hash '(a "b" 3) 1)
+(test #t 'string-hash (< -1 (string-hash "abc" 10) 10))
+(test (string-hash "abc" 10) string-hash (string-append "ab" "c") 10)
+(test #t 'hash-by-identity (< -1 (hash-by-identity ht 7) 7))
+
+(SECTION 'write-shared)
+(define (shared->string x)
+  (let ((port (open-output-string)))
+    (write-shared x port)
+    (get-output-string port)))
+(define shared-list (list 'a 'b))
+(define cyclic-list (list 1 2 3))
+(set-cdr! (cddr cyclic-list) cyclic-list)
+(define cyclic-vector (vector 1 2))
+(vector-set! cyclic-vector 0 cyclic-vector)
+(test "#0=(1 2 3 . #0#)" 'write-shared (shared->string cyclic-list))
+(test "(#0=(a b) #0#)" shared->string (list shared-list shared-list))
+(test "#(#0=(a b) #0#)" shared->string (vector shared-list shared-list))
+(test "#0=#(#0# 2)" 'write-shared (shared->string cyclic-vector))
+(test "(1 \"x\" 2)" shared->string (list 1 "x" 2))
+(test #t 'read-datum-labels
+      (let ((x (read (open-input-string (shared->string cyclic-list)))))
+	(eq? x (cdddr x))))
+(define deep-list (do ((i 0 (+ i 1)) (x '() (list x))) ((= i 100000) x)))
+(test 200002 'write-shared (string-length (shared->string deep-list)))
+
+(SECTION 'fasl)
+(define (fasl-round-trip x shared)
+  (let ((out (open-binary-output-file "tmp1" shared)))
+    (write-fasl x out)
+    (close-port out))
+  (let* ((in (open-binary-input-file "tmp1"))
+	 (x (read-fasl in))
+	 (end (read-fasl in)))
+    (close-port in)
+    (if (eof-object? end) x 'not-at-end)))
+(test '(1 -7 2.5 "str" #\a sym () #t #f #(1 2))
+      fasl-round-trip '(1 -7 2.5 "str" #\a sym () #t #f #(1 2)) #f)
+(test '(12345678901234567890123 -98765432109876543210)
+      fasl-round-trip '(12345678901234567890123 -98765432109876543210) #f)
+(test (expt 3 200) fasl-round-trip (expt 3 200) #f)
+(test (f64vector 1.5 -2.0) fasl-round-trip (f64vector 1.5 -2.0) #f)
+(test (s16vector 1 -2 3) fasl-round-trip (s16vector 1 -2 3) #f)
+(test #t 'fasl-shared
+      (let ((x (fasl-round-trip cyclic-list #t)))
+	(eq? x (cdddr x))))
+(test #t 'fasl-shared
+      (let ((x (fasl-round-trip (list shared-list shared-list) #t)))
+	(eq? (car x) (cadr x))))
+(test #f 'fasl-unshared
+      (let ((x (fasl-round-trip (list shared-list shared-list) #f)))
+	(eq? (car x) (cadr x))))
+(test 200002 'fasl-deep
+      (string-length (shared->string (fasl-round-trip deep-list #f))))
+(test 200002 'fasl-deep
+      (string-length (shared->string (fasl-round-trip deep-list #t))))
+(test 100000 'fasl-long
+      (length (fasl-round-trip (vector->list (make-vector 100000 '(x))) #f)))
+
+(SECTION 'image)
+;; The image is left in tmp1, where test.java tests it in a fresh JVM
+;; with "test-image.scm".  Ports cannot be saved.
+(set! this-file #f)
+(set! test-file #f)
+(define image-counter
+  (let ((n 0))
+    (lambda () (set! n (+ n 1)) n)))
+(image-counter)
+(define image-pair (cons shared-list shared-list))
+(define image-table (make-hash-table))
+(hash-table-set! image-table "k" image-pair)
+(define image-symbol (gensym))
+(define image-symbols (list image-symbol image-symbol))
+(define-macro (image-twice x) (* 2 x))
+(define image-closures
+  (do ((i 0 (+ i 1)) (f 'end (let ((g f)) (lambda () g)))) ((= i 100000) f)))
+(define image-first car)
+;; A primitive is saved under its own name even where a variable that
+;; held it has been given another value.
+(define image-display display)
+(define (display x . port) (apply image-display x port))
+(save-image "tmp1")
+(image-counter)
+(set! image-pair #f)
+(set! image-table #f)
+(define-macro (image-twice x) x)
+(load-image "tmp1")
+(test 2 image-counter)
+(test #t 'load-image (eq? (car image-pair) (cdr image-pair)))
+(test #t 'load-image
+      (eq? (hash-table-ref image-table (string-append "k")) image-pair))
+(test #t 'load-image (eq? image-symbol (cadr image-symbols)))
+(test #f 'load-image
+      (eq? image-symbol (string->symbol (symbol->string image-symbol))))
+(test 42 'image-twice (image-twice 21))
+(test 'a image-first '(a b))
+(test "#0=(1 2 3 . #0#)" 'load-image (shared->string cyclic-list))
+(test #f 'load-image (eq? display image-display))
+(test "x" 'image-display
+      (let ((port (open-output-string)))
+	(image-display "x" port)
+	(get-output-string port)))
+(set! display image-display)
+(test 200002 'load-image (string-length (shared->string deep-list)))
+(test 100000 'load-image
+      (do ((f image-closures (f)) (n 0 (+ n 1))) ((not (procedure? f)) n)))
+
+(report-errs)
@@ -0,0 +1,24 @@
+;;;; "test-image.scm" Tests of the image saved by "test-ext.scm".
+;;; test.java loads it in a fresh JVM started with -Djakld.image, so
+;;; that SECTION, test and report-errs are those restored from the image.
+
+(set! errs '())
+(SECTION 'image 'fresh)
+(test 2 image-counter)
+(test #t 'image (eq? (car image-pair) (cdr image-pair)))
+(test #t 'image
+      (eq? (hash-table-ref image-table (string-append "k")) image-pair))
+(test #t 'image (eq? image-symbol (cadr image-symbols)))
+(test 42 'image-twice (image-twice 21))
+(test 'a image-first '(a b))
+(test "#0=(1 2 3 . #0#)" 'image (shared->string cyclic-list))
+(test #f 'image (eq? display image-display))
+(test "x" 'image-display
+      (let ((port (open-output-string)))
+	(display "x" port)
+	(get-output-string port)))
+(test 3.0 nv-add 1.0 2.0)
+(test 200002 'image (string-length (shared->string deep-list)))
+(test 100000 'image
+      (do ((f image-closures (f)) (n 0 (+ n 1))) ((not (procedure? f)) n)))
+(report-errs)
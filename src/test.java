@@ -1,8 +1,92 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.Vector;
+
 final class test {
 
+	private static int failures = 0;
+
 	public static void main(String argv[]) {
 		Eval.initializeSystem();
-		Eval.loadProgram("src\\test.scm");
+		Eval.loadProgram("src/test.scm");
+		Eval.loadProgram("src/test-ext.scm");
+
+		// An error stops the load it occurs in, so the tests of errors
+		// are run here one by one.
+		fails("(u8vector 256)");
+		fails("(u8vector -1)");
+		fails("(make-u8vector 1 300)");
+		fails("(u8vector-set! (u8vector 1) 0 -1)");
+		fails("(s16vector 40000)");
+		fails("(f64vector-dot (f64vector 1) (f64vector 1 2))");
+		fails("(f64vector-add (f64vector 1 2) (f64vector 1))");
+		fails("(f64vector-add (f64vector 1) (f64vector 1) (f64vector 1 2))");
+		fails("(f64vector-axpy! 2 (f64vector 1) (f64vector 1 2))");
+		fails("(hash 'a 0)");
+		fails("(hash 'a -5)");
+		fails("(string-hash \"a\" 1.5)");
+		fails("(hash-by-identity 'a (expt 2 100))");
+
+		if (failures == 0)
+			IO.println("Passed all error tests");
+		else
+			IO.println(failures + " error tests did not fail");
+
+		// The image saved by test-ext.scm is tested in a fresh JVM, where
+		// nothing has been loaded but the image.
+		if (!fresh("tmp1", "src/test-image.scm"))
+			IO.println("The image did not pass in a fresh JVM");
+		IO.flushConsole();
+	}
+
+	private static void fails(String expr) {
+		IO.println(expr + "  ==> error");
+		if (Eval.runProgram(expr) != null) {
+			IO.println(" BUT EXPECTED AN ERROR");
+			failures++;
+		}
+	}
+
+	// Loads file in a new JVM started with the image and the other
+	// jakld properties of this one, and tells if all its tests passed.
+	private static boolean fresh(String image, String file) {
+		Vector<String> command = new Vector<String>();
+		command.addElement(System.getProperty("java.home") + File.separator
+				+ "bin" + File.separator + "java");
+		command.addElement("-cp");
+		command.addElement(System.getProperty("java.class.path"));
+		for (String key : System.getProperties().stringPropertyNames())
+			if (key.startsWith("jakld.") && !key.equals("jakld.image"))
+				command.addElement("-D" + key + "=" + System.getProperty(key));
+		command.addElement("-Djakld.image=" + image);
+		command.addElement("Eval");
+		boolean passed = false;
+		try {
+			ProcessBuilder pb = new ProcessBuilder(command);
+			pb.redirectErrorStream(true);
+			Process p = pb.start();
+			OutputStream in = p.getOutputStream();
+			in.write(("(load \"" + file + "\")\n").getBytes());
+			in.close();
+			BufferedReader out = new BufferedReader(new InputStreamReader(
+					p.getInputStream()));
+			String line;
+			while ((line = out.readLine()) != null) {
+				IO.println(line);
+				if (line.indexOf("Passed all tests") >= 0)
+					passed = true;
+			}
+			p.waitFor();
+		} catch (IOException e) {
+			IO.println(e.toString());
+			return false;
+		} catch (InterruptedException e) {
+			return false;
+		}
+		return passed;
 	}
 
 }